@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.jmh;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utexas.ece.mpc.bloomier.ImmutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.ValueCodec;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
+
+/**
+ * {@link OrderAndMatchFinder#find(long)} alone and a whole {@link ImmutableBloomierFilter} build.
+ * Each build runs once per iteration, so the results are single shot times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ConstructionBenchmark {
+    private static final int SPARE_BITS = 16;
+
+    @Param({ "1000", "100000", "10000000" })
+    public int keyCount;
+
+    @Param({ "ints" })
+    public String codec;
+
+    @Param({ "3", "4" })
+    public int k;
+
+    private List<Integer> keys;
+    private Map<Integer, Object> map;
+    private ValueCodec<Object> valueCodec;
+    private int m;
+    private int q;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = Arrays.asList(Fixtures.keys(keyCount));
+        map = Fixtures.map(keyCount, codec);
+        valueCodec = Fixtures.codec(codec);
+        m = Fixtures.tableSize(keyCount, k);
+        q = valueCodec.getBitWidth() + SPARE_BITS;
+    }
+
+    @Benchmark
+    public OrderAndMatch<Integer> find() throws TimeoutException {
+        return new OrderAndMatchFinder<Integer>(keys, m, k, q).find(Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public ImmutableBloomierFilter<Integer, Object> build() throws TimeoutException {
+        return new ImmutableBloomierFilter<Integer, Object>(map, m, k, q, valueCodec,
+                                                            Integer.MAX_VALUE);
+    }
+}
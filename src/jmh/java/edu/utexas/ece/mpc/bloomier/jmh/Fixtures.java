@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.utexas.ece.mpc.bloomier.ValueCodec;
+import edu.utexas.ece.mpc.bloomier.ValueCodecs;
+
+/**
+ * Key sets and codecs shared by the benchmarks.
+ */
+final class Fixtures {
+    // Comfortably above the peeling threshold of random k-uniform hypergraphs, for k = 2...6
+    private static final double[] TABLE_SIZE_RATIOS = { 0, 0, 2.1, 1.23, 1.3, 1.43, 1.59 };
+    private static final int TABLE_SIZE_SLACK = 32;
+    // Comfortably above where ribbon tables stop solving, plus a band's width
+    private static final double RIBBON_TABLE_SIZE_RATIO = 1.15;
+    private static final int RIBBON_TABLE_SIZE_SLACK = 64;
+
+    // Visiting keys in strides of this prime defeats the CPU caches and prefetchers
+    static final int STRIDE = 1000003;
+
+    private Fixtures() {
+    }
+
+    static int tableSize(int keyCount, int k) {
+        return (int) Math.ceil(TABLE_SIZE_RATIOS[k] * keyCount) + TABLE_SIZE_SLACK;
+    }
+
+    static int ribbonTableSize(int keyCount) {
+        return (int) Math.ceil(RIBBON_TABLE_SIZE_RATIO * keyCount) + RIBBON_TABLE_SIZE_SLACK;
+    }
+
+    /**
+     * @return the boxed keys 0, 1, ... keyCount - 1, so lookups don't box
+     */
+    static Integer[] keys(int keyCount) {
+        Integer[] keys = new Integer[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = i;
+        }
+        return keys;
+    }
+
+    /**
+     * @return keys 0, 1, ... keyCount - 1, each mapped to its value under codec
+     */
+    static Map<Integer, Object> map(int keyCount, String codec) {
+        Map<Integer, Object> map = new HashMap<Integer, Object>(keyCount * 4 / 3 + 1);
+        for (int i = 0; i < keyCount; i++) {
+            map.put(i, value(i, codec));
+        }
+        return map;
+    }
+
+    static Object value(int key, String codec) {
+        switch (codec) {
+            case "bytes":
+                return (byte) key;
+            case "ints":
+            case "kryo":
+                return key;
+            case "longs":
+                return (long) key * 31;
+            case "strings":
+                return "value" + key;
+            default:
+                throw new IllegalArgumentException("Unknown codec " + codec);
+        }
+    }
+
+    /**
+     * @return the codec named: "bytes" (8 bits), "ints" (32), "longs" (64), "strings" (UTF-8 of up
+     *         to 15 bytes, 128 bits) or "kryo" (Kryo serialized ints of up to 5 bytes, 40 bits)
+     */
+    @SuppressWarnings("unchecked")
+    static ValueCodec<Object> codec(String codec) {
+        switch (codec) {
+            case "bytes":
+                return (ValueCodec<Object>) (ValueCodec<?>) ValueCodecs.bytes();
+            case "ints":
+                return (ValueCodec<Object>) (ValueCodec<?>) ValueCodecs.ints();
+            case "longs":
+                return (ValueCodec<Object>) (ValueCodec<?>) ValueCodecs.longs();
+            case "strings":
+                return (ValueCodec<Object>) (ValueCodec<?>) ValueCodecs.utf8Strings(15);
+            case "kryo":
+                return (ValueCodec<Object>) (ValueCodec<?>) ValueCodecs.kryo(Integer.class, 5);
+            default:
+                throw new IllegalArgumentException("Unknown codec " + codec);
+        }
+    }
+}
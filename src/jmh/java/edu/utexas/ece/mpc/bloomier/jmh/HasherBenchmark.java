@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.PackedBits;
+
+/**
+ * {@link BloomierHasher#getNeighborhood(Object)} and {@link BloomierHasher#getM(Object)}, which
+ * allocate their results, against {@link BloomierHasher#hash(Object, int[], long[])}, which
+ * computes both into caller arrays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class HasherBenchmark {
+    private static final int KEY_COUNT = 1 << 16;
+
+    @Param({ "3", "4" })
+    public int k;
+
+    @Param({ "24", "48", "144" })
+    public int q;
+
+    private BloomierHasher<Integer> hasher;
+    private Integer[] keys;
+    private int next;
+
+    private int[] neighborhood;
+    private long[] mask;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hasher = new BloomierHasher<Integer>(0, Fixtures.tableSize(KEY_COUNT, k), k, q);
+        keys = Fixtures.keys(KEY_COUNT);
+        neighborhood = new int[k];
+        mask = new long[PackedBits.entryWords(q)];
+    }
+
+    private Integer nextKey() {
+        next = (next + 1) & (KEY_COUNT - 1);
+        return keys[next];
+    }
+
+    @Benchmark
+    public int[] getNeighborhood() {
+        return hasher.getNeighborhood(nextKey());
+    }
+
+    @Benchmark
+    public byte[] getM() {
+        return hasher.getM(nextKey());
+    }
+
+    @Benchmark
+    public long hash() {
+        hasher.hash(nextKey(), neighborhood, mask);
+        return neighborhood[0] ^ mask[0];
+    }
+}
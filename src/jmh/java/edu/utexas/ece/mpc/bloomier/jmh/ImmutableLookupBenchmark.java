@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.utexas.ece.mpc.bloomier.ImmutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.ValueCodec;
+
+/**
+ * {@link ImmutableBloomierFilter#get(Object)} and
+ * {@link ImmutableBloomierFilter#getAll(Object[], Object[])} of members, and get of non-members,
+ * which mostly stop at the spare bits check. The ribbon layout ignores k, always reading one band.
+ * All threads share one filter, so running with -t 1, 2, 4, ... shows how reads scale with cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ImmutableLookupBenchmark {
+    private static final int BATCH_SIZE = 256;
+
+    @Param({ "1000", "100000", "10000000" })
+    public int keyCount;
+
+    @Param({ "ints", "longs", "strings", "kryo" })
+    public String codec;
+
+    @Param({ "3", "4" })
+    public int k;
+
+    @Param({ "16" })
+    public int spareBits;
+
+    @Param({ "peeled", "ribbon" })
+    public String layout;
+
+    private ImmutableBloomierFilter<Integer, Object> filter;
+    private Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void build() throws TimeoutException {
+        ValueCodec<Object> valueCodec = Fixtures.codec(codec);
+        int q = valueCodec.getBitWidth() + spareBits;
+        if (layout.equals("ribbon")) {
+            filter = ImmutableBloomierFilter.ribbon(Fixtures.map(keyCount, codec),
+                                                    Fixtures.ribbonTableSize(keyCount), q,
+                                                    KeyFunnels.hashCodes(), valueCodec,
+                                                    Long.MAX_VALUE);
+        } else {
+            filter = new ImmutableBloomierFilter<Integer, Object>(Fixtures.map(keyCount, codec),
+                                                                  Fixtures.tableSize(keyCount, k),
+                                                                  k, q, valueCodec,
+                                                                  Integer.MAX_VALUE);
+        }
+        keys = Fixtures.keys(keyCount);
+    }
+
+    /**
+     * Each thread's own walk over the keys.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+        final Integer[] batch = new Integer[BATCH_SIZE];
+        final Object[] values = new Object[BATCH_SIZE];
+
+        int next(int keyCount) {
+            next = (int) ((next + (long) Fixtures.STRIDE) % keyCount);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Object get(Cursor cursor) {
+        return filter.get(keys[cursor.next(keyCount)]);
+    }
+
+    @Benchmark
+    public Object getNonMember(Cursor cursor) {
+        return filter.get(keyCount + cursor.next(keyCount));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void getAll(Cursor cursor, Blackhole blackhole) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            cursor.batch[i] = keys[cursor.next(keyCount)];
+        }
+        filter.getAll(cursor.batch, cursor.values);
+        blackhole.consume(cursor.values);
+    }
+}
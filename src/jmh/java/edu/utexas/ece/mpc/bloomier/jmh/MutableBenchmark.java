@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utexas.ece.mpc.bloomier.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.MutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.ValueCodecs;
+
+/**
+ * {@link MutableBloomierFilter#get(Object)} and {@link MutableBloomierFilter#set(Object, Object)}
+ * on each value store, alone and as a group of three readers and a writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MutableBenchmark {
+    private static final int SPARE_BITS = 16;
+
+    @Param({ "1000", "100000", "10000000" })
+    public int keyCount;
+
+    @Param({ "slots", "dense", "packed" })
+    public String store;
+
+    @Param({ "3" })
+    public int k;
+
+    private MutableBloomierFilter<Integer, Integer> filter;
+    private Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void build() throws TimeoutException {
+        keys = Fixtures.keys(keyCount);
+        Map<Integer, Integer> ints = new HashMap<Integer, Integer>(keyCount * 4 / 3 + 1);
+        for (Integer key: keys) {
+            ints.put(key, key);
+        }
+
+        int m = Fixtures.tableSize(keyCount, k);
+        if (store.equals("dense")) {
+            filter = MutableBloomierFilter.compact(ints, m, k, SPARE_BITS, KeyFunnels.hashCodes(),
+                                                   Integer.MAX_VALUE);
+        } else if (store.equals("packed")) {
+            filter = MutableBloomierFilter.compact(ints, m, k, SPARE_BITS, KeyFunnels.hashCodes(),
+                                                   ValueCodecs.ints(), Integer.MAX_VALUE);
+        } else {
+            // Tau table entries hold tau < k and the spare bits
+            int q = 32 - Integer.numberOfLeadingZeros(k - 1) + SPARE_BITS;
+            filter = new MutableBloomierFilter<Integer, Integer>(ints, m, k, q, Integer.MAX_VALUE);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next(int keyCount) {
+            next = (int) ((next + (long) Fixtures.STRIDE) % keyCount);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Integer get(Cursor cursor) {
+        return filter.get(keys[cursor.next(keyCount)]);
+    }
+
+    @Benchmark
+    public void set(Cursor cursor) {
+        Integer key = keys[cursor.next(keyCount)];
+        filter.set(key, key);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Integer reader(Cursor cursor) {
+        return get(cursor);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void writer(Cursor cursor) {
+        set(cursor);
+    }
+}
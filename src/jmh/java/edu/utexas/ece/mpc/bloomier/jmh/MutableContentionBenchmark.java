@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+
+package edu.utexas.ece.mpc.bloomier.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utexas.ece.mpc.bloomier.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.MutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.ValueCodecs;
+
+/**
+ * Throughput of one shared {@link MutableBloomierFilter} under a mix of reads and writes, run with
+ * -t 1, 2, 4, ... to see how it scales with threads. Writes go to random keys, so they rarely
+ * collide, but packed values share words with their neighbors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MutableContentionBenchmark {
+    private static final int SPARE_BITS = 16;
+    private static final int K = 3;
+
+    @Param({ "1000000" })
+    public int keyCount;
+
+    @Param({ "slots", "dense", "packed" })
+    public String store;
+
+    @Param({ "0", "1", "10", "50" })
+    public int writePercentage;
+
+    private MutableBloomierFilter<Integer, Integer> filter;
+    private Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void build() throws TimeoutException {
+        keys = Fixtures.keys(keyCount);
+        Map<Integer, Integer> ints = new HashMap<Integer, Integer>(keyCount * 4 / 3 + 1);
+        for (Integer key: keys) {
+            ints.put(key, key);
+        }
+
+        int m = Fixtures.tableSize(keyCount, K);
+        if (store.equals("dense")) {
+            filter = MutableBloomierFilter.compact(ints, m, K, SPARE_BITS, KeyFunnels.hashCodes(),
+                                                   Integer.MAX_VALUE);
+        } else if (store.equals("packed")) {
+            filter = MutableBloomierFilter.compact(ints, m, K, SPARE_BITS, KeyFunnels.hashCodes(),
+                                                   ValueCodecs.ints(), Integer.MAX_VALUE);
+        } else {
+            // Tau table entries hold tau < k and the spare bits
+            int q = 32 - Integer.numberOfLeadingZeros(K - 1) + SPARE_BITS;
+            filter = new MutableBloomierFilter<Integer, Integer>(ints, m, K, q, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Each thread's own random walk over the keys.
+     */
+    @State(Scope.Thread)
+    public static class Xorshift {
+        private long state = System.identityHashCode(this) | 1;
+
+        // xorshift, so picking keys costs next to nothing
+        long next() {
+            state ^= state << 13;
+            state ^= state >>> 7;
+            state ^= state << 17;
+            return state;
+        }
+    }
+
+    @Benchmark
+    public Integer mixed(Xorshift random) {
+        long bits = random.next();
+        Integer key = keys[(int) ((bits >>> 1) % keyCount)];
+        if ((bits >>> 40) % 100 < writePercentage) {
+            filter.set(key, key);
+            return key;
+        }
+        return filter.get(key);
+    }
+}
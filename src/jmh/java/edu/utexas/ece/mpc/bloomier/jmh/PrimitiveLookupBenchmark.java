@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+
+package edu.utexas.ece.mpc.bloomier.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.utexas.ece.mpc.bloomier.IntIntBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.LongLongBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.MutableLongLongBloomierFilter;
+
+/**
+ * Lookups in the primitive filters: {@link LongLongBloomierFilter#get(long, long)} against
+ * {@link LongLongBloomierFilter#getAll(long[], long[], long)}, whose batched probes pay off once the
+ * table outgrows the last level cache, the int filter's batches, which widen keys on the way, and
+ * get of a {@link MutableLongLongBloomierFilter}, which reads the value store after the table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PrimitiveLookupBenchmark {
+    private static final int BATCH_SIZE = 4096;
+    private static final int SPARE_BITS = 16;
+
+    @Param({ "1000", "100000", "10000000" })
+    public int keyCount;
+
+    @Param({ "3" })
+    public int k;
+
+    private LongLongBloomierFilter longs;
+    private IntIntBloomierFilter ints;
+    private MutableLongLongBloomierFilter mutableLongs;
+
+    @Setup(Level.Trial)
+    public void build() throws TimeoutException {
+        long[] longKeys = new long[keyCount];
+        int[] intKeys = new int[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            longKeys[i] = i;
+            intKeys[i] = i;
+        }
+
+        int m = Fixtures.tableSize(keyCount, k);
+        longs = new LongLongBloomierFilter(longKeys, longKeys, m, k, Long.SIZE + SPARE_BITS,
+                                           Long.MAX_VALUE);
+        ints = new IntIntBloomierFilter(intKeys, intKeys, m, k, Integer.SIZE + SPARE_BITS,
+                                        Long.MAX_VALUE);
+        mutableLongs = new MutableLongLongBloomierFilter(longKeys, longKeys, m, k, SPARE_BITS,
+                                                         Long.MAX_VALUE);
+    }
+
+    /**
+     * Each thread's own walk over the keys.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+        final long[] longBatch = new long[BATCH_SIZE];
+        final long[] longValues = new long[BATCH_SIZE];
+        final int[] intBatch = new int[BATCH_SIZE];
+        final int[] intValues = new int[BATCH_SIZE];
+
+        int next(int keyCount) {
+            next = (int) ((next + (long) Fixtures.STRIDE) % keyCount);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public long get(Cursor cursor) {
+        return longs.get(cursor.next(keyCount), -1);
+    }
+
+    @Benchmark
+    public long getNonMember(Cursor cursor) {
+        return longs.get(keyCount + cursor.next(keyCount), -1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void getAll(Cursor cursor, Blackhole blackhole) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            cursor.longBatch[i] = cursor.next(keyCount);
+        }
+        longs.getAll(cursor.longBatch, cursor.longValues, -1);
+        blackhole.consume(cursor.longValues);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void getAllInts(Cursor cursor, Blackhole blackhole) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            cursor.intBatch[i] = cursor.next(keyCount);
+        }
+        ints.getAll(cursor.intBatch, cursor.intValues, -1);
+        blackhole.consume(cursor.intValues);
+    }
+
+    @Benchmark
+    public long getMutable(Cursor cursor) {
+        return mutableLongs.get(cursor.next(keyCount), -1);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utexas.ece.mpc.bloomier.ImmutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.ValueCodec;
+
+/**
+ * {@link ImmutableBloomierFilter#writeTo(OutputStream)} to memory,
+ * {@link ImmutableBloomierFilter#readFrom(java.io.InputStream, ValueCodec)} from memory and
+ * {@link ImmutableBloomierFilter#map(FileChannel, long, ValueCodec, boolean)} of a temporary file,
+ * with and without verifying checksums.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SerializationBenchmark {
+    private static final int K = 3;
+    private static final int SPARE_BITS = 16;
+
+    @Param({ "1000", "100000", "10000000" })
+    public int keyCount;
+
+    @Param({ "ints", "longs" })
+    public String codec;
+
+    private ValueCodec<Object> valueCodec;
+    private ImmutableBloomierFilter<Integer, Object> filter;
+    private byte[] bytes;
+    private File file;
+    private RandomAccessFile raf;
+
+    @Setup(Level.Trial)
+    public void setUp() throws TimeoutException, IOException {
+        valueCodec = Fixtures.codec(codec);
+        filter = new ImmutableBloomierFilter<Integer, Object>(Fixtures.map(keyCount, codec),
+                                                              Fixtures.tableSize(keyCount, K), K,
+                                                              valueCodec.getBitWidth() + SPARE_BITS,
+                                                              valueCodec, Integer.MAX_VALUE);
+        bytes = write().toByteArray();
+
+        file = File.createTempFile("bloomier", ".blm");
+        raf = new RandomAccessFile(file, "rw");
+        raf.write(bytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        raf.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream write() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes == null ? 32 : bytes.length);
+        filter.writeTo(out);
+        return out;
+    }
+
+    @Benchmark
+    public ImmutableBloomierFilter<Integer, Object> read() throws IOException {
+        return ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(bytes), valueCodec);
+    }
+
+    @Benchmark
+    public ImmutableBloomierFilter<Integer, Object> map() throws IOException {
+        return ImmutableBloomierFilter.map(raf.getChannel(), 0, valueCodec, false);
+    }
+
+    @Benchmark
+    public ImmutableBloomierFilter<Integer, Object> mapVerified() throws IOException {
+        return ImmutableBloomierFilter.map(raf.getChannel(), 0, valueCodec, true);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+
+package edu.utexas.ece.mpc.bloomier.jmh;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.utexas.ece.mpc.bloomier.ShardedBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.ValueCodecs;
+
+/**
+ * A whole {@link ShardedBloomierFilter} build on fork-join pools of growing size, showing how the
+ * build scales with cores (pass e.g. -p workers=1,2,4,8,16,32 to match the machine). Each build
+ * runs once per iteration, so the results are single shot times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ShardedBuildBenchmark {
+    private static final int K = 3;
+    private static final int Q = 48;
+
+    @Param({ "10000000" })
+    public int keyCount;
+
+    @Param({ "256" })
+    public int shardCount;
+
+    @Param({ "1", "2", "4", "8" })
+    public int workers;
+
+    private Map<Integer, Object> map;
+    private int m;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = Fixtures.map(keyCount, "ints");
+        // Every shard gets its own slack
+        m = Fixtures.tableSize(keyCount, K) + Fixtures.tableSize(0, K) * shardCount;
+        pool = new ForkJoinPool(workers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public ShardedBloomierFilter<Integer, Object> build() throws TimeoutException {
+        return new ShardedBloomierFilter<Integer, Object>(map, m, K, Q, Fixtures.codec("ints"),
+                                                          shardCount, Long.MAX_VALUE, pool);
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+/**
+ * JMH benchmarks, built with "mvn -P jmh package" and run with e.g.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar -prof gc                        # everything, with allocation rates
+ * java -jar target/benchmarks.jar ImmutableLookup -t 8 -p keyCount=100000000
+ * </pre>
+ *
+ * Key counts default to 10^3, 10^5 and 10^7; 10^8 needs a heap of several GB (-jvmArgs -Xmx16g).
+ * Thread counts are chosen with -t.
+ */
+package edu.utexas.ece.mpc.bloomier.jmh;
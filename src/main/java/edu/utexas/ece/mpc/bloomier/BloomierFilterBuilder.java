@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Picks filter parameters from the number of keys, the value codec and a target false positive
+ * rate, and builds filters with them.
+ * <p>
+ * k is always 3, the neighborhood size that peels with the smallest table: random 3-uniform
+ * hypergraphs peel with high probability once there are about 1.23 table entries per key, so m is
+ * {@value #TABLE_SIZE_RATIO} n plus a little slack for small key sets. q gives every entry the
+ * codec's bits plus enough spare bits for a non-member to get through with at most the target
+ * probability. Entries are bit-packed, so every bit of q costs m bits of table and none are added
+ * beyond that, except for values of at least {@value #WIDE_VALUE_BITS} bits: their q is rounded up
+ * to a multiple of 64 so entries are whole words, XORed without any shifting (see
+ * {@link edu.utexas.ece.mpc.bloomier.internal.PackedBits}). That costs less than a quarter more
+ * table, and the extra bits all go to the fingerprint.
+ */
+public class BloomierFilterBuilder<K, V> {
+    public static final int K = 3;
+    public static final double TABLE_SIZE_RATIO = 1.23;
+    public static final int WIDE_VALUE_BITS = 256;
+
+    // Finite key sets need a little more room than the asymptotic threshold
+    private static final int TABLE_SIZE_SLACK = 32;
+
+    // Fraction of seeds that peel with the table sizes above, measured over random key sets of
+    // {n, success rate}
+    private static final double[][] MEASURED_SUCCESS_RATES = { { 10, 0.99 }, { 100, 0.96 },
+            { 1000, 0.89 }, { 3000, 0.86 }, { 10000, 0.9 }, { 30000, 0.98 }, { 100000, 1 } };
+
+    private final int keyCount;
+    private final KeyFunnel<? super K> keyFunnel;
+    private final ValueCodec<V> valueCodec;
+
+    private final int m;
+    private final int q;
+
+    public BloomierFilterBuilder(int keyCount, ValueCodec<V> valueCodec, double falsePositiveRate) {
+        this(keyCount, KeyFunnels.hashCodes(), valueCodec, falsePositiveRate);
+    }
+
+    /**
+     * @param keyCount
+     *            (maximum) number of keys the filters will hold
+     * @param falsePositiveRate
+     *            highest acceptable probability of a non-member being reported as a member
+     */
+    public BloomierFilterBuilder(int keyCount, KeyFunnel<? super K> keyFunnel,
+                                 ValueCodec<V> valueCodec, double falsePositiveRate) {
+        if (keyCount < 0) {
+            throw new IllegalArgumentException("Key count must not be negative (was " + keyCount
+                                               + ")");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be in (0,1) (was "
+                                               + falsePositiveRate + ")");
+        }
+
+        this.keyCount = keyCount;
+        this.keyFunnel = keyFunnel;
+        this.valueCodec = valueCodec;
+
+        m = tableSize(keyCount);
+        int spareBits = (int) Math.ceil(-Math.log(falsePositiveRate) / Math.log(2));
+        int q = valueCodec.getBitWidth() + spareBits;
+        if (valueCodec.getBitWidth() >= WIDE_VALUE_BITS) {
+            q = (q + Long.SIZE - 1) / Long.SIZE * Long.SIZE;
+        }
+        this.q = q;
+    }
+
+    private static int tableSize(int keyCount) {
+        long m = (long) Math.ceil(TABLE_SIZE_RATIO * keyCount) + TABLE_SIZE_SLACK;
+        if (m > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many keys (" + keyCount + ")");
+        }
+        return (int) m;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getK() {
+        return K;
+    }
+
+    public int getQ() {
+        return q;
+    }
+
+    /**
+     * @return bits of each entry past the codec's, the fingerprint checked before decoding (see
+     *         {@link ImmutableBloomierFilter#getFingerprintBits()})
+     */
+    public int getFingerprintBits() {
+        return q - valueCodec.getBitWidth();
+    }
+
+    /**
+     * @return the false positive rate filters will actually have: at most this, and less if the
+     *         codec rejects some of the bit patterns it could be handed
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(2, -getFingerprintBits());
+    }
+
+    /**
+     * @return table bits per key
+     */
+    public double getBitsPerKey() {
+        return keyCount == 0 ? 0 : (double) m * q / keyCount;
+    }
+
+    /**
+     * @return expected number of hash seeds {@link #build(Map, long)} tries before one peels (at
+     *         least 1), estimated from success rates measured with this table size
+     */
+    public double getExpectedAttempts() {
+        double[][] rates = MEASURED_SUCCESS_RATES;
+        if (keyCount <= rates[0][0]) {
+            return 1 / rates[0][1];
+        }
+        for (int i = 1; i < rates.length; i++) {
+            if (keyCount <= rates[i][0]) {
+                // Interpolate over log n
+                double t = Math.log(keyCount / rates[i - 1][0])
+                           / Math.log(rates[i][0] / rates[i - 1][0]);
+                return 1 / (rates[i - 1][1] + t * (rates[i][1] - rates[i - 1][1]));
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Builds an immutable filter of map, which may have at most the key count given.
+     */
+    public ImmutableBloomierFilter<K, V> build(Map<K, V> map, long timeoutMs)
+            throws TimeoutException {
+        checkSize(map);
+        return new ImmutableBloomierFilter<K, V>(map, m, K, q, keyFunnel, valueCodec,
+                                                 (int) Math.min(timeoutMs, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Builds a sharded filter of map, which may have at most the key count given. Every shard gets
+     * its own slack, so the table is slightly larger than {@link #getM()}.
+     */
+    public ShardedBloomierFilter<K, V> buildSharded(Map<K, V> map, int shardCount, long timeoutMs,
+                                                    ForkJoinPool pool) throws TimeoutException {
+        checkSize(map);
+        checkShardCount(shardCount);
+        int shardM = tableSize((keyCount + shardCount - 1) / shardCount);
+        return new ShardedBloomierFilter<K, V>(map, shardM * shardCount, K, q, keyFunnel,
+                                               valueCodec, shardCount, timeoutMs, pool);
+    }
+
+    /**
+     * @return a streaming builder for up to the key count given, sizing each shard like
+     *         {@link #buildSharded(Map, int, long, ForkJoinPool)}
+     */
+    public StreamingBloomierFilterBuilder<K, V> streamingBuilder(int shardCount, File tempDirectory)
+            throws IOException {
+        checkShardCount(shardCount);
+        int shardKeyCount = Math.max(1, (keyCount + shardCount - 1) / shardCount);
+        double tableSizeRatio = (double) tableSize(shardKeyCount) / shardKeyCount;
+        return new StreamingBloomierFilterBuilder<K, V>(K, q, tableSizeRatio, keyFunnel,
+                                                        valueCodec, shardCount, tempDirectory);
+    }
+
+    private static void checkShardCount(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive (was " + shardCount
+                                               + ")");
+        }
+    }
+
+    private void checkSize(Map<K, V> map) {
+        if (map.size() > keyCount) {
+            throw new IllegalArgumentException("Map has " + map.size() + " keys (built for at most "
+                                               + keyCount + ")");
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current version of a filter that is periodically replaced by a rebuilt one. Readers
+ * pin the current version with {@link #acquire()} and unpin it with {@link Snapshot#close()};
+ * {@link #publish(ImmutableBloomierFilter)} swaps in a new version atomically, and a replaced
+ * version's table is released (a mapped table unmapped, see
+ * {@link ImmutableBloomierFilter#map(java.nio.channels.FileChannel, long, ValueCodec, boolean)})
+ * as soon as the last reader pinning it is done, so no reader can touch unmapped memory.
+ * <p>
+ * Pinning is a reference count update and allocates nothing. All methods are safe to call from any
+ * number of threads at once.
+ */
+public class BloomierFilterHandle<K, V> {
+    private final AtomicReference<Snapshot<K, V>> current;
+
+    public BloomierFilterHandle(ImmutableBloomierFilter<K, V> filter) {
+        current = new AtomicReference<Snapshot<K, V>>(new Snapshot<K, V>(filter));
+    }
+
+    /**
+     * Pins the current version. Every snapshot acquired must be closed exactly once (e.g. with
+     * try-with-resources), and its filter not used after that.
+     *
+     * @throws IllegalStateException
+     *             if the handle has been closed
+     */
+    public Snapshot<K, V> acquire() {
+        for (;;) {
+            Snapshot<K, V> snapshot = current.get();
+            if (snapshot == null) {
+                throw new IllegalStateException("Handle is closed");
+            }
+            if (snapshot.retain()) {
+                return snapshot;
+            }
+            // Replaced and released since we read it; the new version is current by now
+        }
+    }
+
+    /**
+     * Looks key up in the current version.
+     */
+    public V get(K key) {
+        Snapshot<K, V> snapshot = acquire();
+        try {
+            return snapshot.getFilter().get(key);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Makes filter the current version. The replaced version is released once no reader pins it,
+     * so filter must have a table of its own: neither the current version again nor a view of it
+     * such as {@link ImmutableBloomierFilter#withLookupListener(LookupListener)}.
+     *
+     * @throws IllegalArgumentException
+     *             if filter shares the current version's table
+     * @throws IllegalStateException
+     *             if the handle has been closed
+     */
+    public void publish(ImmutableBloomierFilter<K, V> filter) {
+        Snapshot<K, V> replacement = new Snapshot<K, V>(filter);
+        for (;;) {
+            Snapshot<K, V> replaced = current.get();
+            if (replaced == null) {
+                throw new IllegalStateException("Handle is closed");
+            }
+            if (replaced.getFilter().sharesTable(filter)) {
+                throw new IllegalArgumentException("Filter shares the current version's table,"
+                                                   + " which replacing it would release");
+            }
+            if (current.compareAndSet(replaced, replacement)) {
+                replaced.close(); // the handle's own reference
+                return;
+            }
+        }
+    }
+
+    /**
+     * Releases the current version once no reader pins it. The handle can't be used afterwards.
+     */
+    public void close() {
+        Snapshot<K, V> last = current.getAndSet(null);
+        if (last != null) {
+            last.close();
+        }
+    }
+
+    /**
+     * A pinned version of the filter.
+     */
+    public static class Snapshot<K, V> implements AutoCloseable {
+        private final ImmutableBloomierFilter<K, V> filter;
+        // The handle holds one reference while this is the current version, each reader another
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Snapshot(ImmutableBloomierFilter<K, V> filter) {
+            this.filter = filter;
+        }
+
+        public ImmutableBloomierFilter<K, V> getFilter() {
+            return filter;
+        }
+
+        // Takes a reference unless the last one is already gone
+        boolean retain() {
+            for (;;) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Unpins this version, releasing its table if it has been replaced and this was the last
+         * reader.
+         */
+        @Override
+        public void close() {
+            int count = references.decrementAndGet();
+            if (count == 0) {
+                filter.release();
+            } else if (count < 0) {
+                throw new IllegalStateException("Snapshot closed more often than acquired");
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * What building a filter took: how many hash seeds were tried before one peeled, how far peeling
+ * got, where the time went and how much memory the build's arrays took. A filter built from a map
+ * has its statistics at {@link ImmutableBloomierFilter#getBuildStatistics()}, and a build that
+ * gives up throws a {@link TimeoutException} with them in its message.
+ * <p>
+ * Times are summed over all seed attempts (and, for parallel builds, over all workers), so they
+ * may add up to more than the elapsed time.
+ */
+public final class BuildStatistics {
+    private final int keyCount;
+    private final int m;
+    private final long seedAttempts;
+    private final int peelRounds;
+    private final int stuckKeys;
+    private final long hashNanos;
+    private final long peelNanos;
+    private final long fillNanos;
+    private final long bytesAllocated;
+
+    /**
+     * @param peelRounds
+     *            peeling rounds of the last seed attempt
+     * @param stuckKeys
+     *            keys the last failed seed attempt couldn't peel (0 if none failed)
+     * @param bytesAllocated
+     *            bytes of the working arrays and table the build allocated
+     */
+    public BuildStatistics(int keyCount, int m, long seedAttempts, int peelRounds, int stuckKeys,
+                           long hashNanos, long peelNanos, long fillNanos, long bytesAllocated) {
+        this.keyCount = keyCount;
+        this.m = m;
+        this.seedAttempts = seedAttempts;
+        this.peelRounds = peelRounds;
+        this.stuckKeys = stuckKeys;
+        this.hashNanos = hashNanos;
+        this.peelNanos = peelNanos;
+        this.fillNanos = fillNanos;
+        this.bytesAllocated = bytesAllocated;
+    }
+
+    // These statistics plus the filling of a table of tableBytes bytes
+    BuildStatistics withFill(long fillNanos, long tableBytes) {
+        return new BuildStatistics(keyCount, m, seedAttempts, peelRounds, stuckKeys, hashNanos,
+                                   peelNanos, this.fillNanos + fillNanos,
+                                   bytesAllocated + tableBytes);
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    /**
+     * @return number of hash seeds tried, the successful one included
+     */
+    public long getSeedAttempts() {
+        return seedAttempts;
+    }
+
+    /**
+     * @return peeling rounds of the last seed attempt, each taking every slot the previous round
+     *         left with a single key
+     */
+    public int getPeelRounds() {
+        return peelRounds;
+    }
+
+    /**
+     * @return keys the most recent failed seed attempt couldn't peel, or 0 if none failed. Many
+     *         stuck keys on every attempt mean the table is too small for k.
+     */
+    public int getStuckKeys() {
+        return stuckKeys;
+    }
+
+    /**
+     * @return time spent hashing keys to their neighborhoods
+     */
+    public long getHashNanos() {
+        return hashNanos;
+    }
+
+    /**
+     * @return time spent peeling, or for ribbon filters solving the table
+     */
+    public long getPeelNanos() {
+        return peelNanos;
+    }
+
+    /**
+     * @return time spent encoding values and filling the table (which ribbon filters' solving
+     *         already does)
+     */
+    public long getFillNanos() {
+        return fillNanos;
+    }
+
+    /**
+     * @return keys per table entry
+     */
+    public double getFillRatio() {
+        return (double) keyCount / m;
+    }
+
+    /**
+     * @return bytes of the working arrays and table the build allocated, not counting the keys and
+     *         values themselves
+     */
+    public long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d seeds tried; last took %d peel rounds; %d keys stuck;"
+                                     + " hash %.1f ms, peel %.1f ms, fill %.1f ms;"
+                                     + " fill ratio %.3f; %d bytes allocated",
+                             seedAttempts, peelRounds, stuckKeys, hashNanos / 1e6,
+                             peelNanos / 1e6, fillNanos / 1e6, getFillRatio(), bytesAllocated);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link MutableBloomierFilter} that also takes new keys. A new key goes into a small exact-match
+ * stash that lookups consult before the filter; once the stash holds stashLimit keys the filter is
+ * rebuilt with them on a background executor and swapped in atomically.
+ * <p>
+ * Lookups never lock or block, rebuild or not. Updates take a lock shared with every other update,
+ * so they only wait out the brief moments when a rebuild starts or finishes, never the rebuild
+ * itself; updates made while a rebuild runs go to the stash and stay there until the next one.
+ * <p>
+ * A filter can't list its keys, so the keys are kept (but not their values) for rebuilding. They
+ * also tell updates exactly which keys are members, so a new key the filter would mistake for one
+ * is stashed rather than overwriting the value of the member it collides with. null values are not
+ * allowed.
+ */
+public class DynamicBloomierFilter<K, V> {
+    private final int k;
+    private final int q;
+    private final double tableSizeRatio;
+    private final KeyFunnel<? super K> keyFunnel;
+    private final int stashLimit;
+    private final Executor executor;
+    private final long rebuildTimeoutMs;
+
+    // Updates hold the read lock, swapping generations the write lock
+    private final ReadWriteLock updateLock = new ReentrantReadWriteLock();
+    private volatile Generation<K, V> generation;
+    private FutureTask<Void> rebuild;
+
+    /**
+     * @param tableSizeRatio
+     *            table entries per key (m / n), both for the initial filter and for rebuilt ones
+     * @param stashLimit
+     *            number of stashed keys that triggers a rebuild
+     * @param executor
+     *            runs rebuilds
+     * @param rebuildTimeoutMs
+     *            time allowed for building each filter; a rebuild that runs out keeps the stash,
+     *            and the next update past the limit tries again
+     */
+    public DynamicBloomierFilter(Map<K, V> map, int k, int q, double tableSizeRatio,
+                                 KeyFunnel<? super K> keyFunnel, int stashLimit, Executor executor,
+                                 long rebuildTimeoutMs) throws TimeoutException {
+        if (stashLimit < 1) {
+            throw new IllegalArgumentException("Stash limit must be positive (was " + stashLimit
+                                               + ")");
+        }
+
+        this.k = k;
+        this.q = q;
+        this.tableSizeRatio = tableSizeRatio;
+        this.keyFunnel = keyFunnel;
+        this.stashLimit = stashLimit;
+        this.executor = executor;
+        this.rebuildTimeoutMs = rebuildTimeoutMs;
+
+        for (V value: map.values()) {
+            checkValue(value);
+        }
+        generation = new Generation<K, V>(build(map), new HashSet<K>(map.keySet()),
+                                          Collections.<K, V> emptyMap(),
+                                          new ConcurrentHashMap<K, V>(), false);
+    }
+
+    private MutableBloomierFilter<K, V> build(Map<K, V> map) throws TimeoutException {
+        int m = Math.max(k, (int) Math.ceil(tableSizeRatio * map.size()));
+        return new MutableBloomierFilter<K, V>(map, m, k, q, keyFunnel, rebuildTimeoutMs);
+    }
+
+    /**
+     * @return key's value, or null if it is detected not to be a member
+     */
+    public V get(K key) {
+        Generation<K, V> generation = this.generation;
+        V value = generation.stash.get(key);
+        if (value == null) {
+            value = generation.frozen.get(key);
+        }
+        if (value == null) {
+            value = generation.filter.get(key);
+        }
+        return value;
+    }
+
+    /**
+     * Tells whether key is a member, checking the filter's fingerprint rather than decoding (see
+     * {@link ImmutableBloomierFilter#contains(Object)}).
+     */
+    public boolean contains(K key) {
+        Generation<K, V> generation = this.generation;
+        return generation.stash.containsKey(key) || generation.frozen.containsKey(key)
+               || generation.filter.contains(key);
+    }
+
+    /**
+     * Sets key's value, adding key if it is new.
+     */
+    public void put(K key, V value) {
+        checkValue(value);
+
+        boolean full;
+        updateLock.readLock().lock();
+        try {
+            Generation<K, V> generation = this.generation;
+            if (generation.rebuilding || generation.stash.containsKey(key)
+                || generation.frozen.containsKey(key) || generation.keys.contains(key) == false) {
+                // While rebuilding the filter and frozen stash are being read, so leave them be
+                generation.stash.put(key, value);
+                full = generation.rebuilding == false && generation.stash.size() >= stashLimit;
+            } else {
+                generation.filter.set(key, value);
+                full = false;
+            }
+        } finally {
+            updateLock.readLock().unlock();
+        }
+
+        if (full) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Starts rebuilding the filter with the stashed keys unless a rebuild is already running.
+     *
+     * @return the running rebuild, which fails with a {@link TimeoutException} if no filter was
+     *         found in time
+     * @throws RejectedExecutionException
+     *             if the executor wouldn't run the rebuild; the stash is left as it was, and the
+     *             next update past the limit tries again
+     */
+    public Future<Void> rebuild() {
+        updateLock.writeLock().lock();
+        try {
+            Generation<K, V> current = generation;
+            if (current.rebuilding) {
+                return rebuild;
+            }
+
+            // No update is in progress, so the filter's values and the stash are final from here
+            Map<K, V> frozen = new HashMap<K, V>(current.frozen);
+            frozen.putAll(current.stash);
+            final Generation<K, V> snapshot = new Generation<K, V>(current.filter, current.keys,
+                                                                   frozen,
+                                                                   new ConcurrentHashMap<K, V>(),
+                                                                   true);
+            generation = snapshot;
+
+            rebuild = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() throws TimeoutException {
+                    rebuild(snapshot);
+                    return null;
+                }
+            });
+            try {
+                executor.execute(rebuild);
+            } catch (RuntimeException e) {
+                // No update can have run meanwhile, so the previous generation is still current
+                generation = current;
+                throw e;
+            }
+            return rebuild;
+        } finally {
+            updateLock.writeLock().unlock();
+        }
+    }
+
+    private void rebuild(Generation<K, V> snapshot) throws TimeoutException {
+        Map<K, V> entries = new HashMap<K, V>(snapshot.keys.size() + snapshot.frozen.size());
+        for (K key: snapshot.keys) {
+            entries.put(key, snapshot.filter.get(key));
+        }
+        entries.putAll(snapshot.frozen);
+
+        MutableBloomierFilter<K, V> filter = null;
+        try {
+            filter = build(entries);
+        } finally {
+            updateLock.writeLock().lock();
+            try {
+                // Updates made meanwhile are in the current stash and override the rebuilt filter
+                Generation<K, V> current = generation;
+                generation = filter == null
+                        ? new Generation<K, V>(current.filter, current.keys, current.frozen,
+                                               current.stash, false)
+                        : new Generation<K, V>(filter, new HashSet<K>(entries.keySet()),
+                                               Collections.<K, V> emptyMap(), current.stash,
+                                               false);
+            } finally {
+                updateLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return number of keys in the stash rather than the filter
+     */
+    public int getStashSize() {
+        Generation<K, V> generation = this.generation;
+        return generation.stash.size() + generation.frozen.size();
+    }
+
+    private static void checkValue(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Values can't be null");
+        }
+    }
+
+    /**
+     * A filter and the stash in front of it. A new generation replaces the old whenever a rebuild
+     * starts or finishes.
+     */
+    private static class Generation<K, V> {
+        final MutableBloomierFilter<K, V> filter;
+        // The filter's keys; never updated, so lookups may read it without locking
+        final Set<K> keys;
+        // Stashed before the last rebuild started; no longer updated
+        final Map<K, V> frozen;
+        final ConcurrentHashMap<K, V> stash;
+        final boolean rebuilding;
+
+        Generation(MutableBloomierFilter<K, V> filter, Set<K> keys, Map<K, V> frozen,
+                   ConcurrentHashMap<K, V> stash, boolean rebuilding) {
+            this.filter = filter;
+            this.keys = keys;
+            this.frozen = frozen;
+            this.stash = stash;
+            this.rebuilding = rebuilding;
+        }
+    }
+}
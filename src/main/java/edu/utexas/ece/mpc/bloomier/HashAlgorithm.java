@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import edu.utexas.ece.mpc.bloomier.internal.HashFunction;
+import edu.utexas.ece.mpc.bloomier.internal.Md5HashFunction;
+import edu.utexas.ece.mpc.bloomier.internal.Murmur3HashFunction;
+
+/**
+ * Hash algorithms a filter can be built with. A table can only be read back with the algorithm it
+ * was built with.
+ */
+public enum HashAlgorithm {
+    /** Fast, allocation-free default. */
+    MURMUR3_128(0, Murmur3HashFunction.INSTANCE),
+
+    /** Original algorithm; use only to read tables built by earlier releases. */
+    MD5(1, Md5HashFunction.INSTANCE),
+
+    /**
+     * Murmur3 with the ribbon layout: instead of k scattered neighbors each key has a band of 64
+     * consecutive entries, so a lookup touches one contiguous run of the table. Filters with this
+     * layout have k = 64 and are built with
+     * {@link ImmutableBloomierFilter#ribbon(java.util.Map, int, int, KeyFunnel, ValueCodec, long)}.
+     */
+    MURMUR3_128_RIBBON(2, Murmur3HashFunction.INSTANCE);
+
+    private final int id;
+    private final HashFunction hashFunction;
+
+    private HashAlgorithm(int id, HashFunction hashFunction) {
+        this.id = id;
+        this.hashFunction = hashFunction;
+    }
+
+    /**
+     * @return the identifier recorded for this algorithm in filter files
+     */
+    public int getId() {
+        return id;
+    }
+
+    public static HashAlgorithm forId(int id) {
+        for (HashAlgorithm algorithm: values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash algorithm id " + id);
+    }
+
+    public HashFunction getHashFunction() {
+        return hashFunction;
+    }
+}
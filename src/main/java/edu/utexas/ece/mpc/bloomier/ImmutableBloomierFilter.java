@@ -11,71 +11,168 @@
 
 package edu.utexas.ece.mpc.bloomier;
 
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.ByteBufferInput;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-
 import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.FilterFormat;
+import edu.utexas.ece.mpc.bloomier.internal.HeapTable;
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
+import edu.utexas.ece.mpc.bloomier.internal.MappedTable;
 import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
 import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
-
+import edu.utexas.ece.mpc.bloomier.internal.PackedBits;
+import edu.utexas.ece.mpc.bloomier.internal.Ribbon;
+import edu.utexas.ece.mpc.bloomier.internal.Table;
+import edu.utexas.ece.mpc.bloomier.internal.TableBuilder;
+
+/**
+ * An immutable map from keys to values that stores only q bits per table entry, never the keys.
+ * Values are converted to and from entry bits by a {@link ValueCodec}; the constructors taking a
+ * value class use Kryo (see {@link ValueCodecs#kryo(Class, int)}), while a fixed-width codec from
+ * {@link ValueCodecs} is faster and leaves more of each entry to detect non-members.
+ * <p>
+ * The q - {@link ValueCodec#getBitWidth()} entry bits the codec leaves over are a fingerprint:
+ * they're zero for every member, and a lookup checks them before decoding anything, so a
+ * non-member gets past them with probability 2^-fingerprint bits (see
+ * {@link #getFalsePositiveRate()}). The Kryo codec of the value class constructors takes q / 8
+ * whole bytes, leaving only q mod 8 fingerprint bits and often none, in which case only the codec
+ * rejecting a non-member's bits detects it; for a wider fingerprint, pass
+ * {@link ValueCodecs#kryo(Class, int)} with fewer bytes instead.
+ * <p>
+ * Keys are hashed by their hash codes unless a {@link KeyFunnel} is given, so without one distinct
+ * keys must have distinct hash codes.
+ * <p>
+ * A lookup XORs k entries scattered across the table, touching k cache lines and pages. Filters
+ * built with {@link #ribbon(Map, int, int, KeyFunnel, ValueCodec, long)} instead read one
+ * contiguous run of 64 entries (a cache line at q = 8, adjacent lines at larger q, one page unless
+ * it straddles two) from a table about 7% smaller. The k misses of a lookup overlap, so a single
+ * thread sees little difference in latency; the ribbon layout pays off when lookups compete for
+ * memory bandwidth or page in a mapped table on demand, at the cost of XORing about 32 entries
+ * rather than k.
+ * <p>
+ * Once constructed (and safely published), a filter may be read by any number of threads at once
+ * without locking.
+ */
 public class ImmutableBloomierFilter<K, V> {
-    protected final Kryo kryo;
-    protected final Output kryoSerializer;
-
-    protected final Class<V> valueClass;
+    protected final KeyFunnel<? super K> keyFunnel;
+    protected final ValueCodec<V> valueCodec;
 
     protected final int m;
     protected final int k;
     protected final int q;
 
+    protected final HashAlgorithm hashAlgorithm;
+    // Whether keys have bands rather than neighborhoods (see HashAlgorithm.MURMUR3_128_RIBBON)
+    private final boolean ribbon;
     protected long hashSeed;
     protected BloomierHasher<K> hasher;
 
-    protected byte[][] table;
-    protected int tableEntrySize;
+    // Entry i occupies bits [i * q, (i + 1) * q) of the table (see PackedBits) and is handed
+    // around as tableEntryWords words, bits past q always zero
+    protected Table table;
+    protected int tableEntryWords;
+    private final long lastWordMask;
+
+    // Entry bits past the codec's bit width (the fingerprint), which are zero for every member
+    private final long[] spareBitsMask;
 
-    private ImmutableBloomierFilter(int m, int k, int q, Class<V> valueClass) {
-        kryo = new Kryo();
-        kryoSerializer = new Output(DEFAULT_OBJECT_BUFFER_INITIAL_SIZE, Integer.MAX_VALUE);
+    // Each reading thread gets its own so lookups neither allocate nor lock
+    private final ThreadLocal<LookupScratch> lookupScratch;
+    // The words of the band being looked up, for ribbon filters
+    private final ThreadLocal<long[]> bandScratch;
 
+    // Told the outcome of every lookup, unless null (see withLookupListener)
+    private LookupListener lookupListener;
+
+    private BuildStatistics buildStatistics;
+
+    private ImmutableBloomierFilter(int m, int k, int q, KeyFunnel<? super K> keyFunnel,
+                                    ValueCodec<V> valueCodec, HashAlgorithm hashAlgorithm) {
         this.m = m;
         this.k = k;
         this.q = q;
 
-        this.valueClass = valueClass;
+        this.keyFunnel = keyFunnel;
+        this.valueCodec = valueCodec;
+        this.hashAlgorithm = hashAlgorithm;
 
-        // Create table with correctly sized byte arrays for encoded entries
-        tableEntrySize = q / 8; // FIXME: why isn't this + 1?!
-        table = new byte[m][tableEntrySize];
+        ribbon = hashAlgorithm == HashAlgorithm.MURMUR3_128_RIBBON;
+        if (ribbon && (k != Ribbon.WIDTH || m < Ribbon.WIDTH)) {
+            throw new IllegalArgumentException("Ribbon filters need k=" + Ribbon.WIDTH
+                                               + " and m >= " + Ribbon.WIDTH + " (k=" + k + "; m="
+                                               + m + ")");
+        }
 
-        // The rest of the initialization will be handled by create() in public constructors
+        // The table itself is one flat array of m * q bits
+        tableEntryWords = PackedBits.entryWords(q);
+        lastWordMask = PackedBits.lastWordMask(q);
+        tableSize(m, q); // fail fast on oversized tables
+
+        if (valueCodec.getBitWidth() > q) {
+            throw new IllegalArgumentException("Values don't fit in table (q=" + q + "; must be >= "
+                                               + valueCodec.getBitWidth() + ")");
+        }
+        spareBitsMask = new long[tableEntryWords];
+        for (int bit = valueCodec.getBitWidth(); bit < q; bit++) {
+            spareBitsMask[bit / Long.SIZE] |= 1L << bit;
+        }
+
+        lookupScratch = LookupScratch.perThread(k, tableEntryWords);
+        bandScratch = ribbon ? Ribbon.perThreadBand(q) : null;
+
+        // The rest of the initialization (including the table) will be handled by create() in public
+        // constructors
     }
 
     public ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, Class<V> valueClass,
                                    int timeoutMs) throws TimeoutException {
-        this(m, k, q, valueClass);
+        this(map, m, k, q, ValueCodecs.kryo(valueClass, q / 8), timeoutMs);
+    }
+
+    public ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, ValueCodec<V> valueCodec,
+                                   int timeoutMs) throws TimeoutException {
+        this(map, m, k, q, KeyFunnels.hashCodes(), valueCodec, timeoutMs);
+    }
+
+    /**
+     * Builds the filter hashing the bytes keyFunnel feeds for each key rather than its hash code
+     * (see {@link KeyFunnel}). The filter must be read back with the same funnel.
+     */
+    public ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q,
+                                   KeyFunnel<? super K> keyFunnel, ValueCodec<V> valueCodec,
+                                   int timeoutMs) throws TimeoutException {
+        this(m, k, q, keyFunnel, valueCodec, HashAlgorithm.MURMUR3_128);
 
-        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(map.keySet(), m, k, q);
+        List<K> keys = new ArrayList<K>(map.size());
+        List<V> values = split(map, keys);
+        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(keys, m, k, q,
+                                                                 hashAlgorithm.getHashFunction(),
+                                                                 keyFunnel);
         OrderAndMatch<K> oam = oamf.find(timeoutMs);
-        create(map, oam);
+        create(values, oam);
     }
 
     public ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, Class<V> valueClass,
                                    long hashSeedHint) {
-        this(m, k, q, valueClass);
+        this(m, k, q, KeyFunnels.hashCodes(), ValueCodecs.kryo(valueClass, q / 8),
+             HashAlgorithm.MURMUR3_128);
 
-        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(map.keySet(), m, k, q,
+        List<K> keys = new ArrayList<K>(map.size());
+        List<V> values = split(map, keys);
+        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(keys, m, k, q,
+                                                                 hashAlgorithm.getHashFunction(),
                                                                  hashSeedHint);
         OrderAndMatch<K> oam;
         try {
@@ -83,100 +180,611 @@ public class ImmutableBloomierFilter<K, V> {
         } catch (TimeoutException e) {
             throw new AssertionError("Should never be possible");
         }
-        create(map, oam);
+        create(values, oam);
     }
 
     public ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, Class<V> valueClass,
                                    int timeoutMs, long hashSeedHint) throws TimeoutException {
-        this(m, k, q, valueClass);
+        this(m, k, q, KeyFunnels.hashCodes(), ValueCodecs.kryo(valueClass, q / 8),
+             HashAlgorithm.MURMUR3_128);
 
-        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(map.keySet(), m, k, q,
+        List<K> keys = new ArrayList<K>(map.size());
+        List<V> values = split(map, keys);
+        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(keys, m, k, q,
+                                                                 hashAlgorithm.getHashFunction(),
                                                                  hashSeedHint);
         OrderAndMatch<K> oam = oamf.find(timeoutMs);
-        create(map, oam);
+        create(values, oam);
+    }
+
+    public ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, Class<V> valueClass,
+                                   int timeoutMs, Executor executor, int parallelism)
+            throws TimeoutException {
+        this(map, m, k, q, ValueCodecs.kryo(valueClass, q / 8), timeoutMs, executor, parallelism);
+    }
+
+    /**
+     * Builds the filter, searching for a working hash seed on parallelism workers run by executor
+     * (see {@link OrderAndMatchFinder#find(long, Executor, int)}). The seed found is the same one a
+     * sequential build would find.
+     */
+    public ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, ValueCodec<V> valueCodec,
+                                   int timeoutMs, Executor executor, int parallelism)
+            throws TimeoutException {
+        this(m, k, q, KeyFunnels.hashCodes(), valueCodec, HashAlgorithm.MURMUR3_128);
+
+        List<K> keys = new ArrayList<K>(map.size());
+        List<V> values = split(map, keys);
+        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(keys, m, k, q,
+                                                                 hashAlgorithm.getHashFunction());
+        OrderAndMatch<K> oam = oamf.find(timeoutMs, executor, parallelism);
+        create(values, oam);
     }
 
     // This package private constructor can be used by entities that want to supply their own OrderAndMatch
-    ImmutableBloomierFilter(Map<K, V> map, int m, int k, int q, Class<V> valueClass,
-                            OrderAndMatch<K> oam) {
-        this(m, k, q, valueClass);
+    // (values.get(i) being the value of oam.getKeys().get(i), hashed with keyFunnel)
+    ImmutableBloomierFilter(List<V> values, int m, int k, int q, KeyFunnel<? super K> keyFunnel,
+                            Class<V> valueClass, OrderAndMatch<K> oam) {
+        this(values, m, k, q, keyFunnel, ValueCodecs.kryo(valueClass, q / 8), oam);
+    }
+
+    ImmutableBloomierFilter(List<V> values, int m, int k, int q, KeyFunnel<? super K> keyFunnel,
+                            ValueCodec<V> valueCodec, OrderAndMatch<K> oam) {
+        this(m, k, q, keyFunnel, valueCodec, HashAlgorithm.MURMUR3_128);
 
-        create(map, oam);
+        create(values, oam);
     }
 
+    /**
+     * Reconstitutes a filter from a table built before the hash algorithm became selectable, when
+     * every table was hashed with {@link HashAlgorithm#MD5}. Tables from {@link #getTable()} of a
+     * filter built now must be loaded with
+     * {@link #ImmutableBloomierFilter(int, int, int, Class, long, byte[][], HashAlgorithm)} and its
+     * {@link #getHashAlgorithm()}.
+     */
     public ImmutableBloomierFilter(int m, int k, int q, Class<V> valueClass, long hashSeed,
                                       byte[][] table) {
-        this(m, k, q, valueClass);
+        this(m, k, q, valueClass, hashSeed, table, HashAlgorithm.MD5);
+    }
+
+    /**
+     * Reconstitutes a filter from its parts. Tables built before the hash algorithm became
+     * selectable must be loaded with {@link HashAlgorithm#MD5}.
+     * <p>
+     * Each entry is ceil(q / 8) bytes, little-endian, with bits past q zero. Tables from before
+     * entries were bit-packed have q / 8 bytes per entry; load them with q rounded down to a
+     * multiple of 8.
+     */
+    public ImmutableBloomierFilter(int m, int k, int q, Class<V> valueClass, long hashSeed,
+                                   byte[][] table, HashAlgorithm hashAlgorithm) {
+        this(m, k, q, ValueCodecs.kryo(valueClass, q / 8), hashSeed, table, hashAlgorithm);
+    }
+
+    public ImmutableBloomierFilter(int m, int k, int q, ValueCodec<V> valueCodec, long hashSeed,
+                                   byte[][] table, HashAlgorithm hashAlgorithm) {
+        this(m, k, q, KeyFunnels.hashCodes(), valueCodec, hashAlgorithm);
 
         this.hashSeed = hashSeed;
-        this.table = table;
+        if (table.length != m) {
+            throw new IllegalArgumentException("Table has " + table.length + " entries (expected m="
+                                               + m + ")");
+        }
+        long[] words = new long[tableSize(m, q)];
+        long[] entry = new long[tableEntryWords];
+        for (int i = 0; i < m; i++) {
+            packEntry(table[i], entry);
+            PackedBits.xorFrom(entry, 0, words, (long) i * q, q);
+        }
+        this.table = new HeapTable(words);
 
-        hasher = new BloomierHasher<K>(hashSeed, m, k, q);
+        hasher = new BloomierHasher<K>(hashSeed, m, k, q, hashAlgorithm.getHashFunction(),
+                                       keyFunnel);
+    }
+
+    /**
+     * Opens a filter whose table is memory mapped from a file rather than loaded onto the heap.
+     * Opening is near instant regardless of table size, the operating system pages the table in on
+     * demand, and processes mapping the same file share its pages.
+     *
+     * @param channel
+     *            file holding the table as written by {@link #writeTable(WritableByteChannel)}; it
+     *            may be closed once this returns
+     * @param position
+     *            byte offset of the table within the file
+     */
+    public ImmutableBloomierFilter(int m, int k, int q, Class<V> valueClass, long hashSeed,
+                                   HashAlgorithm hashAlgorithm, FileChannel channel, long position)
+            throws IOException {
+        this(m, k, q, ValueCodecs.kryo(valueClass, q / 8), hashSeed, hashAlgorithm, channel,
+             position);
+    }
+
+    public ImmutableBloomierFilter(int m, int k, int q, ValueCodec<V> valueCodec, long hashSeed,
+                                   HashAlgorithm hashAlgorithm, FileChannel channel, long position)
+            throws IOException {
+        this(m, k, q, KeyFunnels.hashCodes(), valueCodec, hashAlgorithm, hashSeed,
+             new MappedTable(channel, position, tableSize(m, q)));
     }
 
     public ImmutableBloomierFilter(ImmutableBloomierFilter<K, V> orig) {
-        this(orig.m, orig.k, orig.q, orig.valueClass, orig.hashSeed, orig.table); // TODO: it should be okay to share
-                                                                                  // the underlying table since it's
-                                                                                  // immutable, but beware this might
-                                                                                  // not be true
+        this(orig.m, orig.k, orig.q, orig.keyFunnel, orig.valueCodec, orig.hashAlgorithm,
+             orig.hashSeed, orig.table); // TODO: it should be okay to share the underlying table since it's
+                          // immutable, but beware this might not be true
     }
 
-    private void create(Map<K, V> map, OrderAndMatch<K> oam) {
-        hashSeed = oam.getHashSeed();
-        hasher = new BloomierHasher<K>(hashSeed, m, k, q);
+    private ImmutableBloomierFilter(int m, int k, int q, KeyFunnel<? super K> keyFunnel,
+                                    ValueCodec<V> valueCodec, HashAlgorithm hashAlgorithm,
+                                    long hashSeed, Table table) {
+        this(m, k, q, keyFunnel, valueCodec, hashAlgorithm);
 
-        List<K> pi = oam.getPi();
-        List<Integer> tau = oam.getTau();
+        if (table.size() != tableSize(m, q)) {
+            throw new IllegalArgumentException("Table has " + table.size() + " words (expected "
+                                               + tableSize(m, q) + ")");
+        }
 
-        for (int i = 0; i < pi.size(); i++) {
-            K key = pi.get(i);
-            V value = map.get(key);
-            byte[] encodedValue = encode(value);
+        this.hashSeed = hashSeed;
+        this.table = table;
 
-            int[] neighborhood = hasher.getNeighborhood(key);
-            byte[] mask = hasher.getM(key);
+        hasher = new BloomierHasher<K>(hashSeed, m, k, q, hashAlgorithm.getHashFunction(),
+                                       keyFunnel);
+    }
 
-            int indexOfStorage = neighborhood[tau.get(i)];
-            byte[] valueToStore = new byte[tableEntrySize];
+    /**
+     * Builds a filter with the ribbon layout ({@link HashAlgorithm#MURMUR3_128_RIBBON}): each key's
+     * value is the XOR of some of the 64 consecutive entries its band starts at, so a lookup reads
+     * one contiguous run of the table rather than k scattered entries. The table is solved for by
+     * Gaussian elimination (see {@link Ribbon}), trying hash seeds until one works, so it needs
+     * noticeably less slack than peeling does.
+     * <p>
+     * With m = 1.15n + 64 the first seed or two solve at any size up to 10^7 keys, where k = 3
+     * peeling needs m = 1.23n. Tighter tables solve less often as n grows: m = 1.10n + 64 solves
+     * every seed at 10^5 keys, most at 10^6 and practically none at 10^7. Each seed attempt costs
+     * about as much as peeling one.
+     *
+     * @param m
+     *            table size, at least 64; 1.15 entries per key plus 64 is plenty
+     * @param timeoutMs
+     *            time allowed to find a seed that solves
+     */
+    public static <K, V> ImmutableBloomierFilter<K, V> ribbon(Map<K, V> map, int m, int q,
+                                                              KeyFunnel<? super K> keyFunnel,
+                                                              ValueCodec<V> valueCodec,
+                                                              long timeoutMs)
+            throws TimeoutException {
+        ImmutableBloomierFilter<K, V> filter = new ImmutableBloomierFilter<K, V>(
+                m, Ribbon.WIDTH, q, keyFunnel, valueCodec, HashAlgorithm.MURMUR3_128_RIBBON);
+        filter.createRibbon(map, timeoutMs);
+        return filter;
+    }
 
-            byteArrayXor(valueToStore, encodedValue);
-            byteArrayXor(valueToStore, mask);
+    /**
+     * Reads a filter written by {@link #writeTo(OutputStream)}, verifying its checksums. The stream
+     * is left open, positioned just past the filter.
+     */
+    public static <K, V> ImmutableBloomierFilter<K, V> readFrom(InputStream in,
+                                                                Class<V> valueClass)
+            throws IOException {
+        return readFrom(Channels.newChannel(in), valueClass);
+    }
 
-            // TODO: Duplicate neighborhood hashes cause problems - temp fix: dedup
-            Set<Integer> neighborhoodSet = new HashSet<Integer>();
-            for (int hash: neighborhood) {
-                neighborhoodSet.add(hash);
-            }
+    public static <K, V> ImmutableBloomierFilter<K, V> readFrom(InputStream in,
+                                                                ValueCodec<V> valueCodec)
+            throws IOException {
+        return readFrom(Channels.newChannel(in), valueCodec);
+    }
 
-            for (int hash: neighborhoodSet) {
-                byteArrayXor(valueToStore, table[hash]);
-            }
+    public static <K, V> ImmutableBloomierFilter<K, V> readFrom(InputStream in,
+                                                                KeyFunnel<? super K> keyFunnel,
+                                                                ValueCodec<V> valueCodec)
+            throws IOException {
+        return readFrom(Channels.newChannel(in), keyFunnel, valueCodec);
+    }
 
-            table[indexOfStorage] = valueToStore;
+    /**
+     * Reads a filter written by {@link #writeTo(WritableByteChannel)}, verifying its checksums.
+     */
+    public static <K, V> ImmutableBloomierFilter<K, V> readFrom(ReadableByteChannel channel,
+                                                                Class<V> valueClass)
+            throws IOException {
+        FilterFormat.Header header = FilterFormat.readHeader(channel);
+        return readFrom(header, channel, KeyFunnels.hashCodes(),
+                        ValueCodecs.kryo(valueClass, header.getQ() / 8));
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo(WritableByteChannel)}, verifying its checksums.
+     * valueCodec must be the codec the filter was built with.
+     */
+    public static <K, V> ImmutableBloomierFilter<K, V> readFrom(ReadableByteChannel channel,
+                                                                ValueCodec<V> valueCodec)
+            throws IOException {
+        return readFrom(channel, KeyFunnels.hashCodes(), valueCodec);
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo(WritableByteChannel)}, verifying its checksums.
+     * keyFunnel and valueCodec must be the ones the filter was built with.
+     */
+    public static <K, V> ImmutableBloomierFilter<K, V> readFrom(ReadableByteChannel channel,
+                                                                KeyFunnel<? super K> keyFunnel,
+                                                                ValueCodec<V> valueCodec)
+            throws IOException {
+        return readFrom(FilterFormat.readHeader(channel), channel, keyFunnel, valueCodec);
+    }
+
+    // Reads the rest of a filter whose header has already been read
+    static <K, V> ImmutableBloomierFilter<K, V> readFrom(FilterFormat.Header header,
+                                                         ReadableByteChannel channel,
+                                                         KeyFunnel<? super K> keyFunnel,
+                                                         ValueCodec<V> valueCodec)
+            throws IOException {
+        HashAlgorithm hashAlgorithm = checkHeader(header, keyFunnel, valueCodec);
+        return new ImmutableBloomierFilter<K, V>(header.getM(), header.getK(), header.getQ(),
+                                                 keyFunnel, valueCodec, hashAlgorithm,
+                                                 header.getHashSeed(),
+                                                 FilterFormat.readTable(header, channel));
+    }
+
+    /**
+     * Opens a filter file written by {@link #writeTo(WritableByteChannel)} at position of channel
+     * with its table memory mapped in place (see
+     * {@link #ImmutableBloomierFilter(int, int, int, Class, long, HashAlgorithm, FileChannel, long)}
+     * ). The channel may be closed once this returns.
+     *
+     * @param verify
+     *            whether to verify the table checksums, which reads the whole table once
+     */
+    public static <K, V> ImmutableBloomierFilter<K, V> map(FileChannel channel, long position,
+                                                           Class<V> valueClass, boolean verify)
+            throws IOException {
+        FilterFormat.Header header = FilterFormat.readHeader(channel, position);
+        return map(header, channel, position, KeyFunnels.hashCodes(),
+                   ValueCodecs.kryo(valueClass, header.getQ() / 8), verify);
+    }
+
+    public static <K, V> ImmutableBloomierFilter<K, V> map(FileChannel channel, long position,
+                                                           ValueCodec<V> valueCodec, boolean verify)
+            throws IOException {
+        return map(channel, position, KeyFunnels.hashCodes(), valueCodec, verify);
+    }
+
+    public static <K, V> ImmutableBloomierFilter<K, V> map(FileChannel channel, long position,
+                                                           KeyFunnel<? super K> keyFunnel,
+                                                           ValueCodec<V> valueCodec, boolean verify)
+            throws IOException {
+        return map(FilterFormat.readHeader(channel, position), channel, position, keyFunnel,
+                   valueCodec, verify);
+    }
+
+    private static <K, V> ImmutableBloomierFilter<K, V> map(FilterFormat.Header header,
+                                                            FileChannel channel, long position,
+                                                            KeyFunnel<? super K> keyFunnel,
+                                                            ValueCodec<V> valueCodec,
+                                                            boolean verify) throws IOException {
+        HashAlgorithm hashAlgorithm = checkHeader(header, keyFunnel, valueCodec);
+        return new ImmutableBloomierFilter<K, V>(header.getM(), header.getK(), header.getQ(),
+                                                 keyFunnel, valueCodec, hashAlgorithm,
+                                                 header.getHashSeed(),
+                                                 FilterFormat.mapTable(header, channel, position,
+                                                                       verify));
+    }
+
+    private static HashAlgorithm checkHeader(FilterFormat.Header header, KeyFunnel<?> keyFunnel,
+                                             ValueCodec<?> valueCodec) throws IOException {
+        if (header.getKeyFunnelId() != keyFunnel.getId()) {
+            throw new IOException("Filter was written with key funnel id "
+                                  + header.getKeyFunnelId() + " (reading with "
+                                  + keyFunnel.getId() + ")");
+        }
+        if (header.getValueCodecId() != valueCodec.getId()) {
+            throw new IOException("Filter was written with value codec id "
+                                  + header.getValueCodecId() + " (reading with "
+                                  + valueCodec.getId() + ")");
+        }
+        // Codecs of one family share an id whatever their parameters
+        if (header.getValueBitWidth() != valueCodec.getBitWidth()) {
+            throw new IOException("Filter was written with a value codec "
+                                  + header.getValueBitWidth() + " bits wide (reading with one "
+                                  + valueCodec.getBitWidth() + " bits wide)");
+        }
+        if (header.getTableSize() != PackedBits.words(header.getM(), header.getQ())) {
+            throw new IOException("Table size in header doesn't match m and q");
         }
 
-        // TODO: if hasher caches hashes, clear cache here (to reclaim memory)
+        try {
+            return HashAlgorithm.forId(header.getHashAlgorithmId());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return number of words in the table of a filter with the given parameters
+     */
+    private static int tableSize(int m, int q) {
+        long words = PackedBits.words(m, q);
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Table too large (m=" + m + "; q=" + q + ")");
+        }
+        return (int) words;
+    }
+
+    /**
+     * Splits map into parallel lists, adding its keys to keys.
+     *
+     * @return the values, values.get(i) being the value of keys.get(i)
+     */
+    static <K, V> List<V> split(Map<K, V> map, List<K> keys) {
+        List<V> values = new ArrayList<V>(map.size());
+        for (Map.Entry<K, V> entry: map.entrySet()) {
+            keys.add(entry.getKey());
+            values.add(entry.getValue());
+        }
+        return values;
+    }
+
+    private void create(final List<V> values, OrderAndMatch<K> oam) {
+        long start = System.nanoTime();
+        hashSeed = oam.getHashSeed();
+        hasher = new BloomierHasher<K>(hashSeed, m, k, q, hashAlgorithm.getHashFunction(),
+                                       keyFunnel);
+
+        // Neighborhoods were already computed while peeling, so only masks need hashing here
+        final List<K> keys = oam.getKeys();
+        final long[] encodedValue = new long[tableEntryWords];
+        long[] words = oam.fill(m, q, hashAlgorithm.getHashFunction().hasDistinctNeighborhoods(),
+                                new TableBuilder.Entries() {
+
+                                    @Override
+                                    public void entry(int key, int tau, long[] entry) {
+                                        Arrays.fill(encodedValue, 0);
+                                        valueCodec.encode(values.get(key), encodedValue);
+
+                                        hasher.hash(keys.get(key), null, entry); // the mask
+                                        entry[tableEntryWords - 1] &= lastWordMask;
+                                        for (int w = 0; w < tableEntryWords; w++) {
+                                            entry[w] ^= encodedValue[w];
+                                        }
+                                    }
+                                });
+
+        table = new HeapTable(words);
+
+        BuildStatistics statistics = oam.getStatistics();
+        if (statistics != null) {
+            buildStatistics = statistics.withFill(System.nanoTime() - start, words.length * 8L);
+        }
+        oam.release();
+    }
+
+    // Solves for the table of a ribbon filter, trying seeds in the order OrderAndMatchFinder does
+    private void createRibbon(Map<K, V> map, long timeoutMs) throws TimeoutException {
+        int n = map.size();
+        if ((long) n * tableEntryWords > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many keys for q=" + q + " (" + n + ")");
+        }
+        List<K> keys = new ArrayList<K>(n);
+        List<V> values = split(map, keys);
+
+        // Values are encoded once; each seed only changes the bands and masks
+        long start = System.nanoTime();
+        long[] encodedValues = new long[n * tableEntryWords];
+        long[] encodedValue = new long[tableEntryWords];
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(encodedValue, 0);
+            valueCodec.encode(values.get(i), encodedValue);
+            System.arraycopy(encodedValue, 0, encodedValues, i * tableEntryWords, tableEntryWords);
+        }
+        long encodeNanos = System.nanoTime() - start;
+
+        int[] starts = new int[n];
+        long[] coefficients = new long[n];
+        long[] rhs = new long[n * tableEntryWords];
+        long[] words = new long[tableSize(m, q)];
+        int[] bandStart = new int[1];
+        long[] mask = new long[tableEntryWords];
+
+        long now = System.currentTimeMillis();
+        long deadline = timeoutMs < Long.MAX_VALUE - now ? now + timeoutMs : Long.MAX_VALUE;
+        long seedAttempts = 0;
+        long hashNanos = 0;
+        long solveNanos = 0;
+        // The solver's rows and their right-hand sides, per attempt
+        long attemptBytes = (long) m * (1 + tableEntryWords) * 8;
+        long bytesAllocated = (4 + 8 + 2 * tableEntryWords * 8L) * n + words.length * 8L;
+
+        for (hashSeed = Long.MIN_VALUE;; hashSeed++) {
+            hasher = new BloomierHasher<K>(hashSeed, m, k, q, hashAlgorithm.getHashFunction(),
+                                           keyFunnel);
+
+            long hashStart = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                coefficients[i] = hasher.band(keys.get(i), bandStart, mask);
+                starts[i] = bandStart[0];
+                mask[tableEntryWords - 1] &= lastWordMask;
+                for (int w = 0; w < tableEntryWords; w++) {
+                    rhs[i * tableEntryWords + w] = encodedValues[i * tableEntryWords + w] ^ mask[w];
+                }
+            }
+            long solveStart = System.nanoTime();
+            boolean solved = Ribbon.solve(m, q, starts, coefficients, rhs, words);
+            solveNanos += System.nanoTime() - solveStart;
+            hashNanos += solveStart - hashStart;
+            seedAttempts++;
+            bytesAllocated += attemptBytes;
+
+            buildStatistics = new BuildStatistics(n, m, seedAttempts, 0, 0, hashNanos, solveNanos,
+                                                  encodeNanos, bytesAllocated);
+            if (solved) {
+                break;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new TimeoutException("Could not solve ribbon table in alloted time (m=" + m
+                                           + "; n=" + n + "): " + buildStatistics);
+            }
+            Arrays.fill(words, 0);
+        }
+
+        table = new HeapTable(words);
     }
 
     public V get(K key) {
-        int[] neighborhood = hasher.getNeighborhood(key);
-        byte[] mask = hasher.getM(key);
+        return decode(probe(key));
+    }
+
+    /**
+     * Tells whether key is a member without decoding its value: k table probes (one band for ribbon
+     * filters) and a check of the fingerprint bits. A non-member is reported as a member with
+     * probability {@link #getFalsePositiveRate()}.
+     * <p>
+     * A filter whose codec leaves no fingerprint bits (the value class constructors' Kryo codec
+     * when q is a multiple of 8) has nothing to check, so it does decode, and reports a key as a
+     * member when the codec accepts its bits, just as {@link #get(Object)} does.
+     */
+    public boolean contains(K key) {
+        long[] result = probe(key);
+        if (getFingerprintBits() == 0) {
+            return valueCodec.decode(result) != null;
+        }
+        return hasFingerprint(result);
+    }
+
+    // XORs key's mask and neighbor (or band) entries into the calling thread's scratch words
+    private long[] probe(K key) {
+        LookupScratch scratch = lookupScratch.get();
+        int[] neighborhood = scratch.neighborhood;
+        long[] result = scratch.words;
+        if (ribbon) {
+            long coefficients = hasher.band(key, neighborhood, result); // mask, as below
+            result[tableEntryWords - 1] &= lastWordMask;
+
+            Ribbon.xorBand(table, q, neighborhood[0], coefficients, bandScratch.get(), result);
+            return result;
+        }
+
+        hasher.hash(key, neighborhood, result); // result starts out as the mask
+        result[tableEntryWords - 1] &= lastWordMask;
+
+        for (int i = 0; i < neighborhood.length; i++) {
+            if (hasher.isDuplicate(neighborhood, i) == false) {
+                PackedBits.xorInto(table, (long) neighborhood[i] * q, q, result, 0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks up a batch of keys, storing the value of keys[i] (or null if it is detected not to be a
+     * member) in values[i]. On tables too big for the CPU caches this is considerably faster than
+     * calling {@link #get(Object)} per key: keys are hashed a chunk at a time and then the table
+     * probes of the whole chunk are issued back to back, so their cache misses overlap instead of
+     * being waited out one after another. Ribbon filters, whose lookups already read a single run
+     * of the table, simply look up each key in turn.
+     */
+    public void getAll(K[] keys, V[] values) {
+        if (values.length < keys.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but room for only "
+                                               + values.length + " values");
+        }
+        getAll(keys, 0, keys.length, values, 0);
+    }
+
+    // getAll for keys[keysOffset, keysOffset + length), storing the value of keys[keysOffset + i]
+    // in values[valuesOffset + i]
+    void getAll(K[] keys, int keysOffset, int length, V[] values, int valuesOffset) {
+        if (ribbon) {
+            for (int i = 0; i < length; i++) {
+                values[valuesOffset + i] = get(keys[keysOffset + i]);
+            }
+            return;
+        }
+
+        LookupScratch scratch = lookupScratch.get();
+        int[] neighborhoods = scratch.batchNeighborhoods;
+        long[] results = scratch.batchWords;
+        for (int start = 0; start < length; start += LookupScratch.BATCH_SIZE) {
+            int count = Math.min(LookupScratch.BATCH_SIZE, length - start);
+
+            for (int i = 0; i < count; i++) {
+                hasher.hash(keys[keysOffset + start + i], scratch.neighborhood,
+                            scratch.words); // masks
+                scratch.words[tableEntryWords - 1] &= lastWordMask;
+                System.arraycopy(scratch.neighborhood, 0, neighborhoods, i * k, k);
+                System.arraycopy(scratch.words, 0, results, i * tableEntryWords, tableEntryWords);
+            }
+
+            // Probe j of every key in the chunk before probe j + 1 of any; none of these loads
+            // depend on each other
+            for (int j = 0; j < k; j++) {
+                for (int i = 0; i < count; i++) {
+                    if (hasher.isDuplicate(neighborhoods, i * k, j) == false) {
+                        PackedBits.xorInto(table, (long) neighborhoods[i * k + j] * q, q, results,
+                                           i * tableEntryWords);
+                    }
+                }
+            }
 
-        byte[] resultArray = new byte[tableEntrySize];
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(results, i * tableEntryWords, scratch.words, 0, tableEntryWords);
+                values[valuesOffset + start + i] = decode(scratch.words);
+            }
+        }
+    }
 
-        byteArrayXor(resultArray, mask);
+    // Whether the fingerprint bits, everything past the encoded value, are all zero as they are for
+    // every member
+    private boolean hasFingerprint(long[] result) {
+        for (int w = 0; w < tableEntryWords; w++) {
+            if ((result[w] & spareBitsMask[w]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        // TODO: Duplicate neighborhood hashes cause problems - temp fix: dedup
-        Set<Integer> neighborhoodSet = new HashSet<Integer>();
-        for (int hash: neighborhood) {
-            neighborhoodSet.add(hash);
+    private V decode(long[] result) {
+        // Checked before the codec sees the entry, so detected non-members never reach it
+        if (hasFingerprint(result) == false) {
+            if (lookupListener != null) {
+                lookupListener.nonMember();
+            }
+            return null;
         }
 
-        for (int hash: neighborhoodSet) {
-            byteArrayXor(resultArray, table[hash]);
+        V value = valueCodec.decode(result);
+        if (lookupListener != null) {
+            if (value != null) {
+                lookupListener.found();
+            } else {
+                lookupListener.decodeFailed();
+            }
         }
+        return value;
+    }
 
-        return decode(resultArray);
+    /**
+     * @return a filter sharing this one's table that tells listener the outcome of each of its
+     *         lookups; this filter's lookups stay unobserved, so they pay nothing for it. Releasing
+     *         either filter's table releases both.
+     */
+    public ImmutableBloomierFilter<K, V> withLookupListener(LookupListener listener) {
+        ImmutableBloomierFilter<K, V> observed = new ImmutableBloomierFilter<K, V>(m, k, q,
+                                                                                   keyFunnel,
+                                                                                   valueCodec,
+                                                                                   hashAlgorithm,
+                                                                                   hashSeed,
+                                                                                   table);
+        observed.lookupListener = listener;
+        observed.buildStatistics = buildStatistics;
+        return observed;
+    }
+
+    /**
+     * @return what building this filter took, or null if it was read, mapped or reconstituted from
+     *         a table rather than built
+     */
+    public BuildStatistics getBuildStatistics() {
+        return buildStatistics;
     }
 
     public int getM() {
@@ -195,51 +803,112 @@ public class ImmutableBloomierFilter<K, V> {
         return hashSeed;
     }
 
-    public byte[][] getTable() {
-        return table;
+    /**
+     * @return bits of each entry past the codec's bit width, which are zero for every member and so
+     *         make up a fingerprint checked before any decoding: q minus the codec's bit width
+     */
+    public int getFingerprintBits() {
+        return q - valueCodec.getBitWidth();
     }
 
-    private void byteArrayXor(byte[] resultArray, byte[] xorArray) {
-        // TODO: may want to rewrite this to more intuitively handle hetero-sized arrays
-        int length = Math.min(resultArray.length, xorArray.length);
-
-        for (int i = 0; i < length; i++) {
-            resultArray[i] ^= xorArray[i];
-        }
+    /**
+     * @return the probability of a non-member passing the fingerprint check, 2^-
+     *         {@link #getFingerprintBits()}. {@link #contains(Object)} reports such keys as
+     *         members; {@link #get(Object)} may still catch some when the codec rejects their bits.
+     *         With no fingerprint bits this is 1, and both rely on the codec alone.
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(2, -getFingerprintBits());
     }
 
-	private byte[] encode(V value) {
-		ByteArrayOutputStream baos 	= new ByteArrayOutputStream();
-		try(Output output = new Output(baos)) {
-			kryo.writeObject(output, value);
-			output.close();
-			byte[] serializedValue = baos.toByteArray();
-			if (serializedValue.length > tableEntrySize) {
-				throw new IllegalArgumentException(
-						"Encoded values are too big to fit in table (q=" + q
-								+ "; must be >= " + serializedValue.length
-								* Byte.SIZE + ")");
-			}
+    public HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
 
-			// Pad with zeros up to required tableEntrySize
-			return Arrays.copyOf(serializedValue, tableEntrySize);
-		}
-	}
+    public ValueCodec<V> getValueCodec() {
+        return valueCodec;
+    }
 
-    private V decode(byte[] value) {
-        ByteBuffer buffer = ByteBuffer.wrap(value);
-    	Input input = new ByteBufferInput(buffer);
-        V result = kryo.readObject(input, valueClass);
+    public KeyFunnel<? super K> getKeyFunnel() {
+        return keyFunnel;
+    }
 
-        // Check leftovers (all must be zero of this is a detected false positive)
-        while (buffer.hasRemaining()) {
-            if (buffer.get() != 0) {
-                return null;
+    /**
+     * @return a copy of the table as one byte array per entry (the layout taken by
+     *         {@link #ImmutableBloomierFilter(int, int, int, Class, long, byte[][], HashAlgorithm)})
+     */
+    public byte[][] getTable() {
+        byte[][] entries = new byte[m][entryBytes(q)];
+        long[] entry = new long[tableEntryWords];
+        for (int i = 0; i < m; i++) {
+            Arrays.fill(entry, 0);
+            PackedBits.xorInto(table, (long) i * q, q, entry, 0);
+            for (int b = 0; b < entries[i].length; b++) {
+                entries[i][b] = (byte) (entry[b / 8] >>> (b % 8 * Byte.SIZE));
             }
         }
+        return entries;
+    }
 
-        return result;
+    /**
+     * Writes the filter in the versioned, checksummed filter file format (see
+     * {@link FilterFormat}). The stream is not closed.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        writeTo(Channels.newChannel(out));
+    }
+
+    /**
+     * Writes the filter in the versioned, checksummed filter file format (see
+     * {@link FilterFormat}) using bulk buffer transfers. The channel is not closed.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        FilterFormat.write(getHeader(), table, channel);
+    }
+
+    // The header writeTo() writes
+    FilterFormat.Header getHeader() {
+        return new FilterFormat.Header(hashAlgorithm.getId(), valueCodec.getId(),
+                                       valueCodec.getBitWidth(), keyFunnel.getId(), m, k, q,
+                                       table.size(), hashSeed);
+    }
+
+    // Frees the table's off-heap memory (unmapping a mapped table); see BloomierFilterHandle
+    void release() {
+        table.release();
+    }
+
+    // Whether releasing either filter's table would release the other's too
+    boolean sharesTable(ImmutableBloomierFilter<?, ?> other) {
+        return table == other.table;
     }
 
-    private static final int DEFAULT_OBJECT_BUFFER_INITIAL_SIZE = 2 * 1024;
+    /**
+     * Writes the table alone (see {@link Table}), the layout expected by
+     * {@link #ImmutableBloomierFilter(int, int, int, Class, long, HashAlgorithm, FileChannel, long)}
+     * .
+     */
+    public void writeTable(WritableByteChannel channel) throws IOException {
+        table.writeTo(channel);
+    }
+
+    // Bytes an entry takes in the byte[][] layout: enough for q bits
+    private static int entryBytes(int q) {
+        return (q + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    private void packEntry(byte[] bytes, long[] entry) {
+        if (bytes.length != entryBytes(q)) {
+            throw new IllegalArgumentException("Table entries must be " + entryBytes(q)
+                                               + " bytes long (q=" + q + ")");
+        }
+
+        Arrays.fill(entry, 0);
+        for (int i = 0; i < bytes.length; i++) {
+            entry[i / 8] |= (bytes[i] & 0xffL) << (i % 8 * Byte.SIZE);
+        }
+        if ((entry[tableEntryWords - 1] & ~lastWordMask) != 0) {
+            throw new IllegalArgumentException("Table entry has bits set past q=" + q);
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
+
+/**
+ * An immutable bloomier filter from int keys to int values. Unlike an
+ * {@link ImmutableBloomierFilter}&lt;Integer, Integer&gt; it stores each value as exactly 32 bits
+ * and never allocates on {@link #get(int, int)}.
+ * <p>
+ * Table entries take exactly q bits; q must be at least 32, and every bit past 32 is used to detect
+ * non-members.
+ */
+public class IntIntBloomierFilter extends PrimitiveBloomierFilter {
+    // Each thread gets its own so batch lookups don't allocate: a batch of keys widened to longs,
+    // overwritten by their values (lookupAll hashes a batch's keys before storing any value)
+    private final ThreadLocal<long[]> wideScratch = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[LookupScratch.BATCH_SIZE];
+        }
+    };
+
+    /**
+     * @param keys
+     *            distinct keys
+     * @param values
+     *            values[i] is the value of keys[i]
+     */
+    public IntIntBloomierFilter(int[] keys, int[] values, int m, int k, int q, long timeoutMs)
+            throws TimeoutException {
+        this(keys, values, m, k, q, timeoutMs, Long.MIN_VALUE);
+    }
+
+    public IntIntBloomierFilter(int[] keys, int[] values, int m, int k, int q, long timeoutMs,
+                                long hashSeedHint) throws TimeoutException {
+        super(widen(keys), widen(values), m, k, q, Integer.SIZE, timeoutMs, hashSeedHint);
+    }
+
+    /**
+     * @return the value of key, or missingValue if key is detected not to be in the filter
+     */
+    public int get(int key, int missingValue) {
+        return (int) lookup(key, missingValue);
+    }
+
+    /**
+     * @return whether key is in the filter, checked without extracting its value; a non-member is
+     *         reported as a member with probability 2^-(q - 32)
+     */
+    public boolean contains(int key) {
+        return isMember(key);
+    }
+
+    /**
+     * Looks up a batch of keys, storing the value of keys[i] (or missingValue) in values[i]. Much
+     * faster than calling {@link #get(int, int)} per key on tables that don't fit in cache.
+     */
+    public void getAll(int[] keys, int[] values, int missingValue) {
+        if (values.length < keys.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but room for only "
+                                               + values.length + " values");
+        }
+
+        long[] wide = wideScratch.get();
+        for (int start = 0; start < keys.length; start += LookupScratch.BATCH_SIZE) {
+            int count = Math.min(LookupScratch.BATCH_SIZE, keys.length - start);
+            for (int i = 0; i < count; i++) {
+                wide[i] = keys[start + i];
+            }
+            lookupAll(wide, wide, 0, count, missingValue);
+            for (int i = 0; i < count; i++) {
+                values[start + i] = (int) wide[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+/**
+ * Feeds the bytes that identify a key to a {@link KeySink}, so filters hash the whole key rather
+ * than its 32-bit hash code. With hash codes, distinct keys sharing a hash code get identical
+ * neighborhoods and no seed can ever separate them, which by the birthday bound makes key sets
+ * past a few hundred thousand keys likely to fail to build.
+ * <p>
+ * {@link KeyFunnels} has funnels for strings, byte arrays, longs and UUIDs, as well as the hash
+ * code funnel filters use by default.
+ * <p>
+ * Filters funnel keys on whichever threads call them, so implementations must be safe for
+ * concurrent use.
+ */
+public interface KeyFunnel<K> {
+
+    /**
+     * @return identifier recorded in filter files so a filter is only read back with the funnel it
+     *         was written with; 0-127 are reserved for the funnels in {@link KeyFunnels}
+     */
+    int getId();
+
+    /**
+     * Feeds key to sink. Equal keys must produce equal bytes, and distinct keys should produce
+     * distinct bytes.
+     */
+    void funnel(K key, KeySink sink);
+}
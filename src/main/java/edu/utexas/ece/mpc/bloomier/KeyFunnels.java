@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.UUID;
+
+/**
+ * Built-in {@link KeyFunnel}s.
+ */
+public final class KeyFunnels {
+    static final int HASH_CODE_ID = 0;
+    static final int STRING_ID = 1;
+    static final int BYTE_ARRAY_ID = 2;
+    static final int LONG_ID = 3;
+    static final int UUID_ID = 4;
+
+    private static final KeyFunnel<Object> HASH_CODES = new KeyFunnel<Object>() {
+        @Override
+        public int getId() {
+            return HASH_CODE_ID;
+        }
+
+        @Override
+        public void funnel(Object key, KeySink sink) {
+            sink.putInt(key.hashCode());
+        }
+    };
+
+    private static final KeyFunnel<CharSequence> STRINGS = new KeyFunnel<CharSequence>() {
+        @Override
+        public int getId() {
+            return STRING_ID;
+        }
+
+        @Override
+        public void funnel(CharSequence key, KeySink sink) {
+            for (int i = 0; i < key.length(); i++) {
+                sink.putChar(key.charAt(i));
+            }
+        }
+    };
+
+    private static final KeyFunnel<byte[]> BYTE_ARRAYS = new KeyFunnel<byte[]>() {
+        @Override
+        public int getId() {
+            return BYTE_ARRAY_ID;
+        }
+
+        @Override
+        public void funnel(byte[] key, KeySink sink) {
+            sink.putBytes(key, 0, key.length);
+        }
+    };
+
+    private static final KeyFunnel<Long> LONGS = new KeyFunnel<Long>() {
+        @Override
+        public int getId() {
+            return LONG_ID;
+        }
+
+        @Override
+        public void funnel(Long key, KeySink sink) {
+            sink.putLong(key);
+        }
+    };
+
+    private static final KeyFunnel<UUID> UUIDS = new KeyFunnel<UUID>() {
+        @Override
+        public int getId() {
+            return UUID_ID;
+        }
+
+        @Override
+        public void funnel(UUID key, KeySink sink) {
+            sink.putLong(key.getMostSignificantBits());
+            sink.putLong(key.getLeastSignificantBits());
+        }
+    };
+
+    private KeyFunnels() {
+    }
+
+    /**
+     * Feeds just the key's {@link Object#hashCode()}, as filters always did before key funnels;
+     * still the default, so existing filters and files keep working. Distinct keys must have
+     * distinct hash codes.
+     */
+    public static KeyFunnel<Object> hashCodes() {
+        return HASH_CODES;
+    }
+
+    /**
+     * Feeds the UTF-16 code units of a string (or any other character sequence).
+     */
+    public static KeyFunnel<CharSequence> strings() {
+        return STRINGS;
+    }
+
+    public static KeyFunnel<byte[]> byteArrays() {
+        return BYTE_ARRAYS;
+    }
+
+    /**
+     * Feeds all 64 bits of a long, hashing it exactly like {@link LongLongBloomierFilter} does.
+     */
+    public static KeyFunnel<Long> longs() {
+        return LONGS;
+    }
+
+    public static KeyFunnel<UUID> uuids() {
+        return UUIDS;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+/**
+ * Receives the bytes of a key from a {@link KeyFunnel}. Multi-byte values are taken
+ * little-endian.
+ */
+public interface KeySink {
+
+    void putByte(byte b);
+
+    void putBytes(byte[] bytes, int offset, int length);
+
+    void putChar(char c);
+
+    void putInt(int i);
+
+    void putLong(long l);
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An immutable bloomier filter from long keys to long values. Unlike an
+ * {@link ImmutableBloomierFilter}&lt;Long, Long&gt; it hashes all 64 bits of each key, stores each
+ * value as exactly 64 bits, and never allocates on {@link #get(long, long)}.
+ * <p>
+ * Table entries take exactly q bits; q must be at least 64, and every bit past 64 is used to detect
+ * non-members.
+ */
+public class LongLongBloomierFilter extends PrimitiveBloomierFilter {
+
+    /**
+     * @param keys
+     *            distinct keys
+     * @param values
+     *            values[i] is the value of keys[i]
+     */
+    public LongLongBloomierFilter(long[] keys, long[] values, int m, int k, int q, long timeoutMs)
+            throws TimeoutException {
+        this(keys, values, m, k, q, timeoutMs, Long.MIN_VALUE);
+    }
+
+    public LongLongBloomierFilter(long[] keys, long[] values, int m, int k, int q,
+                                  long timeoutMs, long hashSeedHint) throws TimeoutException {
+        super(keys, values, m, k, q, Long.SIZE, timeoutMs, hashSeedHint);
+    }
+
+    /**
+     * @return the value of key, or missingValue if key is detected not to be in the filter
+     */
+    public long get(long key, long missingValue) {
+        return lookup(key, missingValue);
+    }
+
+    /**
+     * @return whether key is in the filter, checked without extracting its value; a non-member is
+     *         reported as a member with probability 2^-(q - 64)
+     */
+    public boolean contains(long key) {
+        return isMember(key);
+    }
+
+    /**
+     * Looks up a batch of keys, storing the value of keys[i] (or missingValue) in values[i]. Much
+     * faster than calling {@link #get(long, long)} per key on tables that don't fit in cache.
+     */
+    public void getAll(long[] keys, long[] values, long missingValue) {
+        if (values.length < keys.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but room for only "
+                                               + values.length + " values");
+        }
+        lookupAll(keys, values, 0, keys.length, missingValue);
+    }
+}
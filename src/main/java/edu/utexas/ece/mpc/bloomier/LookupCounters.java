@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link LookupListener} counting lookups by outcome. Each thread counts in one of several
+ * stripes, each on cache lines of its own, so readers on different cores rarely touch the same
+ * counter. Reading a count sums the stripes; while lookups are under way it is only approximate.
+ */
+public class LookupCounters implements LookupListener {
+    private static final int FOUND = 0;
+    private static final int NON_MEMBER = 1;
+    private static final int DECODE_FAILED = 2;
+
+    // A power of two, two to four times the number of cores
+    private static final int STRIPES =
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 4;
+
+    // Stripes start 128 bytes apart, so no two share a cache line (or an adjacent line pair)
+    private static final int STRIPE_WORDS = 16;
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIPE_WORDS);
+
+    @Override
+    public void found() {
+        increment(FOUND);
+    }
+
+    @Override
+    public void nonMember() {
+        increment(NON_MEMBER);
+    }
+
+    @Override
+    public void decodeFailed() {
+        increment(DECODE_FAILED);
+    }
+
+    /**
+     * @return number of lookups, whatever their outcome
+     */
+    public long getGets() {
+        return getFound() + getNonMembers() + getDecodeFailures();
+    }
+
+    public long getFound() {
+        return sum(FOUND);
+    }
+
+    public long getNonMembers() {
+        return sum(NON_MEMBER);
+    }
+
+    public long getDecodeFailures() {
+        return sum(DECODE_FAILED);
+    }
+
+    private void increment(int counter) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        counts.getAndIncrement(stripe * STRIPE_WORDS + counter);
+    }
+
+    private long sum(int counter) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += counts.get(stripe * STRIPE_WORDS + counter);
+        }
+        return sum;
+    }
+}
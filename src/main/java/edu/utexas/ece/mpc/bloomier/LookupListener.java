@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+/**
+ * Told the outcome of every get (single or batched) of a filter returned by
+ * {@link ImmutableBloomierFilter#withLookupListener(LookupListener)}, on the thread doing the
+ * lookup. Called on the lookup path, so implementations must be cheap and safe for concurrent use;
+ * {@link LookupCounters} counts each outcome.
+ */
+public interface LookupListener {
+
+    /**
+     * The key's entry decoded to a value. Non-members not caught by the spare bits end up here too.
+     */
+    void found();
+
+    /**
+     * The key's entry had spare bits set, so the key was detected not to be a member.
+     */
+    void nonMember();
+
+    /**
+     * The key's entry passed the spare bits check but the codec decoded it to null, either because
+     * it was no valid encoding (a non-member) or because null is the member's value.
+     */
+    void decodeFailed();
+}
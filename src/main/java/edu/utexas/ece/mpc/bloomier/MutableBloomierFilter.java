@@ -11,52 +11,191 @@
 
 package edu.utexas.ece.mpc.bloomier;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
 import edu.utexas.ece.mpc.bloomier.internal.BloomierHasher;
+import edu.utexas.ece.mpc.bloomier.internal.DenseValueStore;
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
+import edu.utexas.ece.mpc.bloomier.internal.Murmur3HashFunction;
 import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
 import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
+import edu.utexas.ece.mpc.bloomier.internal.PackedValueStore;
+import edu.utexas.ece.mpc.bloomier.internal.RankIndex;
+import edu.utexas.ece.mpc.bloomier.internal.SlotValueStore;
+import edu.utexas.ece.mpc.bloomier.internal.ValueStore;
 
+/**
+ * A filter whose keys are fixed when it is built but whose values can be changed with
+ * {@link #set(Object, Object)}. An immutable filter maps each key to tau, which of its k
+ * neighbors holds its value, and the values sit in a separate store indexed by table slot.
+ * <p>
+ * tau takes ceil(log2 k) bits of each q-bit tau table entry and the rest detect non-members (a
+ * decoded tau of k or more is rejected too). Filters from the constructors keep values in an array
+ * of m slots. Filters from the compact factories ({@link #compact(Map, int, int, int,
+ * KeyFunnel, long)} and {@link #compact(Map, int, int, int, KeyFunnel, ValueCodec, long)}) need
+ * far less memory: q is just the tau bits plus the requested fingerprint bits, and values take one
+ * element per key, found through a rank index over the occupied slots (about one bit per
+ * slot), optionally bit-packed by a fixed-width codec.
+ * <p>
+ * Once constructed (and safely published), a filter may be read and updated by any number of
+ * threads at once without locking. Updates are releases and reads acquires, so a thread that sees
+ * a value set by another also sees everything that thread did before setting it. Updates that
+ * depend on the current value can be made atomic with
+ * {@link #compareAndSet(Object, Object, Object)} or {@link #compute(Object, ValueUpdater)}.
+ */
 public class MutableBloomierFilter<K, V> {
-    private ImmutableBloomierFilter<K, Integer> tauTable;
-    private V[] valueTable;
+    private final ImmutableBloomierFilter<K, Integer> tauTable;
+    private final ValueStore<V> valueStore;
+
+    private final long hashSeed;
+    private final BloomierHasher<K> hasher;
+
+    // Each thread gets its own so lookups don't allocate
+    private final ThreadLocal<Scratch> scratch;
 
-    private long hashSeed;
-    private BloomierHasher<K> hasher;
+    private static final class Scratch {
+        final int[] neighborhood;
+        // The taus of a batch of keys
+        final Integer[] iotas = new Integer[LookupScratch.BATCH_SIZE];
 
-    private List<K> pi;
-    private List<Integer> tau;
+        Scratch(int k) {
+            neighborhood = new int[k];
+        }
+    }
 
-    @SuppressWarnings("unchecked")
     public MutableBloomierFilter(Map<K, V> map, int m, int k, int q, long timeoutMs)
             throws TimeoutException {
-        OrderAndMatchFinder<K> oamf = new OrderAndMatchFinder<K>(map.keySet(), m, k, q);
-        OrderAndMatch<K> oam = oamf.find(timeoutMs);
+        this(map, m, k, q, KeyFunnels.hashCodes(), timeoutMs);
+    }
+
+    /**
+     * Builds the filter hashing the bytes keyFunnel feeds for each key rather than its hash code
+     * (see {@link KeyFunnel}).
+     */
+    public MutableBloomierFilter(Map<K, V> map, int m, int k, int q,
+                                 KeyFunnel<? super K> keyFunnel, long timeoutMs)
+            throws TimeoutException {
+        this(new ArrayList<K>(map.size()), map, m, k, q, keyFunnel, timeoutMs);
+    }
 
-        valueTable = (V[]) new Object[m];
+    private MutableBloomierFilter(List<K> keys, Map<K, V> map, int m, int k, int q,
+                                  KeyFunnel<? super K> keyFunnel, long timeoutMs)
+            throws TimeoutException {
+        this(ImmutableBloomierFilter.split(map, keys), m, k, q, keyFunnel,
+             new OrderAndMatchFinder<K>(keys, m, k, q, Murmur3HashFunction.INSTANCE, keyFunnel)
+                     .find(timeoutMs));
+    }
 
-        hashSeed = oam.getHashSeed();
-        hasher = new BloomierHasher<K>(hashSeed, m, k, q);
+    /**
+     * Builds the filter, searching for a working hash seed on parallelism workers run by executor
+     * (see {@link OrderAndMatchFinder#find(long, Executor, int)}).
+     */
+    public MutableBloomierFilter(Map<K, V> map, int m, int k, int q, long timeoutMs,
+                                 Executor executor, int parallelism) throws TimeoutException {
+        this(new ArrayList<K>(map.size()), map, m, k, q, timeoutMs, executor, parallelism);
+    }
 
-        pi = oam.getPi();
-        tau = oam.getTau();
+    private MutableBloomierFilter(List<K> keys, Map<K, V> map, int m, int k, int q,
+                                  long timeoutMs, Executor executor, int parallelism)
+            throws TimeoutException {
+        this(ImmutableBloomierFilter.split(map, keys), m, k, q, KeyFunnels.hashCodes(),
+             new OrderAndMatchFinder<K>(keys, m, k, q).find(timeoutMs, executor, parallelism));
+    }
 
-        Map<K, Integer> tauMap = new HashMap<K, Integer>();
-        for (int i = 0; i < pi.size(); i++) {
-            K key = pi.get(i);
-            V value = map.get(key);
+    private MutableBloomierFilter(List<V> values, int m, int k, int q,
+                                  KeyFunnel<? super K> keyFunnel, OrderAndMatch<K> oam) {
+        this(values, m, k, q, keyFunnel, ValueCodecs.boundedInts(k), false, null, oam);
+    }
 
-            int iota = tau.get(i);
-            tauMap.put(key, iota);
+    /**
+     * Builds a memory-lean filter (see the class description) whose values are kept as objects, so
+     * any value, null included, can be set.
+     *
+     * @param fingerprintBits
+     *            bits of each tau table entry beyond those holding tau; each one halves the rate at
+     *            which non-members are mistaken for members
+     */
+    public static <K, V> MutableBloomierFilter<K, V> compact(Map<K, V> map, int m, int k,
+                                                             int fingerprintBits,
+                                                             KeyFunnel<? super K> keyFunnel,
+                                                             long timeoutMs)
+            throws TimeoutException {
+        return compact(map, m, k, fingerprintBits, keyFunnel, null, timeoutMs);
+    }
 
-            int hashIndex = hasher.getNeighborhood(key)[iota];
-            valueTable[hashIndex] = value;
+    /**
+     * Builds a memory-lean filter (see the class description) whose values are bit-packed by
+     * valueCodec, which must be at most 64 bits wide. A word holds as many values as fit whole, so
+     * updates stay atomic. null can't be set.
+     *
+     * @param fingerprintBits
+     *            bits of each tau table entry beyond those holding tau; each one halves the rate at
+     *            which non-members are mistaken for members
+     */
+    public static <K, V> MutableBloomierFilter<K, V> compact(Map<K, V> map, int m, int k,
+                                                             int fingerprintBits,
+                                                             KeyFunnel<? super K> keyFunnel,
+                                                             ValueCodec<V> valueCodec,
+                                                             long timeoutMs)
+            throws TimeoutException {
+        if (fingerprintBits < 0) {
+            throw new IllegalArgumentException("Fingerprint bits must not be negative (was "
+                                               + fingerprintBits + ")");
         }
 
-        tauTable = new ImmutableBloomierFilter<K, Integer>(tauMap, m, k, q, Integer.class, oam);
+        ValueCodec<Integer> tauCodec = ValueCodecs.boundedInts(k);
+        int q = tauCodec.getBitWidth() + fingerprintBits;
+        List<K> keys = new ArrayList<K>(map.size());
+        List<V> values = ImmutableBloomierFilter.split(map, keys);
+        OrderAndMatch<K> oam = new OrderAndMatchFinder<K>(keys, m, k, q,
+                                                          Murmur3HashFunction.INSTANCE, keyFunnel)
+                .find(timeoutMs);
+        return new MutableBloomierFilter<K, V>(values, m, k, q, keyFunnel, tauCodec, true,
+                                               valueCodec, oam);
+    }
+
+    // values.get(i) is the value of oam.getKeys().get(i). Compact filters keep values densely
+    // (packed with packedCodec unless it's null), others in an array of m slots.
+    private MutableBloomierFilter(List<V> values, int m, int k, int q,
+                                  KeyFunnel<? super K> keyFunnel, ValueCodec<Integer> tauCodec,
+                                  boolean compact, ValueCodec<V> packedCodec,
+                                  OrderAndMatch<K> oam) {
+        hashSeed = oam.getHashSeed();
+        hasher = new BloomierHasher<K>(hashSeed, m, k, q, Murmur3HashFunction.INSTANCE, keyFunnel);
+        scratch = new ThreadLocal<Scratch>() {
+            @Override
+            protected Scratch initialValue() {
+                return new Scratch(tauTable.getK());
+            }
+        };
+
+        Integer[] iotas = new Integer[oam.size()];
+        int[] slots = new int[oam.size()];
+        for (int i = 0; i < oam.size(); i++) {
+            int iota = oam.getTau(i);
+            iotas[oam.getKeyIndex(i)] = iota;
+            slots[oam.getKeyIndex(i)] = oam.getNeighbor(i, iota);
+        }
+
+        if (compact == false) {
+            valueStore = new SlotValueStore<V>(m);
+        } else if (packedCodec == null) {
+            valueStore = new DenseValueStore<V>(new RankIndex(m, slots));
+        } else {
+            valueStore = new PackedValueStore<V>(new RankIndex(m, slots), packedCodec);
+        }
+        for (int i = 0; i < slots.length; i++) {
+            valueStore.set(slots[i], values.get(i));
+        }
+
+        // Shares oam (and so its neighborhoods), releasing it once the tau table is filled
+        tauTable = new ImmutableBloomierFilter<K, Integer>(Arrays.asList(iotas), m, k, q,
+                                                           keyFunnel, tauCodec, oam);
     }
 
     public V get(K key) {
@@ -65,18 +204,105 @@ public class MutableBloomierFilter<K, V> {
             return null;
         }
 
-        Integer hashIndex = hasher.getNeighborhood(key)[iota];
-        return valueTable[hashIndex];
+        return valueStore.get(neighbor(key, iota));
+    }
+
+    /**
+     * Tells whether key is a member without reading its value: a check of the tau table's
+     * fingerprint (see {@link ImmutableBloomierFilter#contains(Object)}).
+     */
+    public boolean contains(K key) {
+        return tauTable.contains(key);
+    }
+
+    /**
+     * Looks up a batch of keys, storing the value of keys[i] (or null if it is detected not to be a
+     * member) in values[i]. See {@link ImmutableBloomierFilter#getAll(Object[], Object[])}.
+     */
+    public void getAll(K[] keys, V[] values) {
+        if (values.length < keys.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but room for only "
+                                               + values.length + " values");
+        }
+
+        Scratch scratch = this.scratch.get();
+        Integer[] iotas = scratch.iotas;
+        for (int start = 0; start < keys.length; start += LookupScratch.BATCH_SIZE) {
+            int count = Math.min(LookupScratch.BATCH_SIZE, keys.length - start);
+            tauTable.getAll(keys, start, count, iotas, 0);
+
+            for (int i = 0; i < count; i++) {
+                if (iotas[i] == null) {
+                    values[start + i] = null;
+                } else {
+                    hasher.hash(keys[start + i], scratch.neighborhood, null);
+                    values[start + i] = valueStore.get(scratch.neighborhood[iotas[i]]);
+                }
+            }
+        }
     }
 
+    /**
+     * @throws IllegalArgumentException
+     *             if key is detected not to be a member
+     */
     public void set(K key, V value) {
+        valueStore.set(slot(key), value);
+    }
+
+    /**
+     * Atomically sets key's value to update if it is currently equal to expect (by
+     * {@link Object#equals(Object)}, null matching null), however the filter stores its values.
+     *
+     * @return whether the value was set
+     * @throws IllegalArgumentException
+     *             if key is detected not to be a member
+     */
+    public boolean compareAndSet(K key, V expect, V update) {
+        return valueStore.compareAndSet(slot(key), expect, update);
+    }
+
+    /**
+     * Atomically replaces key's value with what updater computes from it, retrying if another
+     * thread changes the value in the meantime.
+     *
+     * @return the new value
+     * @throws IllegalArgumentException
+     *             if key is detected not to be a member
+     */
+    public V compute(K key, ValueUpdater<V> updater) {
+        int slot = slot(key);
+        for (;;) {
+            V current = valueStore.get(slot);
+            V updated = updater.update(current);
+            if (valueStore.compareAndSet(slot, current, updated)) {
+                return updated;
+            }
+        }
+    }
+
+    /**
+     * @return what building the filter took (see {@link BuildStatistics})
+     */
+    public BuildStatistics getBuildStatistics() {
+        return tauTable.getBuildStatistics();
+    }
+
+    // The slot holding key's value
+    private int slot(K key) {
         Integer iota = tauTable.get(key);
 
         if (iota == null) {
             throw new IllegalArgumentException("Supplied key (" + key + ") is invalid");
         }
 
-        Integer hashIndex = hasher.getNeighborhood(key)[iota];
-        valueTable[hashIndex] = value;
+        return neighbor(key, iota);
+    }
+
+    // The iota-th neighbor of key, hashed into the calling thread's scratch
+    private int neighbor(K key, int iota) {
+        int[] neighborhood = scratch.get().neighborhood;
+        hasher.hash(key, neighborhood, null);
+        return neighborhood[iota];
     }
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
+
+/**
+ * A bloomier filter from int keys to int values whose keys are fixed when it is built but whose
+ * values can be changed with {@link #set(int, int)}. Unlike a
+ * {@link MutableBloomierFilter}&lt;Integer, Integer&gt; it packs each value into exactly 32 bits
+ * and never allocates on {@link #get(int, int)}.
+ * <p>
+ * Once constructed (and safely published), a filter may be read and updated by any number of
+ * threads at once without locking.
+ */
+public class MutableIntIntBloomierFilter extends MutablePrimitiveBloomierFilter {
+    // Each thread gets its own so batch lookups don't allocate: a batch of keys widened to longs,
+    // overwritten by their values (slotsOf probes a batch's keys before storing any slot)
+    private final ThreadLocal<long[]> wideScratch = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[LookupScratch.BATCH_SIZE];
+        }
+    };
+
+    /**
+     * @param keys
+     *            distinct keys
+     * @param values
+     *            values[i] is the value of keys[i]
+     * @param fingerprintBits
+     *            bits of each table entry beyond those holding tau; each one halves the rate at
+     *            which non-members are mistaken for members
+     */
+    public MutableIntIntBloomierFilter(int[] keys, int[] values, int m, int k,
+                                       int fingerprintBits, long timeoutMs)
+            throws TimeoutException {
+        this(keys, values, m, k, fingerprintBits, timeoutMs, Long.MIN_VALUE);
+    }
+
+    public MutableIntIntBloomierFilter(int[] keys, int[] values, int m, int k,
+                                       int fingerprintBits, long timeoutMs, long hashSeedHint)
+            throws TimeoutException {
+        super(widen(keys), widen(values), m, k, fingerprintBits, Integer.SIZE, timeoutMs,
+              hashSeedHint);
+    }
+
+    /**
+     * @return the value of key, or missingValue if key is detected not to be in the filter
+     */
+    public int get(int key, int missingValue) {
+        return (int) lookupValue(key, missingValue);
+    }
+
+    /**
+     * Looks up a batch of keys, storing the value of keys[i] (or missingValue) in values[i]. Much
+     * faster than calling {@link #get(int, int)} per key on tables that don't fit in cache.
+     */
+    public void getAll(int[] keys, int[] values, int missingValue) {
+        if (values.length < keys.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but room for only "
+                                               + values.length + " values");
+        }
+
+        long[] wide = wideScratch.get();
+        for (int start = 0; start < keys.length; start += LookupScratch.BATCH_SIZE) {
+            int count = Math.min(LookupScratch.BATCH_SIZE, keys.length - start);
+            for (int i = 0; i < count; i++) {
+                wide[i] = keys[start + i];
+            }
+            lookupValues(wide, wide, 0, count, missingValue);
+            for (int i = 0; i < count; i++) {
+                values[start + i] = (int) wide[i];
+            }
+        }
+    }
+
+    /**
+     * @return whether key is in the filter, checked without reading its value
+     */
+    public boolean contains(int key) {
+        return isMutableMember(key);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if key is detected not to be a member
+     */
+    public void set(int key, int value) {
+        store(key, value);
+    }
+
+    /**
+     * Atomically sets key's value to update if it is currently expect.
+     *
+     * @return whether the value was set
+     * @throws IllegalArgumentException
+     *             if key is detected not to be a member
+     */
+    public boolean compareAndSet(int key, int expect, int update) {
+        return compareAndStore(key, expect, update);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A bloomier filter from long keys to long values whose keys are fixed when it is built but whose
+ * values can be changed with {@link #set(long, long)}. Unlike a
+ * {@link MutableBloomierFilter}&lt;Long, Long&gt; it hashes all 64 bits of each key, packs each value
+ * into exactly 64 bits, and never allocates on {@link #get(long, long)}.
+ * <p>
+ * Once constructed (and safely published), a filter may be read and updated by any number of
+ * threads at once without locking.
+ */
+public class MutableLongLongBloomierFilter extends MutablePrimitiveBloomierFilter {
+
+    /**
+     * @param keys
+     *            distinct keys
+     * @param values
+     *            values[i] is the value of keys[i]
+     * @param fingerprintBits
+     *            bits of each table entry beyond those holding tau; each one halves the rate at
+     *            which non-members are mistaken for members
+     */
+    public MutableLongLongBloomierFilter(long[] keys, long[] values, int m, int k,
+                                         int fingerprintBits, long timeoutMs)
+            throws TimeoutException {
+        this(keys, values, m, k, fingerprintBits, timeoutMs, Long.MIN_VALUE);
+    }
+
+    public MutableLongLongBloomierFilter(long[] keys, long[] values, int m, int k,
+                                         int fingerprintBits, long timeoutMs, long hashSeedHint)
+            throws TimeoutException {
+        super(keys, values, m, k, fingerprintBits, Long.SIZE, timeoutMs, hashSeedHint);
+    }
+
+    /**
+     * @return the value of key, or missingValue if key is detected not to be in the filter
+     */
+    public long get(long key, long missingValue) {
+        return lookupValue(key, missingValue);
+    }
+
+    /**
+     * Looks up a batch of keys, storing the value of keys[i] (or missingValue) in values[i]. Much
+     * faster than calling {@link #get(long, long)} per key on tables that don't fit in cache.
+     */
+    public void getAll(long[] keys, long[] values, long missingValue) {
+        if (values.length < keys.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but room for only "
+                                               + values.length + " values");
+        }
+        lookupValues(keys, values, 0, keys.length, missingValue);
+    }
+
+    /**
+     * @return whether key is in the filter, checked without reading its value
+     */
+    public boolean contains(long key) {
+        return isMutableMember(key);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if key is detected not to be a member
+     */
+    public void set(long key, long value) {
+        store(key, value);
+    }
+
+    /**
+     * Atomically sets key's value to update if it is currently expect.
+     *
+     * @return whether the value was set
+     * @throws IllegalArgumentException
+     *             if key is detected not to be a member
+     */
+    public boolean compareAndSet(long key, long expect, long update) {
+        return compareAndStore(key, expect, update);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.internal.PackedBits;
+import edu.utexas.ece.mpc.bloomier.internal.PackedLongStore;
+import edu.utexas.ece.mpc.bloomier.internal.RankIndex;
+
+/**
+ * Shared implementation of the mutable filters over primitive keys and values, laid out like a
+ * compact {@link MutableBloomierFilter}: the table holds each key's tau in ceil(log2 k) bits, the
+ * rest of each entry detecting non-members, and the values are bit-packed one per key, found
+ * through a rank index over the occupied slots.
+ * <p>
+ * Once constructed (and safely published), a filter may be read and updated by any number of
+ * threads at once without locking.
+ */
+abstract class MutablePrimitiveBloomierFilter extends PrimitiveBloomierFilter {
+    private final PackedLongStore valueStore;
+    private final long valueMask;
+
+    MutablePrimitiveBloomierFilter(long[] keys, long[] values, int m, int k, int fingerprintBits,
+                                   int valueBits, long timeoutMs, long hashSeedHint)
+            throws TimeoutException {
+        super(checkLengths(keys, values), null, m, k,
+              tauBits(k) + checkFingerprintBits(fingerprintBits), tauBits(k), timeoutMs,
+              hashSeedHint);
+
+        int[] slots = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            slots[i] = slotOf(keys[i]);
+        }
+
+        valueStore = new PackedLongStore(new RankIndex(m, slots), valueBits);
+        valueMask = PackedBits.lastWordMask(valueBits);
+        for (int i = 0; i < keys.length; i++) {
+            valueStore.set(slots[i], values[i] & valueMask);
+        }
+    }
+
+    /**
+     * @return the bits of key's value, or missingValue if key is detected to be a non-member
+     */
+    protected final long lookupValue(long key, long missingValue) {
+        int slot = slotOf(key);
+        return slot < 0 ? missingValue : valueStore.get(slot);
+    }
+
+    /**
+     * Batch version of {@link #lookupValue(long, long)} for keys[offset, offset + count), with
+     * results stored at the same positions of values, which may be keys itself. The table probes
+     * are batched as {@link #lookupAll(long[], long[], int, int, long)} does before the values are
+     * read.
+     */
+    protected final void lookupValues(long[] keys, long[] values, int offset, int count,
+                                      long missingValue) {
+        slotsOf(keys, values, offset, count);
+        for (int i = offset; i < offset + count; i++) {
+            values[i] = values[i] < 0 ? missingValue : valueStore.get((int) values[i]);
+        }
+    }
+
+    /**
+     * @return whether key is a member, checked without reading its value
+     */
+    protected final boolean isMutableMember(long key) {
+        return slotOf(key) >= 0;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if key is detected not to be a member
+     */
+    protected final void store(long key, long value) {
+        valueStore.set(slot(key), value & valueMask);
+    }
+
+    /**
+     * Atomically sets key's value to update if its bits are currently those of expect.
+     *
+     * @return whether the value was set
+     * @throws IllegalArgumentException
+     *             if key is detected not to be a member
+     */
+    protected final boolean compareAndStore(long key, long expect, long update) {
+        return valueStore.compareAndSet(slot(key), expect & valueMask, update & valueMask);
+    }
+
+    private int slot(long key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Supplied key (" + key + ") is invalid");
+        }
+        return slot;
+    }
+
+    private static int tauBits(int k) {
+        return ValueCodecs.boundedInts(k).getBitWidth();
+    }
+
+    private static long[] checkLengths(long[] keys, long[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but " + values.length
+                                               + " values");
+        }
+        return keys;
+    }
+
+    private static int checkFingerprintBits(int fingerprintBits) {
+        if (fingerprintBits < 0) {
+            throw new IllegalArgumentException("Fingerprint bits must not be negative (was "
+                                               + fingerprintBits + ")");
+        }
+        return fingerprintBits;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.internal.HashFunction;
+import edu.utexas.ece.mpc.bloomier.internal.HeapTable;
+import edu.utexas.ece.mpc.bloomier.internal.LookupScratch;
+import edu.utexas.ece.mpc.bloomier.internal.Murmur3HashFunction;
+import edu.utexas.ece.mpc.bloomier.internal.PackedBits;
+import edu.utexas.ece.mpc.bloomier.internal.Table;
+import edu.utexas.ece.mpc.bloomier.internal.TableBuilder;
+
+/**
+ * Shared implementation of the filters over primitive keys and values. Keys are hashed as full
+ * 64-bit values and values are stored as their low valueBits bits, with no boxing or serialization
+ * on either side. Built without values, the filter stores each key's tau instead, which the
+ * mutable filters use to find the slot holding the key's value (see {@link #slotOf(long)}).
+ * <p>
+ * Table entries are exactly q bits, bit-packed as in {@link ImmutableBloomierFilter}. The value occupies
+ * the low valueBits bits; the remaining bits are zero for every member, so the more of them there
+ * are the more non-members are detected (each extra bit halves the false positive rate).
+ * <p>
+ * Lookups are safe from any number of threads at once.
+ */
+abstract class PrimitiveBloomierFilter {
+    protected final int m;
+    protected final int k;
+    protected final int q;
+    protected final int valueBits;
+
+    protected long hashSeed;
+    protected Table table;
+    private BuildStatistics buildStatistics;
+
+    private final HashFunction hashFunction = Murmur3HashFunction.INSTANCE;
+    private final int tableEntryWords;
+    private final long lastWordMask;
+    private final long valueMask;
+
+    // Each reading thread gets its own so lookups neither allocate nor lock
+    private final ThreadLocal<LookupScratch> lookupScratch;
+
+    /**
+     * @param values
+     *            values[i] is the value of keys[i], or null to store each key's tau
+     */
+    PrimitiveBloomierFilter(long[] keys, long[] values, int m, int k, int q, int valueBits,
+                            long timeoutMs, long hashSeedHint) throws TimeoutException {
+        if (values != null && keys.length != values.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but " + values.length
+                                               + " values");
+        }
+        if (q < valueBits) {
+            throw new IllegalArgumentException("Values don't fit in table (q=" + q + "; must be >= "
+                                               + valueBits + ")");
+        }
+        if (m < k) {
+            throw new IllegalArgumentException("Table size (m=" + m
+                                               + ") must be at least the neighborhood size (k=" + k
+                                               + ")");
+        }
+
+        this.m = m;
+        this.k = k;
+        this.q = q;
+        this.valueBits = valueBits;
+
+        tableEntryWords = PackedBits.entryWords(q);
+        lastWordMask = PackedBits.lastWordMask(q);
+        valueMask = valueBits == Long.SIZE ? -1L : (1L << valueBits) - 1;
+
+        lookupScratch = LookupScratch.perThread(k, tableEntryWords);
+
+        create(keys, values, timeoutMs, hashSeedHint);
+    }
+
+    private void create(final long[] keys, final long[] values, long timeoutMs,
+                        long hashSeedHint) throws TimeoutException {
+        TableBuilder builder = new TableBuilder(keys.length, m, k, q) {
+
+            @Override
+            protected void neighborhood(int key, long hashSeed, int[] neighborhood) {
+                hashFunction.hash(keys[key], hashSeed, m, neighborhood, null);
+            }
+
+            @Override
+            protected void entry(int key, long hashSeed, int tau, long[] entry) {
+                hashFunction.hash(keys[key], hashSeed, m, null, entry); // starts out as the mask
+                entry[tableEntryWords - 1] &= lastWordMask;
+                entry[0] ^= (values == null ? tau : values[key]) & valueMask;
+            }
+        };
+
+        long now = System.currentTimeMillis();
+        long[] words = builder.build(hashSeedHint,
+                                     timeoutMs < Long.MAX_VALUE - now ? now + timeoutMs
+                                                                      : Long.MAX_VALUE,
+                                     "key set");
+        hashSeed = builder.getHashSeed();
+        buildStatistics = builder.getStatistics();
+        table = new HeapTable(words);
+    }
+
+    /**
+     * @return the value stored for key, or missingValue if key is detected to be a non-member
+     */
+    protected final long lookup(long key, long missingValue) {
+        long[] result = probe(key);
+        return hasFingerprint(result) ? result[0] & valueMask : missingValue;
+    }
+
+    /**
+     * @return whether key is a member: whether its entry's fingerprint bits (all but the value's)
+     *         are zero, which a non-member's are with probability 2^-(q - valueBits)
+     */
+    protected final boolean isMember(long key) {
+        return hasFingerprint(probe(key));
+    }
+
+    /**
+     * For filters built without values: the slot of key's tau-th neighbor, where its value is kept.
+     *
+     * @return the slot, or -1 if key is detected to be a non-member
+     */
+    protected final int slotOf(long key) {
+        long[] result = probe(key);
+        if (hasFingerprint(result) == false || result[0] >= k) {
+            return -1;
+        }
+        return lookupScratch.get().neighborhood[(int) result[0]];
+    }
+
+    // XORs key's mask and neighbor entries into the calling thread's scratch words
+    private long[] probe(long key) {
+        LookupScratch scratch = lookupScratch.get();
+        int[] neighborhood = scratch.neighborhood;
+        long[] result = scratch.words;
+        hashFunction.hash(key, hashSeed, m, neighborhood, result); // result starts out as the mask
+        result[tableEntryWords - 1] &= lastWordMask;
+
+        for (int i = 0; i < k; i++) {
+            PackedBits.xorInto(table, (long) neighborhood[i] * q, q, result, 0);
+        }
+        return result;
+    }
+
+    // Everything but the value itself must be zero
+    private boolean hasFingerprint(long[] result) {
+        return hasFingerprint(result, 0);
+    }
+
+    private boolean hasFingerprint(long[] results, int at) {
+        long leftovers = results[at] & ~valueMask;
+        for (int w = 1; w < tableEntryWords; w++) {
+            leftovers |= results[at + w];
+        }
+        return leftovers == 0;
+    }
+
+    /**
+     * Batch version of {@link #lookup(long, long)} for keys[offset, offset + count), with results
+     * stored at the same positions of values. Keys are hashed a chunk at a time and the chunk's
+     * table probes issued back to back so their cache misses overlap.
+     */
+    protected final void lookupAll(long[] keys, long[] values, int offset, int count,
+                                   long missingValue) {
+        LookupScratch scratch = lookupScratch.get();
+        long[] results = scratch.batchWords;
+        int end = offset + count;
+        for (int start = offset; start < end; start += LookupScratch.BATCH_SIZE) {
+            int chunk = Math.min(LookupScratch.BATCH_SIZE, end - start);
+            probeAll(scratch, keys, start, chunk);
+
+            for (int i = 0; i < chunk; i++) {
+                values[start + i] = hasFingerprint(results, i * tableEntryWords)
+                                    ? results[i * tableEntryWords] & valueMask : missingValue;
+            }
+        }
+    }
+
+    /**
+     * Batch version of {@link #slotOf(long)} for keys[offset, offset + count), probing the table as
+     * {@link #lookupAll(long[], long[], int, int, long)} does. Slots are stored at the same
+     * positions of slots, which may be keys itself.
+     */
+    protected final void slotsOf(long[] keys, long[] slots, int offset, int count) {
+        LookupScratch scratch = lookupScratch.get();
+        int[] neighborhoods = scratch.batchNeighborhoods;
+        long[] results = scratch.batchWords;
+        int end = offset + count;
+        for (int start = offset; start < end; start += LookupScratch.BATCH_SIZE) {
+            int chunk = Math.min(LookupScratch.BATCH_SIZE, end - start);
+            probeAll(scratch, keys, start, chunk);
+
+            for (int i = 0; i < chunk; i++) {
+                long tau = results[i * tableEntryWords];
+                slots[start + i] = hasFingerprint(results, i * tableEntryWords) && tau < k
+                                   ? neighborhoods[i * k + (int) tau] : -1;
+            }
+        }
+    }
+
+    // Probes keys[start, start + chunk) into the scratch's batch neighborhoods and words
+    private void probeAll(LookupScratch scratch, long[] keys, int start, int chunk) {
+        int[] neighborhoods = scratch.batchNeighborhoods;
+        long[] results = scratch.batchWords;
+        for (int i = 0; i < chunk; i++) {
+            hashFunction.hash(keys[start + i], hashSeed, m, scratch.neighborhood, scratch.words);
+            scratch.words[tableEntryWords - 1] &= lastWordMask;
+            System.arraycopy(scratch.neighborhood, 0, neighborhoods, i * k, k);
+            System.arraycopy(scratch.words, 0, results, i * tableEntryWords, tableEntryWords);
+        }
+
+        for (int j = 0; j < k; j++) {
+            for (int i = 0; i < chunk; i++) {
+                PackedBits.xorInto(table, (long) neighborhoods[i * k + j] * q, q, results,
+                                   i * tableEntryWords);
+            }
+        }
+    }
+
+    // For the int filters, which hash and store ints as longs
+    static long[] widen(int[] ints) {
+        long[] longs = new long[ints.length];
+        for (int i = 0; i < ints.length; i++) {
+            longs[i] = ints[i];
+        }
+        return longs;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int getQ() {
+        return q;
+    }
+
+    public long getHashSeed() {
+        return hashSeed;
+    }
+
+    /**
+     * @return what building the filter took (see {@link BuildStatistics})
+     */
+    public BuildStatistics getBuildStatistics() {
+        return buildStatistics;
+    }
+}
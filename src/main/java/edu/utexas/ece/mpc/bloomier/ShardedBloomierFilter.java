@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.internal.FilterFormat;
+import edu.utexas.ece.mpc.bloomier.internal.Murmur3HashFunction;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatch;
+import edu.utexas.ece.mpc.bloomier.internal.OrderAndMatchFinder;
+import edu.utexas.ece.mpc.bloomier.internal.ShardedFilterFormat;
+
+/**
+ * An immutable filter split into independent shards, each an {@link ImmutableBloomierFilter} with
+ * its own hash seed. A seed-independent hash of each key picks its shard, both when building and on
+ * {@link #get(Object)}.
+ * <p>
+ * Shards are built in parallel on a {@link ForkJoinPool}, and a shard whose seed fails to peel
+ * retries with its next seed on its own, without disturbing the others. With many more shards than
+ * cores, build time drops nearly linearly with the number of cores.
+ * <p>
+ * Filters too large to build from an in-memory map can be built straight to a file with
+ * {@link StreamingBloomierFilterBuilder} and then opened with
+ * {@link #map(FileChannel, long, ValueCodec, boolean)}.
+ */
+public class ShardedBloomierFilter<K, V> {
+    private final KeyFunnel<? super K> keyFunnel;
+    private final ImmutableBloomierFilter<K, V>[] shards;
+
+    public ShardedBloomierFilter(Map<K, V> map, int m, int k, int q, ValueCodec<V> valueCodec,
+                                 int shardCount, long timeoutMs, ForkJoinPool pool)
+            throws TimeoutException {
+        this(map, m, k, q, KeyFunnels.hashCodes(), valueCodec, shardCount, timeoutMs, pool);
+    }
+
+    /**
+     * @param keyFunnel
+     *            feeds the bytes of each key to the hash function, which also picks its shard (see
+     *            {@link KeyFunnel})
+     * @param m
+     *            total table size; each shard gets a share proportional to its number of keys (but
+     *            at least k), so the total may exceed m by up to k per shard
+     * @param shardCount
+     *            number of shards; a few times the pool's parallelism keeps every worker busy
+     * @param timeoutMs
+     *            time allowed for the whole build
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedBloomierFilter(Map<K, V> map, int m, int k, int q,
+                                 KeyFunnel<? super K> keyFunnel, ValueCodec<V> valueCodec,
+                                 int shardCount, long timeoutMs, ForkJoinPool pool)
+            throws TimeoutException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive (was " + shardCount
+                                               + ")");
+        }
+        this.keyFunnel = keyFunnel;
+
+        List<List<K>> shardKeys = new ArrayList<List<K>>(shardCount);
+        List<List<V>> shardValues = new ArrayList<List<V>>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shardKeys.add(new ArrayList<K>(map.size() / shardCount));
+            shardValues.add(new ArrayList<V>(map.size() / shardCount));
+        }
+        for (Map.Entry<K, V> entry: map.entrySet()) {
+            int shard = Murmur3HashFunction.bucket(entry.getKey(), keyFunnel, shardCount);
+            shardKeys.get(shard).add(entry.getKey());
+            shardValues.get(shard).add(entry.getValue());
+        }
+
+        long now = System.currentTimeMillis();
+        final long deadline = timeoutMs < Long.MAX_VALUE - now ? now + timeoutMs : Long.MAX_VALUE;
+
+        shards = new ImmutableBloomierFilter[shardCount];
+        final List<ShardBuild> builds = new ArrayList<ShardBuild>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            List<K> keys = shardKeys.get(i);
+            int shardM = Math.max(k, (int) Math.ceil((double) m * keys.size() / map.size()));
+            builds.add(new ShardBuild(i, keys, shardValues.get(i), shardM, k, q, valueCodec,
+                                      deadline));
+        }
+
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                invokeAll(builds);
+            }
+        });
+
+        for (ShardBuild build: builds) {
+            if (build.timeout != null) {
+                throw build.timeout;
+            }
+        }
+    }
+
+    private ShardedBloomierFilter(KeyFunnel<? super K> keyFunnel,
+                                  ImmutableBloomierFilter<K, V>[] shards) {
+        this.keyFunnel = keyFunnel;
+        this.shards = shards;
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo(OutputStream)}, verifying its checksums. The stream
+     * is left open, positioned just past the filter.
+     */
+    public static <K, V> ShardedBloomierFilter<K, V> readFrom(InputStream in,
+                                                              ValueCodec<V> valueCodec)
+            throws IOException {
+        return readFrom(Channels.newChannel(in), valueCodec);
+    }
+
+    public static <K, V> ShardedBloomierFilter<K, V> readFrom(InputStream in,
+                                                              KeyFunnel<? super K> keyFunnel,
+                                                              ValueCodec<V> valueCodec)
+            throws IOException {
+        return readFrom(Channels.newChannel(in), keyFunnel, valueCodec);
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo(WritableByteChannel)} or
+     * {@link StreamingBloomierFilterBuilder}, verifying its checksums.
+     */
+    public static <K, V> ShardedBloomierFilter<K, V> readFrom(ReadableByteChannel channel,
+                                                              ValueCodec<V> valueCodec)
+            throws IOException {
+        return readFrom(channel, KeyFunnels.hashCodes(), valueCodec);
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo(WritableByteChannel)} or
+     * {@link StreamingBloomierFilterBuilder}, verifying its checksums. keyFunnel and valueCodec
+     * must be the ones the filter was built with.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> ShardedBloomierFilter<K, V> readFrom(ReadableByteChannel channel,
+                                                              KeyFunnel<? super K> keyFunnel,
+                                                              ValueCodec<V> valueCodec)
+            throws IOException {
+        long[] offsets = ShardedFilterFormat.readHeader(channel);
+        long position = ShardedFilterFormat.headerSize(offsets.length);
+
+        ImmutableBloomierFilter<K, V>[] shards = new ImmutableBloomierFilter[offsets.length];
+        for (int i = 0; i < shards.length; i++) {
+            ShardedFilterFormat.skip(channel, position, offsets[i]);
+            FilterFormat.Header header = FilterFormat.readHeader(channel);
+            shards[i] = ImmutableBloomierFilter.readFrom(header, channel, keyFunnel, valueCodec);
+            position = offsets[i] + header.getFileSize();
+        }
+        ShardedFilterFormat.skip(channel, position, ShardedFilterFormat.align(position));
+
+        return new ShardedBloomierFilter<K, V>(keyFunnel, shards);
+    }
+
+    /**
+     * Opens a sharded filter file at position of channel with every shard's table memory mapped in
+     * place (see {@link ImmutableBloomierFilter#map(FileChannel, long, ValueCodec, boolean)}).
+     */
+    public static <K, V> ShardedBloomierFilter<K, V> map(FileChannel channel, long position,
+                                                         ValueCodec<V> valueCodec, boolean verify)
+            throws IOException {
+        return map(channel, position, KeyFunnels.hashCodes(), valueCodec, verify);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> ShardedBloomierFilter<K, V> map(FileChannel channel, long position,
+                                                         KeyFunnel<? super K> keyFunnel,
+                                                         ValueCodec<V> valueCodec, boolean verify)
+            throws IOException {
+        long[] offsets = ShardedFilterFormat.readHeader(channel, position);
+
+        ImmutableBloomierFilter<K, V>[] shards = new ImmutableBloomierFilter[offsets.length];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = ImmutableBloomierFilter.map(channel, position + offsets[i], keyFunnel,
+                                                    valueCodec, verify);
+        }
+        return new ShardedBloomierFilter<K, V>(keyFunnel, shards);
+    }
+
+    public V get(K key) {
+        return shards[Murmur3HashFunction.bucket(key, keyFunnel, shards.length)].get(key);
+    }
+
+    /**
+     * Tells whether key is a member without decoding its value (see
+     * {@link ImmutableBloomierFilter#contains(Object)}).
+     */
+    public boolean contains(K key) {
+        return shards[Murmur3HashFunction.bucket(key, keyFunnel, shards.length)].contains(key);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public ImmutableBloomierFilter<K, V> getShard(int shard) {
+        return shards[shard];
+    }
+
+    /**
+     * Writes the filter in the sharded filter file format (see {@link ShardedFilterFormat}). The
+     * stream is not closed.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        writeTo(Channels.newChannel(out));
+    }
+
+    /**
+     * Writes the filter in the sharded filter file format (see {@link ShardedFilterFormat}). The
+     * channel is not closed.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        long[] recordSizes = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            recordSizes[i] = shards[i].getHeader().getFileSize();
+        }
+
+        ShardedFilterFormat.writeHeader(ShardedFilterFormat.layout(recordSizes), channel);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].writeTo(channel);
+            ShardedFilterFormat.pad(recordSizes[i], channel);
+        }
+    }
+
+    /**
+     * Finds an order and matching for one shard (trying seeds until one works) and fills its table.
+     */
+    private class ShardBuild extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int shard;
+        private final List<K> keys;
+        private final List<V> values;
+        private final int m;
+        private final int k;
+        private final int q;
+        private final ValueCodec<V> valueCodec;
+        private final long deadline;
+
+        TimeoutException timeout;
+
+        ShardBuild(int shard, List<K> keys, List<V> values, int m, int k, int q,
+                   ValueCodec<V> valueCodec, long deadline) {
+            this.shard = shard;
+            this.keys = keys;
+            this.values = values;
+            this.m = m;
+            this.k = k;
+            this.q = q;
+            this.valueCodec = valueCodec;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected void compute() {
+            OrderAndMatch<K> oam;
+            try {
+                oam = new OrderAndMatchFinder<K>(keys, m, k, q, Murmur3HashFunction.INSTANCE,
+                                                 keyFunnel).findUntil(deadline);
+            } catch (TimeoutException e) {
+                timeout = e;
+                return;
+            }
+
+            shards[shard] = new ImmutableBloomierFilter<K, V>(values, m, k, q, keyFunnel, valueCodec,
+                                                           oam);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.internal.FilterFormat;
+import edu.utexas.ece.mpc.bloomier.internal.HeapTable;
+import edu.utexas.ece.mpc.bloomier.internal.Murmur3HashFunction;
+import edu.utexas.ece.mpc.bloomier.internal.PackedBits;
+import edu.utexas.ece.mpc.bloomier.internal.ShardedFilterFormat;
+import edu.utexas.ece.mpc.bloomier.internal.TableBuilder;
+
+/**
+ * Builds a sharded filter from more entries than fit on the heap, writing it straight to the
+ * sharded filter file format (read it back with {@link ShardedBloomierFilter}).
+ * <p>
+ * Entries are streamed in with {@link #add(Object, Object)}; each is reduced right away to its key's
+ * 128-bit fingerprint (see {@link KeyFunnel}) and its encoded value and spilled to the temporary
+ * file of its shard, so keys and values are never held in memory. {@link #build(WritableByteChannel, long)} then loads, peels and
+ * fills one shard at a time, so peak heap use is governed by the largest shard (a few dozen bytes
+ * per key plus about twice the table entry size), not by the whole key set. Choose enough shards
+ * to keep that within the heap.
+ * <p>
+ * Builds fail if two keys have the same fingerprint. With the default hash code funnel that
+ * happens whenever distinct keys share a hash code, so large key sets need a funnel that feeds the
+ * whole key.
+ */
+public class StreamingBloomierFilterBuilder<K, V> implements Closeable {
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+
+    private final int k;
+    private final int q;
+    private final double tableSizeRatio;
+    private final KeyFunnel<? super K> keyFunnel;
+    private final ValueCodec<V> valueCodec;
+
+    private final Murmur3HashFunction hashFunction = Murmur3HashFunction.INSTANCE;
+    private final int tableEntryWords;
+    private final long lastWordMask;
+    private final long[] encodedValue;
+    private final long[] fingerprint = new long[2];
+
+    private final File[] bucketFiles;
+    private final DataOutputStream[] bucketOutputs;
+    private final int[] bucketCounts;
+    private boolean built;
+
+    /**
+     * @param tableSizeRatio
+     *            table entries per key (m / n) of each shard, e.g. 1.23 for k = 3
+     * @param shardCount
+     *            number of shards, which is also the number of temporary files kept open while
+     *            entries are added
+     * @param tempDirectory
+     *            where to spill entries, or null for the default temporary directory
+     */
+    public StreamingBloomierFilterBuilder(int k, int q, double tableSizeRatio,
+                                          ValueCodec<V> valueCodec, int shardCount,
+                                          File tempDirectory) throws IOException {
+        this(k, q, tableSizeRatio, KeyFunnels.hashCodes(), valueCodec, shardCount, tempDirectory);
+    }
+
+    /**
+     * @param keyFunnel
+     *            feeds the bytes of each key to the hash function; read the filter back with the
+     *            same funnel
+     */
+    public StreamingBloomierFilterBuilder(int k, int q, double tableSizeRatio,
+                                          KeyFunnel<? super K> keyFunnel, ValueCodec<V> valueCodec,
+                                          int shardCount, File tempDirectory) throws IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive (was " + shardCount
+                                               + ")");
+        }
+        if (valueCodec.getBitWidth() > q) {
+            throw new IllegalArgumentException("Values don't fit in table (q=" + q + "; must be >= "
+                                               + valueCodec.getBitWidth() + ")");
+        }
+
+        this.k = k;
+        this.q = q;
+        this.tableSizeRatio = tableSizeRatio;
+        this.keyFunnel = keyFunnel;
+        this.valueCodec = valueCodec;
+
+        tableEntryWords = PackedBits.entryWords(q);
+        lastWordMask = PackedBits.lastWordMask(q);
+        encodedValue = new long[tableEntryWords];
+
+        bucketFiles = new File[shardCount];
+        bucketOutputs = new DataOutputStream[shardCount];
+        bucketCounts = new int[shardCount];
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                bucketFiles[i] = File.createTempFile("bloomier-shard-" + i + "-", ".spill",
+                                                     tempDirectory);
+                FileOutputStream out = new FileOutputStream(bucketFiles[i]);
+                bucketOutputs[i] = new DataOutputStream(new BufferedOutputStream(out,
+                                                                                 SPILL_BUFFER_SIZE));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public void add(K key, V value) throws IOException {
+        if (built) {
+            throw new IllegalStateException("Filter has already been built");
+        }
+
+        Murmur3HashFunction.fingerprint(key, keyFunnel, fingerprint);
+        Arrays.fill(encodedValue, 0);
+        valueCodec.encode(value, encodedValue);
+
+        int bucket = Murmur3HashFunction.bucket(key, keyFunnel, bucketFiles.length);
+        if (bucketCounts[bucket] == Integer.MAX_VALUE / k) {
+            throw new IllegalStateException("Too many keys in shard " + bucket
+                                            + "; use more shards");
+        }
+        DataOutputStream out = bucketOutputs[bucket];
+        out.writeLong(fingerprint[0]);
+        out.writeLong(fingerprint[1]);
+        for (long word: encodedValue) {
+            out.writeLong(word);
+        }
+        bucketCounts[bucket]++;
+    }
+
+    public void addAll(Iterator<? extends Map.Entry<? extends K, ? extends V>> entries)
+            throws IOException {
+        while (entries.hasNext()) {
+            Map.Entry<? extends K, ? extends V> entry = entries.next();
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Builds every shard in turn and writes the finished filter to channel, which is not closed.
+     * The temporary files are deleted as their shards are written.
+     *
+     * @param timeoutMs
+     *            time allowed for the seed searches of all shards together
+     */
+    public void build(WritableByteChannel channel, long timeoutMs) throws IOException,
+            TimeoutException {
+        if (built) {
+            throw new IllegalStateException("Filter has already been built");
+        }
+        built = true;
+
+        for (DataOutputStream out: bucketOutputs) {
+            out.close();
+        }
+
+        long now = System.currentTimeMillis();
+        long deadline = timeoutMs < Long.MAX_VALUE - now ? now + timeoutMs : Long.MAX_VALUE;
+
+        // Every shard's size follows from its key count, so the directory can go out first
+        int[] shardMs = new int[bucketFiles.length];
+        long[] recordSizes = new long[bucketFiles.length];
+        for (int i = 0; i < bucketFiles.length; i++) {
+            shardMs[i] = Math.max(k, (int) Math.ceil(tableSizeRatio * bucketCounts[i]));
+            if (PackedBits.words(shardMs[i], q) > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Shard " + i + " too large (m=" + shardMs[i]
+                                                + "); use more shards");
+            }
+            recordSizes[i] = header(shardMs[i], 0).getFileSize();
+        }
+        ShardedFilterFormat.writeHeader(ShardedFilterFormat.layout(recordSizes), channel);
+
+        try {
+            for (int i = 0; i < bucketFiles.length; i++) {
+                buildShard(i, shardMs[i], deadline, channel);
+                ShardedFilterFormat.pad(recordSizes[i], channel);
+                bucketFiles[i].delete();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void buildShard(int shard, final int m, long deadline, WritableByteChannel channel)
+            throws IOException, TimeoutException {
+        int n = bucketCounts[shard];
+        final long[] fingerprints = new long[2 * n];
+        final long[] values = new long[n * tableEntryWords];
+        FileInputStream file = new FileInputStream(bucketFiles[shard]);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file,
+                                                                              SPILL_BUFFER_SIZE))) {
+            for (int i = 0; i < n; i++) {
+                fingerprints[2 * i] = in.readLong();
+                fingerprints[2 * i + 1] = in.readLong();
+                for (int w = 0; w < tableEntryWords; w++) {
+                    values[i * tableEntryWords + w] = in.readLong();
+                }
+            }
+        }
+
+        checkDistinct(fingerprints, n);
+
+        TableBuilder builder = new TableBuilder(n, m, k, q) {
+
+            @Override
+            protected void neighborhood(int key, long hashSeed, int[] neighborhood) {
+                hashFunction.hash(fingerprints[2 * key], fingerprints[2 * key + 1], hashSeed, m,
+                                  neighborhood, null);
+            }
+
+            @Override
+            protected void entry(int key, long hashSeed, int tau, long[] entry) {
+                hashFunction.hash(fingerprints[2 * key], fingerprints[2 * key + 1], hashSeed, m,
+                                  null, entry); // mask only
+                entry[tableEntryWords - 1] &= lastWordMask;
+                for (int w = 0; w < tableEntryWords; w++) {
+                    entry[w] ^= values[key * tableEntryWords + w];
+                }
+            }
+        };
+        long[] words = builder.build(Long.MIN_VALUE, deadline, "shard " + shard);
+
+        FilterFormat.write(header(m, builder.getHashSeed()), new HeapTable(words), channel);
+    }
+
+    /**
+     * Fails if two of the n fingerprints are equal: their keys would have identical neighborhoods
+     * under every seed.
+     */
+    private static void checkDistinct(long[] fingerprints, int n) {
+        long[] firstHalves = new long[n];
+        for (int i = 0; i < n; i++) {
+            firstHalves[i] = fingerprints[2 * i];
+        }
+        Arrays.sort(firstHalves);
+
+        for (int i = 1; i < n; i++) {
+            if (firstHalves[i] != firstHalves[i - 1]) {
+                continue;
+            }
+
+            // Rare enough (or a genuine duplicate) that a scan for the full fingerprints will do
+            long firstHalf = firstHalves[i];
+            Set<Long> secondHalves = new HashSet<Long>();
+            for (int j = 0; j < n; j++) {
+                if (fingerprints[2 * j] == firstHalf
+                    && secondHalves.add(fingerprints[2 * j + 1]) == false) {
+                    throw new IllegalArgumentException("Two keys have the same fingerprint"
+                                                       + " (duplicate key, or keys the key funnel"
+                                                       + " doesn't tell apart)");
+                }
+            }
+            while (i + 1 < n && firstHalves[i + 1] == firstHalf) {
+                i++;
+            }
+        }
+    }
+
+    private FilterFormat.Header header(int m, long hashSeed) {
+        return new FilterFormat.Header(HashAlgorithm.MURMUR3_128.getId(), valueCodec.getId(),
+                                       valueCodec.getBitWidth(), keyFunnel.getId(), m, k, q,
+                                       (int) PackedBits.words(m, q), hashSeed);
+    }
+
+    /**
+     * Deletes the temporary files (build does this itself once done).
+     */
+    @Override
+    public void close() {
+        built = true;
+        for (int i = 0; i < bucketFiles.length; i++) {
+            if (bucketOutputs[i] != null) {
+                try {
+                    bucketOutputs[i].close();
+                } catch (IOException e) {
+                    // Nothing worth reporting; the file is deleted anyway
+                }
+            }
+            if (bucketFiles[i] != null) {
+                bucketFiles[i].delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+/**
+ * Converts values to and from the bits of a table entry. An entry is handed over as little-endian
+ * 64-bit words; a codec uses its low {@link #getBitWidth()} bits and the filter guarantees every
+ * entry bit above those is zero for members, so the spare bits of an entry (q minus the bit width)
+ * are what detects non-members.
+ * <p>
+ * {@link ValueCodecs} has fixed-width codecs for primitives, enums, byte arrays and strings, plus a
+ * Kryo-based fallback for arbitrary objects.
+ * <p>
+ * A filter decodes on whichever threads call it, so implementations must be safe for concurrent
+ * use.
+ */
+public interface ValueCodec<V> {
+
+    /**
+     * @return identifier recorded in filter files so a filter is only read back with the codec it
+     *         was written with; 0-127 are reserved for the codecs in {@link ValueCodecs}. The id
+     *         names a kind of codec, not its parameters; files also record {@link #getBitWidth()},
+     *         which is what tells apart most codecs of one kind.
+     */
+    int getId();
+
+    /**
+     * @return number of low entry bits this codec uses
+     */
+    int getBitWidth();
+
+    /**
+     * Encodes value into the low {@link #getBitWidth()} bits of entry, which is all zero on entry.
+     *
+     * @throws IllegalArgumentException
+     *             if value can't be represented
+     */
+    void encode(V value, long[] entry);
+
+    /**
+     * Decodes an entry whose bits above {@link #getBitWidth()} are known to be zero.
+     *
+     * @return the value, or null if the bits aren't a valid encoding (i.e. the key looked up was
+     *         not a member)
+     */
+    V decode(long[] entry);
+}
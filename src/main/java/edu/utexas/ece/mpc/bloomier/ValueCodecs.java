@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import java.nio.charset.Charset;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Built-in {@link ValueCodec}s. The fixed-width codecs store exactly as many bits as the value type
+ * needs and decode with plain bit operations (boxed primitives may still be allocated by
+ * autoboxing). Kryo is available as a fallback for arbitrary types, at the cost of wasted bits and
+ * considerably slower encoding and decoding.
+ */
+public final class ValueCodecs {
+    static final int KRYO_ID = 0;
+    static final int LONG_ID = 1;
+    static final int INT_ID = 2;
+    static final int SHORT_ID = 3;
+    static final int BYTE_ID = 4;
+    static final int BOOLEAN_ID = 5;
+    static final int DOUBLE_ID = 6;
+    static final int FLOAT_ID = 7;
+    static final int ENUM_ID = 8;
+    static final int BYTE_ARRAY_ID = 9;
+    static final int UTF8_STRING_ID = 10;
+    static final int BOUNDED_INT_ID = 11;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ValueCodecs() {
+    }
+
+    public static ValueCodec<Long> longs() {
+        return new PrimitiveCodec<Long>(LONG_ID, Long.SIZE) {
+            @Override
+            long toBits(Long value) {
+                return value;
+            }
+
+            @Override
+            Long fromBits(long bits) {
+                return bits;
+            }
+        };
+    }
+
+    public static ValueCodec<Integer> ints() {
+        return new PrimitiveCodec<Integer>(INT_ID, Integer.SIZE) {
+            @Override
+            long toBits(Integer value) {
+                return value & 0xffffffffL;
+            }
+
+            @Override
+            Integer fromBits(long bits) {
+                return (int) bits;
+            }
+        };
+    }
+
+    public static ValueCodec<Short> shorts() {
+        return new PrimitiveCodec<Short>(SHORT_ID, Short.SIZE) {
+            @Override
+            long toBits(Short value) {
+                return value & 0xffffL;
+            }
+
+            @Override
+            Short fromBits(long bits) {
+                return (short) bits;
+            }
+        };
+    }
+
+    public static ValueCodec<Byte> bytes() {
+        return new PrimitiveCodec<Byte>(BYTE_ID, Byte.SIZE) {
+            @Override
+            long toBits(Byte value) {
+                return value & 0xffL;
+            }
+
+            @Override
+            Byte fromBits(long bits) {
+                return (byte) bits;
+            }
+        };
+    }
+
+    public static ValueCodec<Boolean> booleans() {
+        return new PrimitiveCodec<Boolean>(BOOLEAN_ID, 1) {
+            @Override
+            long toBits(Boolean value) {
+                return value ? 1 : 0;
+            }
+
+            @Override
+            Boolean fromBits(long bits) {
+                return bits != 0;
+            }
+        };
+    }
+
+    public static ValueCodec<Double> doubles() {
+        return new PrimitiveCodec<Double>(DOUBLE_ID, Long.SIZE) {
+            @Override
+            long toBits(Double value) {
+                return Double.doubleToRawLongBits(value);
+            }
+
+            @Override
+            Double fromBits(long bits) {
+                return Double.longBitsToDouble(bits);
+            }
+        };
+    }
+
+    public static ValueCodec<Float> floats() {
+        return new PrimitiveCodec<Float>(FLOAT_ID, Float.SIZE) {
+            @Override
+            long toBits(Float value) {
+                return Float.floatToRawIntBits(value) & 0xffffffffL;
+            }
+
+            @Override
+            Float fromBits(long bits) {
+                return Float.intBitsToFloat((int) bits);
+            }
+        };
+    }
+
+    /**
+     * Stores the constant's ordinal in just enough bits to tell the constants apart.
+     */
+    public static <E extends Enum<E>> ValueCodec<E> enums(Class<E> enumClass) {
+        final E[] constants = enumClass.getEnumConstants();
+        int bitWidth = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(constants.length - 1));
+
+        return new PrimitiveCodec<E>(ENUM_ID, bitWidth) {
+            @Override
+            long toBits(E value) {
+                return value.ordinal();
+            }
+
+            @Override
+            E fromBits(long bits) {
+                return bits < constants.length ? constants[(int) bits] : null;
+            }
+        };
+    }
+
+    /**
+     * Stores ints in [0, bound) in just enough bits to tell them apart. Decoded bits of bound or
+     * more are rejected as a non-member.
+     */
+    public static ValueCodec<Integer> boundedInts(final int bound) {
+        if (bound < 1) {
+            throw new IllegalArgumentException("Bound must be positive (was " + bound + ")");
+        }
+        int bitWidth = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(bound - 1));
+
+        return new PrimitiveCodec<Integer>(BOUNDED_INT_ID, bitWidth) {
+            @Override
+            long toBits(Integer value) {
+                if (value < 0 || value >= bound) {
+                    throw new IllegalArgumentException("Value " + value + " not in [0," + bound
+                                                       + ")");
+                }
+                return value;
+            }
+
+            @Override
+            Integer fromBits(long bits) {
+                return bits < bound ? (int) bits : null;
+            }
+        };
+    }
+
+    /**
+     * Stores arrays of up to maxLength (at most 255) bytes as a length byte followed by the bytes.
+     */
+    public static ValueCodec<byte[]> byteArrays(int maxLength) {
+        return new ByteArrayCodec<byte[]>(BYTE_ARRAY_ID, maxLength) {
+            @Override
+            byte[] toBytes(byte[] value) {
+                return value;
+            }
+
+            @Override
+            byte[] fromBytes(byte[] bytes) {
+                return bytes;
+            }
+        };
+    }
+
+    /**
+     * Stores strings whose UTF-8 encoding takes up to maxBytes (at most 255) bytes as a length byte
+     * followed by the encoding.
+     */
+    public static ValueCodec<String> utf8Strings(int maxBytes) {
+        return new ByteArrayCodec<String>(UTF8_STRING_ID, maxBytes) {
+            @Override
+            byte[] toBytes(String value) {
+                return value.getBytes(UTF8);
+            }
+
+            @Override
+            String fromBytes(byte[] bytes) {
+                return new String(bytes, UTF8);
+            }
+        };
+    }
+
+    /**
+     * Serializes values of any class with Kryo into up to maxBytes bytes. Kryo's variable-length
+     * output means entries must be sized for the largest value; any unused trailing bytes still
+     * help detect non-members.
+     */
+    public static <V> ValueCodec<V> kryo(Class<V> valueClass, int maxBytes) {
+        return new KryoCodec<V>(valueClass, maxBytes);
+    }
+
+    private static abstract class PrimitiveCodec<V> implements ValueCodec<V> {
+        private final int id;
+        private final int bitWidth;
+        private final long valueMask;
+
+        PrimitiveCodec(int id, int bitWidth) {
+            this.id = id;
+            this.bitWidth = bitWidth;
+            this.valueMask = bitWidth == Long.SIZE ? -1L : (1L << bitWidth) - 1;
+        }
+
+        abstract long toBits(V value);
+
+        abstract V fromBits(long bits);
+
+        @Override
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public int getBitWidth() {
+            return bitWidth;
+        }
+
+        @Override
+        public void encode(V value, long[] entry) {
+            entry[0] = toBits(value) & valueMask;
+        }
+
+        @Override
+        public V decode(long[] entry) {
+            return fromBits(entry[0] & valueMask);
+        }
+    }
+
+    private static abstract class ByteArrayCodec<V> implements ValueCodec<V> {
+        private final int id;
+        private final int maxLength;
+
+        ByteArrayCodec(int id, int maxLength) {
+            if (maxLength < 0 || maxLength > 0xff) {
+                throw new IllegalArgumentException("Maximum length must be in [0,255] (was "
+                                                   + maxLength + ")");
+            }
+
+            this.id = id;
+            this.maxLength = maxLength;
+        }
+
+        abstract byte[] toBytes(V value);
+
+        abstract V fromBytes(byte[] bytes);
+
+        @Override
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public int getBitWidth() {
+            return (1 + maxLength) * Byte.SIZE;
+        }
+
+        @Override
+        public void encode(V value, long[] entry) {
+            byte[] bytes = toBytes(value);
+            if (bytes.length > maxLength) {
+                throw new IllegalArgumentException("Value takes " + bytes.length
+                                                   + " bytes (at most " + maxLength + " fit)");
+            }
+
+            entry[0] = bytes.length;
+            for (int i = 0; i < bytes.length; i++) {
+                entry[(i + 1) / 8] |= (bytes[i] & 0xffL) << ((i + 1) % 8 * Byte.SIZE);
+            }
+        }
+
+        @Override
+        public V decode(long[] entry) {
+            int length = (int) (entry[0] & 0xff);
+            if (length > maxLength) {
+                return null;
+            }
+
+            // Bytes past the length are padding, so they must be zero
+            for (int i = length + 1; i <= maxLength; i++) {
+                if ((entry[i / 8] >>> (i % 8 * Byte.SIZE) & 0xff) != 0) {
+                    return null;
+                }
+            }
+
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (entry[(i + 1) / 8] >>> ((i + 1) % 8 * Byte.SIZE));
+            }
+            return fromBytes(bytes);
+        }
+    }
+
+    private static class KryoCodec<V> implements ValueCodec<V> {
+        private final Class<V> valueClass;
+        private final int maxBytes;
+
+        // Kryo instances aren't thread-safe, so every thread gets its own
+        private final ThreadLocal<KryoState> state = new ThreadLocal<KryoState>() {
+            @Override
+            protected KryoState initialValue() {
+                return new KryoState(maxBytes);
+            }
+        };
+
+        KryoCodec(Class<V> valueClass, int maxBytes) {
+            this.valueClass = valueClass;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int getId() {
+            return KRYO_ID;
+        }
+
+        @Override
+        public int getBitWidth() {
+            return maxBytes * Byte.SIZE;
+        }
+
+        @Override
+        public void encode(V value, long[] entry) {
+            KryoState state = this.state.get();
+            Output output = state.output;
+            output.clear();
+            state.kryo.writeObject(output, value);
+            if (output.position() > maxBytes) {
+                throw new IllegalArgumentException("Encoded values are too big to fit in table (q="
+                                                   + maxBytes * Byte.SIZE + "; must be >= "
+                                                   + output.position() * Byte.SIZE + ")");
+            }
+
+            byte[] serializedValue = output.getBuffer();
+            for (int i = 0; i < output.position(); i++) {
+                entry[i / 8] |= (serializedValue[i] & 0xffL) << (i % 8 * Byte.SIZE);
+            }
+        }
+
+        @Override
+        public V decode(long[] entry) {
+            KryoState state = this.state.get();
+            Input input = state.input;
+            byte[] inputBuffer = state.inputBuffer;
+            for (int i = 0; i < maxBytes; i++) {
+                inputBuffer[i] = (byte) (entry[i / 8] >>> (i % 8 * Byte.SIZE));
+            }
+            input.setBuffer(inputBuffer);
+
+            V result;
+            try {
+                result = state.kryo.readObject(input, valueClass);
+            } catch (KryoException e) {
+                // Garbage that doesn't even parse (e.g. runs past the entry) can only be a non-member
+                return null;
+            }
+
+            // Check leftovers (all must be zero or this is a detected false positive)
+            for (int i = input.position(); i < maxBytes; i++) {
+                if (inputBuffer[i] != 0) {
+                    return null;
+                }
+            }
+
+            return result;
+        }
+    }
+
+    private static class KryoState {
+        final Kryo kryo = new Kryo();
+        final Output output;
+        final Input input = new Input();
+        final byte[] inputBuffer;
+
+        KryoState(int maxBytes) {
+            output = new Output(maxBytes, -1);
+            inputBuffer = new byte[maxBytes];
+        }
+    }
+}
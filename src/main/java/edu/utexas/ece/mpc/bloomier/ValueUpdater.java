@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+/**
+ * Computes a key's new value from its current one, for
+ * {@link MutableBloomierFilter#compute(Object, ValueUpdater)}. May be called more than once per
+ * update when other threads update the same key at the same time, so it should have no side
+ * effects.
+ */
+public interface ValueUpdater<V> {
+
+    V update(V value);
+}
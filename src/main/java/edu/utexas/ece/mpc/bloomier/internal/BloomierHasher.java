@@ -2,137 +2,140 @@
  * Copyright (c) 2011, The University of Texas at Austin
  * Produced in the Mobile and Pervasive Computing Lab
  * Originally written by Evan Grim
- * 
+ *
  * All rights reserved.
- * 
+ *
  * See included LICENSE.txt for licensing details
- * 
+ *
  */
 
 package edu.utexas.ece.mpc.bloomier.internal;
 
-import java.io.DataInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayDeque;
-import java.util.Queue;
+import edu.utexas.ece.mpc.bloomier.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.KeyFunnels;
 
 public class BloomierHasher<K> {
-    // TODO: memoize/cache hashes
-    private long hashSeed;
+    private final long hashSeed;
 
-    private int m;
-    private int k;
-    private int q;
+    private final int m;
+    private final int k;
+    private final int q;
+
+    private final HashFunction hashFunction;
+    private final KeyFunnel<? super K> keyFunnel;
 
     public BloomierHasher(long hashSeed, int m, int k, int q) {
+        this(hashSeed, m, k, q, Murmur3HashFunction.INSTANCE);
+    }
+
+    public BloomierHasher(long hashSeed, int m, int k, int q, HashFunction hashFunction) {
+        this(hashSeed, m, k, q, hashFunction, KeyFunnels.hashCodes());
+    }
+
+    public BloomierHasher(long hashSeed, int m, int k, int q, HashFunction hashFunction,
+                          KeyFunnel<? super K> keyFunnel) {
+        if (m < k) {
+            throw new IllegalArgumentException("Table size (m=" + m
+                                               + ") must be at least the neighborhood size (k=" + k
+                                               + ")");
+        }
+
         this.hashSeed = hashSeed;
         this.m = m;
         this.k = k;
         this.q = q;
+        this.hashFunction = hashFunction;
+        this.keyFunnel = keyFunnel;
     }
 
-    public int[] getNeighborhood(K key) {
-    	DataInputStream stream = null;
-    	final int[] hashes = new int[k];
-    	try {
-	        stream = new DataInputStream(new HashInputStream(key));
-	
-	        for (int i = 0; i < hashes.length; i++) {
-	            try {
-	                hashes[i] = Math.abs(stream.readInt()) % m; // Massage value to be in [0,m)
-	            } catch (IOException e) {
-	                // Shouldn't be possible
-	                throw new IllegalStateException("Hash generation failed", e);
-	            }
-	        }
-    	} finally {
-    		if(stream != null) {
-    			try
-				{
-					stream.close();
-				} catch (IOException e)
-				{
-					// just ignore failing to close
-				}
-    		}
-    	}
-
-        return hashes;
+    /**
+     * Computes the neighborhood and mask of a key in a single pass without allocating. Either array
+     * may be null if that output isn't needed.
+     *
+     * @param neighborhood
+     *            receives the k neighborhood indices (must have length k)
+     * @param mask
+     *            receives as many little-endian mask words as it has room for
+     */
+    public void hash(K key, int[] neighborhood, long[] mask) {
+        if (keyFunnel == KeyFunnels.hashCodes()) {
+            // Same result as funnelling the hash code (and the only form MD5 tables were built with)
+            hashFunction.hash(key.hashCode(), hashSeed, m, neighborhood, mask);
+        } else {
+            hashFunction.hash(key, keyFunnel, hashSeed, m, neighborhood, mask);
+        }
     }
 
-    public byte[] getM(K key) {
-        DataInputStream stream = null;
-        byte[] hashes = new byte[q / Byte.SIZE + 1];
-
-        try {
-	        stream = new DataInputStream(new HashInputStream(key));
-	
-	        for (int i = 0; i < hashes.length; i++) {
-	            try {
-	                hashes[i] = stream.readByte();
-	            } catch (IOException e) {
-	                // Shouldn't be possible
-	                throw new IllegalStateException("Hash generation failed", e);
-	            }
-	        }
-        } finally {
-        	if(stream != null) {
-        		try
-				{
-					stream.close();
-				} catch (IOException e)
-				{
-					// just ignore
-				}
-        	}
+    /**
+     * Computes the band and mask of a key in a ribbon table (see {@link Ribbon}) without
+     * allocating. Ribbon tables are always hashed with {@link Murmur3HashFunction}.
+     *
+     * @param start
+     *            receives the band's first entry in start[0]
+     * @return the band's coefficients, bit j set if entry start[0] + j is in the band
+     */
+    public long band(K key, int[] start, long[] mask) {
+        if (keyFunnel == KeyFunnels.hashCodes()) {
+            return Murmur3HashFunction.INSTANCE.band(key.hashCode(), hashSeed, m, start, mask);
         }
+        return Murmur3HashFunction.INSTANCE.band(key, keyFunnel, hashSeed, m, start, mask);
+    }
 
-        return hashes;
+    public int[] getNeighborhood(K key) {
+        int[] neighborhood = new int[k];
+        hash(key, neighborhood, null);
+        return neighborhood;
     }
 
-    private class HashInputStream extends InputStream {
-        private byte[] data;
-        private long salt;
-        private MessageDigest md;
+    /**
+     * @return the key's q-bit mask as ceil(q / 8) little-endian bytes, bits past q zero
+     */
+    public byte[] getM(K key) {
+        long[] words = new long[PackedBits.entryWords(q)];
+        hash(key, null, words);
+        words[words.length - 1] &= PackedBits.lastWordMask(q);
 
-        private Queue<Byte> buffer;
+        byte[] mask = new byte[(q + Byte.SIZE - 1) / Byte.SIZE];
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = (byte) (words[i / 8] >>> (i % 8 * Byte.SIZE));
+        }
+        return mask;
+    }
 
-        public HashInputStream(K key) {
-            this.data = ByteBuffer.allocate(Integer.SIZE / Byte.SIZE).putInt(key.hashCode())
-                                  .array(); // TODO: use .toString instead of hashCode to get a better hash range
-            this.salt = hashSeed;
+    public long getHashSeed() {
+        return hashSeed;
+    }
 
-            try {
-                md = MessageDigest.getInstance("MD5");
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException("Missing required hashing algorithm", e);
-            }
+    public HashFunction getHashFunction() {
+        return hashFunction;
+    }
 
-            buffer = new ArrayDeque<Byte>(md.getDigestLength());
-            topOff();
-        }
+    public KeyFunnel<? super K> getKeyFunnel() {
+        return keyFunnel;
+    }
 
-        @Override
-        public int read() {
-            if (buffer.isEmpty()) {
-                topOff();
-            }
-            return buffer.remove() - Byte.MIN_VALUE;
-        }
+    /**
+     * Reports whether neighborhood[i] repeats an earlier index. Only legacy hash functions produce
+     * repeats; XORing a repeated entry twice would cancel it out, so repeats must be skipped.
+     */
+    public boolean isDuplicate(int[] neighborhood, int i) {
+        return isDuplicate(neighborhood, 0, i);
+    }
 
-        private void topOff() {
-            md.update(ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(salt).array());
-            md.update(data);
+    /**
+     * Reports whether neighborhoods[offset + i] repeats an earlier index of the neighborhood
+     * starting at offset.
+     */
+    public boolean isDuplicate(int[] neighborhoods, int offset, int i) {
+        if (hashFunction.hasDistinctNeighborhoods()) {
+            return false;
+        }
 
-            for (byte b: md.digest()) {
-                buffer.add(b);
+        for (int j = 0; j < i; j++) {
+            if (neighborhoods[offset + j] == neighborhoods[offset + i]) {
+                return true;
             }
-
-            salt++;
         }
+        return false;
     }
-}
\ No newline at end of file
+}
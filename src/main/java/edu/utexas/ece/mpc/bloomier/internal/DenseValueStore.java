@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Values in an array of one element per occupied slot, indexed by the slot's rank among the
+ * occupied slots.
+ */
+public class DenseValueStore<V> extends ValueStore<V> {
+    private final RankIndex occupied;
+    private final AtomicReferenceArray<V> values;
+
+    public DenseValueStore(RankIndex occupied) {
+        this.occupied = occupied;
+        values = new AtomicReferenceArray<V>(occupied.count());
+    }
+
+    @Override
+    public V get(int slot) {
+        return values.get(occupied.rank(slot));
+    }
+
+    @Override
+    public void set(int slot, V value) {
+        values.lazySet(occupied.rank(slot), value);
+    }
+
+    @Override
+    public boolean compareAndSet(int slot, V expect, V update) {
+        int index = occupied.rank(slot);
+        for (;;) {
+            V current = values.get(index);
+            if (Objects.equals(current, expect) == false) {
+                return false;
+            }
+            // The array compares by identity, so a failure may only mean an equal value was set
+            if (values.compareAndSet(index, current, update)) {
+                return true;
+            }
+        }
+    }
+}
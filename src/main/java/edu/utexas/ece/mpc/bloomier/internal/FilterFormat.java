@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The binary file format of an immutable filter. All values are little-endian.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic ("BLMF")
+ *      4     2  format version
+ *      6     1  hash algorithm id
+ *      7     1  value codec id
+ *      8     4  m
+ *     12     4  k
+ *     16     4  q
+ *     20     4  table size in 64-bit words
+ *     24     8  hash seed
+ *     32     4  checksum block size in bytes
+ *     36     4  key funnel id
+ *     40     4  CRC32 of the rest of the header (bytes 0-39 and 44-47)
+ *     44     4  value codec bit width
+ *     48     -  table (see {@link Table}); starts 8-byte aligned so it can be mapped in place
+ *      -     -  CRC32 of each checksum block of the table, 4 bytes apiece
+ * </pre>
+ *
+ * The table holds m entries of exactly q bits, bit-packed (see {@link PackedBits}). The value
+ * codec id only names a codec family, so the codec's bit width is recorded too: codecs of one
+ * family built with different parameters (byte arrays of different lengths, say) mostly differ in
+ * it.
+ */
+public final class FilterFormat {
+    public static final int MAGIC = 'B' | 'L' << 8 | 'M' << 16 | 'F' << 24;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 48;
+    public static final int BLOCK_SIZE = 1 << 20;
+
+    private static final int HEADER_CHECKSUM_OFFSET = 40;
+    private static final int VALUE_BIT_WIDTH_OFFSET = 44;
+
+    private FilterFormat() {
+    }
+
+    /**
+     * Everything in a filter file but its table.
+     */
+    public static class Header {
+        private final int hashAlgorithmId;
+        private final int valueCodecId;
+        private final int valueBitWidth;
+        private final int keyFunnelId;
+        private final int m;
+        private final int k;
+        private final int q;
+        private final int tableSize;
+        private final long hashSeed;
+        private final int blockSize;
+
+        public Header(int hashAlgorithmId, int valueCodecId, int valueBitWidth, int keyFunnelId,
+                      int m, int k, int q, int tableSize, long hashSeed) {
+            this(hashAlgorithmId, valueCodecId, valueBitWidth, keyFunnelId, m, k, q, tableSize,
+                 hashSeed, BLOCK_SIZE);
+        }
+
+        private Header(int hashAlgorithmId, int valueCodecId, int valueBitWidth, int keyFunnelId,
+                       int m, int k, int q, int tableSize, long hashSeed, int blockSize) {
+            this.hashAlgorithmId = hashAlgorithmId;
+            this.valueCodecId = valueCodecId;
+            this.valueBitWidth = valueBitWidth;
+            this.keyFunnelId = keyFunnelId;
+            this.m = m;
+            this.k = k;
+            this.q = q;
+            this.tableSize = tableSize;
+            this.hashSeed = hashSeed;
+            this.blockSize = blockSize;
+        }
+
+        public int getHashAlgorithmId() {
+            return hashAlgorithmId;
+        }
+
+        public int getValueCodecId() {
+            return valueCodecId;
+        }
+
+        /**
+         * @return bit width of the value codec the filter was written with
+         */
+        public int getValueBitWidth() {
+            return valueBitWidth;
+        }
+
+        public int getKeyFunnelId() {
+            return keyFunnelId;
+        }
+
+        public int getM() {
+            return m;
+        }
+
+        public int getK() {
+            return k;
+        }
+
+        public int getQ() {
+            return q;
+        }
+
+        public int getTableSize() {
+            return tableSize;
+        }
+
+        public long getHashSeed() {
+            return hashSeed;
+        }
+
+        /**
+         * @return size in bytes of the whole filter file (header, table and checksums)
+         */
+        public long getFileSize() {
+            return HEADER_SIZE + getTableBytes() + getBlockCount() * (Integer.SIZE / Byte.SIZE);
+        }
+
+        long getTableBytes() {
+            return (long) tableSize * (Long.SIZE / Byte.SIZE);
+        }
+
+        int getBlockCount() {
+            return (int) ((getTableBytes() + blockSize - 1) / blockSize);
+        }
+    }
+
+    /**
+     * Writes a complete filter file.
+     */
+    public static void write(Header header, Table table, WritableByteChannel channel)
+            throws IOException {
+        if (table.size() != header.tableSize) {
+            throw new IllegalArgumentException("Table has " + table.size() + " words (header says "
+                                               + header.tableSize + ")");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.put((byte) header.hashAlgorithmId);
+        buffer.put((byte) header.valueCodecId);
+        buffer.putInt(header.m);
+        buffer.putInt(header.k);
+        buffer.putInt(header.q);
+        buffer.putInt(header.tableSize);
+        buffer.putLong(header.hashSeed);
+        buffer.putInt(header.blockSize);
+        buffer.putInt(header.keyFunnelId);
+        buffer.putInt(0); // checksum, filled in below
+        buffer.putInt(header.valueBitWidth);
+        buffer.putInt(HEADER_CHECKSUM_OFFSET, headerChecksum(buffer.array()));
+        Table.drain(buffer, channel);
+
+        ChecksummingChannel checksummingChannel = new ChecksummingChannel(channel, header);
+        table.writeTo(checksummingChannel);
+
+        ByteBuffer checksums = ByteBuffer.allocate(header.getBlockCount() * (Integer.SIZE / Byte.SIZE))
+                                         .order(ByteOrder.LITTLE_ENDIAN);
+        checksums.asIntBuffer().put(checksummingChannel.finish());
+        while (checksums.hasRemaining()) {
+            channel.write(checksums);
+        }
+    }
+
+    /**
+     * Reads and validates the header at the start of a filter file.
+     */
+    public static Header readHeader(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer);
+        return parseHeader(buffer);
+    }
+
+    /**
+     * Reads and validates the header of a filter file stored at position of channel.
+     */
+    public static Header readHeader(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated filter header");
+            }
+        }
+        return parseHeader(buffer);
+    }
+
+    /**
+     * Reads the table that follows a header onto the heap, verifying its checksums.
+     */
+    public static HeapTable readTable(Header header, ReadableByteChannel channel)
+            throws IOException {
+        long[] words = new long[header.tableSize];
+        int[] checksums = new int[header.getBlockCount()];
+
+        ByteBuffer buffer = ByteBuffer.allocate(header.blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        LongBuffer view = buffer.asLongBuffer();
+        long remaining = header.getTableBytes();
+        for (int block = 0; remaining > 0; block++) {
+            buffer.clear();
+            buffer.limit((int) Math.min(header.blockSize, remaining));
+            readFully(channel, buffer);
+            checksums[block] = checksum(buffer.array(), 0, buffer.limit());
+
+            view.clear();
+            view.get(words, (int) ((header.getTableBytes() - remaining) / 8), buffer.limit() / 8);
+            remaining -= buffer.limit();
+        }
+
+        verifyChecksums(checksums, readChecksums(header, channel));
+
+        return new HeapTable(words);
+    }
+
+    /**
+     * Maps the table of a filter file stored at position of channel.
+     *
+     * @param verify
+     *            whether to verify the table's checksums first, which means reading the whole table
+     *            once
+     */
+    public static MappedTable mapTable(Header header, FileChannel channel, long position,
+                                       boolean verify) throws IOException {
+        long tablePosition = position + HEADER_SIZE;
+
+        if (verify) {
+            int[] checksums = new int[header.getBlockCount()];
+            ByteBuffer buffer = ByteBuffer.allocate(header.blockSize);
+            for (int block = 0; block < checksums.length; block++) {
+                long offset = (long) block * header.blockSize;
+                buffer.clear();
+                buffer.limit((int) Math.min(header.blockSize, header.getTableBytes() - offset));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, tablePosition + offset + buffer.position()) < 0) {
+                        throw new EOFException("Truncated filter table");
+                    }
+                }
+                checksums[block] = checksum(buffer.array(), 0, buffer.limit());
+            }
+
+            channel.position(tablePosition + header.getTableBytes());
+            verifyChecksums(checksums, readChecksums(header, channel));
+        }
+
+        return new MappedTable(channel, tablePosition, header.tableSize);
+    }
+
+    private static Header parseHeader(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a bloomier filter file (bad magic number)");
+        }
+        int version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported filter file version " + version + " (expected "
+                                  + VERSION + ")");
+        }
+        if (buffer.getInt(HEADER_CHECKSUM_OFFSET) != headerChecksum(buffer.array())) {
+            throw new IOException("Filter header checksum mismatch");
+        }
+
+        int hashAlgorithmId = buffer.get() & 0xff;
+        int valueCodecId = buffer.get() & 0xff;
+        int m = buffer.getInt();
+        int k = buffer.getInt();
+        int q = buffer.getInt();
+        int tableSize = buffer.getInt();
+        long hashSeed = buffer.getLong();
+        int blockSize = buffer.getInt();
+        if (blockSize <= 0 || blockSize % (Long.SIZE / Byte.SIZE) != 0) {
+            throw new IOException("Invalid checksum block size " + blockSize);
+        }
+        int keyFunnelId = buffer.getInt();
+        int valueBitWidth = buffer.getInt(VALUE_BIT_WIDTH_OFFSET);
+
+        return new Header(hashAlgorithmId, valueCodecId, valueBitWidth, keyFunnelId, m, k, q,
+                          tableSize, hashSeed, blockSize);
+    }
+
+    private static int[] readChecksums(Header header, ReadableByteChannel channel)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(header.getBlockCount() * (Integer.SIZE / Byte.SIZE))
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer);
+        buffer.flip();
+
+        int[] checksums = new int[header.getBlockCount()];
+        buffer.asIntBuffer().get(checksums);
+        return checksums;
+    }
+
+    private static void verifyChecksums(int[] computed, int[] stored) throws IOException {
+        for (int i = 0; i < computed.length; i++) {
+            if (computed[i] != stored[i]) {
+                throw new IOException("Filter table checksum mismatch in block " + i);
+            }
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated filter file");
+            }
+        }
+    }
+
+    private static int headerChecksum(byte[] header) {
+        CRC32 crc = new CRC32();
+        crc.update(header, 0, HEADER_CHECKSUM_OFFSET);
+        crc.update(header, VALUE_BIT_WIDTH_OFFSET, HEADER_SIZE - VALUE_BIT_WIDTH_OFFSET);
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Passes writes through while computing a CRC32 of every block.
+     */
+    private static class ChecksummingChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        private final int blockSize;
+        private final int[] checksums;
+
+        private final CRC32 crc = new CRC32();
+        private int block;
+        private int blockFill;
+        private byte[] copyBuffer;
+
+        ChecksummingChannel(WritableByteChannel channel, Header header) {
+            this.channel = channel;
+            this.blockSize = header.blockSize;
+            this.checksums = new int[header.getBlockCount()];
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int start = source.position();
+            int written = channel.write(source);
+
+            for (int offset = 0; offset < written;) {
+                int length = Math.min(written - offset, blockSize - blockFill);
+                update(source, start + offset, length);
+                offset += length;
+                blockFill += length;
+                if (blockFill == blockSize) {
+                    checksums[block++] = (int) crc.getValue();
+                    crc.reset();
+                    blockFill = 0;
+                }
+            }
+
+            return written;
+        }
+
+        private void update(ByteBuffer source, int position, int length) {
+            if (source.hasArray()) {
+                crc.update(source.array(), source.arrayOffset() + position, length);
+                return;
+            }
+
+            // Direct (e.g. mapped) buffers have to be copied out
+            if (copyBuffer == null) {
+                copyBuffer = new byte[Table.TRANSFER_BUFFER_SIZE];
+            }
+            ByteBuffer view = source.duplicate();
+            view.position(position);
+            for (int done = 0; done < length;) {
+                int chunk = Math.min(copyBuffer.length, length - done);
+                view.get(copyBuffer, 0, chunk);
+                crc.update(copyBuffer, 0, chunk);
+                done += chunk;
+            }
+        }
+
+        int[] finish() {
+            if (blockFill > 0) {
+                checksums[block++] = (int) crc.getValue();
+            }
+            return checksums;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import edu.utexas.ece.mpc.bloomier.KeyFunnel;
+
+/**
+ * Strategy used by {@link BloomierHasher} to turn a key into its neighborhood (the k table indices
+ * it touches) and its mask (the pseudo-random bits XORed into its table entry).
+ * <p>
+ * Implementations must be stateless (or at least thread-safe) and must not allocate on the fast
+ * path: both outputs are written into caller-supplied arrays.
+ */
+public interface HashFunction {
+
+    /**
+     * Hashes a key.
+     *
+     * @param keyHash
+     *            hash code of the key being hashed
+     * @param seed
+     *            seed selecting one member of the hash family
+     * @param m
+     *            size of the table; neighborhood indices are in [0,m)
+     * @param neighborhood
+     *            receives the k neighborhood indices (k is its length); may be null to skip
+     * @param mask
+     *            receives the mask as little-endian 64-bit words (as many as its length); may be
+     *            null to skip
+     */
+    void hash(int keyHash, long seed, int m, int[] neighborhood, long[] mask);
+
+    /**
+     * Hashes all 64 bits of a primitive key; otherwise the same as
+     * {@link #hash(int, long, int, int[], long[])}.
+     */
+    void hash(long key, long seed, int m, int[] neighborhood, long[] mask);
+
+    /**
+     * Hashes the bytes keyFunnel feeds for key; otherwise the same as
+     * {@link #hash(int, long, int, int[], long[])}.
+     */
+    <K> void hash(K key, KeyFunnel<? super K> keyFunnel, long seed, int m, int[] neighborhood,
+                  long[] mask);
+
+    /**
+     * @return true if the indices of a neighborhood are guaranteed to be distinct
+     */
+    boolean hasDistinctNeighborhoods();
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A table held in a single long[] on the Java heap. This is where tables are built.
+ */
+public class HeapTable extends Table {
+    private final long[] words;
+
+    public HeapTable(int size) {
+        this(new long[size]);
+    }
+
+    public HeapTable(long[] words) {
+        this.words = words;
+    }
+
+    @Override
+    public long get(int index) {
+        return words[index];
+    }
+
+    @Override
+    public void xorInto(int index, int count, long[] result, int resultOffset) {
+        for (int w = 0; w < count; w++) {
+            result[resultOffset + w] ^= words[index + w];
+        }
+    }
+
+    public void set(int index, long word) {
+        words[index] = word;
+    }
+
+    @Override
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * @return the backing array (not a copy)
+     */
+    public long[] getWords() {
+        return words;
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        LongBuffer view = buffer.asLongBuffer();
+        for (int i = 0; i < words.length; i += view.capacity()) {
+            int length = Math.min(view.capacity(), words.length - i);
+            view.clear();
+            view.put(words, i, length);
+            buffer.limit(length * (Long.SIZE / Byte.SIZE));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
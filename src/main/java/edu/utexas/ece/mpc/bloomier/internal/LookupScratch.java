@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+/**
+ * The arrays a lookup works in. Each filter hands every reading thread its own instance (see
+ * {@link #perThread(int, int)}), so lookups neither allocate nor need locks.
+ */
+public final class LookupScratch {
+    /**
+     * Number of keys a batch lookup hashes before probing the table for all of them. Large enough to
+     * keep plenty of cache misses in flight, small enough for the batch's scratch to stay in L1.
+     */
+    public static final int BATCH_SIZE = 64;
+
+    public final int[] neighborhood;
+    public final long[] words;
+
+    // The neighborhoods and entry words of BATCH_SIZE keys, back to back
+    public final int[] batchNeighborhoods;
+    public final long[] batchWords;
+
+    public LookupScratch(int k, int words) {
+        this.neighborhood = new int[k];
+        this.words = new long[words];
+
+        batchNeighborhoods = new int[BATCH_SIZE * k];
+        batchWords = new long[BATCH_SIZE * words];
+    }
+
+    /**
+     * @return a thread local handing each thread its own scratch for neighborhoods of size k and
+     *         entries of the given number of words
+     */
+    public static ThreadLocal<LookupScratch> perThread(final int k, final int words) {
+        return new ThreadLocal<LookupScratch>() {
+            @Override
+            protected LookupScratch initialValue() {
+                return new LookupScratch(k, words);
+            }
+        };
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A read-only table memory mapped straight from a file, so it is never copied onto the heap and its
+ * pages are shared by every process mapping the same file. A single mapping can't exceed 2 GB, so
+ * larger tables are mapped as several chunks; chunk boundaries fall on word boundaries.
+ */
+public class MappedTable extends Table {
+    private static final int CHUNK_SHIFT = 30; // 1 GB chunks
+    private static final int WORD_SHIFT = 3;
+    private static final int WORDS_PER_CHUNK_SHIFT = CHUNK_SHIFT - WORD_SHIFT;
+    private static final int WORD_IN_CHUNK_MASK = (1 << WORDS_PER_CHUNK_SHIFT) - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final int size;
+
+    /**
+     * Maps size words starting at byte position of channel. The mapping stays valid after channel
+     * is closed.
+     */
+    public MappedTable(FileChannel channel, long position, int size) throws IOException {
+        long length = (long) size << WORD_SHIFT;
+        if (position + length > channel.size()) {
+            throw new IOException("File too short for table (need " + (position + length)
+                                  + " bytes, have " + channel.size() + ")");
+        }
+
+        this.size = size;
+        chunks = new MappedByteBuffer[(int) ((length + (1L << CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            long offset = (long) i << CHUNK_SHIFT;
+            long chunkLength = Math.min(1L << CHUNK_SHIFT, length - offset);
+            chunks[i] = channel.map(MapMode.READ_ONLY, position + offset, chunkLength);
+            chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    @Override
+    public long get(int index) {
+        return chunks[index >>> WORDS_PER_CHUNK_SHIFT].getLong((index & WORD_IN_CHUNK_MASK) << WORD_SHIFT);
+    }
+
+    @Override
+    public void xorInto(int index, int count, long[] result, int resultOffset) {
+        // Entries may straddle chunks, but mostly don't
+        int offset = index & WORD_IN_CHUNK_MASK;
+        if (offset + count > WORD_IN_CHUNK_MASK + 1) {
+            super.xorInto(index, count, result, resultOffset);
+            return;
+        }
+
+        MappedByteBuffer chunk = chunks[index >>> WORDS_PER_CHUNK_SHIFT];
+        for (int w = 0; w < count; w++) {
+            result[resultOffset + w] ^= chunk.getLong((offset + w) << WORD_SHIFT);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Unmaps the table right away rather than whenever the garbage collector gets to it. Reading the
+     * table afterwards can crash the JVM, so only do this once nothing can read it any more. Where
+     * the JVM offers no way to unmap, the mapping is left to the garbage collector.
+     */
+    @Override
+    public void release() {
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] != null) {
+                Unmapper.unmap(chunks[i]);
+                chunks[i] = null;
+            }
+        }
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        for (MappedByteBuffer chunk: chunks) {
+            ByteBuffer buffer = chunk.duplicate();
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
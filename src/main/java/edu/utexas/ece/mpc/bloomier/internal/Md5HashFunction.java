@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import edu.utexas.ece.mpc.bloomier.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.KeySink;
+
+/**
+ * The original MD5-based {@link HashFunction}, kept only so tables produced by earlier releases can
+ * still be read. It is considerably slower than {@link Murmur3HashFunction} and may produce
+ * duplicate neighborhood indices, which callers must dedup.
+ * <p>
+ * The byte stream is MD5(salt || key), MD5(salt + 1 || key), ... (key being the big-endian
+ * bytes of the key's hash code or of a primitive key) with every digest byte
+ * offset by 128, exactly as the former {@code HashInputStream} produced it. Funnelled keys (which
+ * that class never supported) use the funnel's bytes as the key. Both the neighborhood
+ * and the mask are read from the start of that stream, the mask packed little-endian into words.
+ */
+public final class Md5HashFunction implements HashFunction {
+    public static final Md5HashFunction INSTANCE = new Md5HashFunction();
+
+    private Md5HashFunction() {
+    }
+
+    @Override
+    public void hash(int keyHash, long seed, int m, int[] neighborhood, long[] mask) {
+        hash(bigEndian(keyHash, Integer.SIZE / Byte.SIZE), seed, m, neighborhood, mask);
+    }
+
+    @Override
+    public void hash(long key, long seed, int m, int[] neighborhood, long[] mask) {
+        hash(bigEndian(key, Long.SIZE / Byte.SIZE), seed, m, neighborhood, mask);
+    }
+
+    @Override
+    public <K> void hash(K key, KeyFunnel<? super K> keyFunnel, long seed, int m,
+                         int[] neighborhood, long[] mask) {
+        ByteSink sink = new ByteSink();
+        keyFunnel.funnel(key, sink);
+        hash(sink.toByteArray(), seed, m, neighborhood, mask);
+    }
+
+    private static void hash(byte[] data, long seed, int m, int[] neighborhood, long[] mask) {
+        int neighborhoodBytes = neighborhood == null ? 0 : neighborhood.length * 4;
+        int maskBytes = mask == null ? 0 : mask.length * 8;
+        byte[] stream = stream(data, seed, Math.max(neighborhoodBytes, maskBytes));
+
+        if (neighborhood != null) {
+            for (int i = 0; i < neighborhood.length; i++) {
+                int value = (stream[4 * i] & 0xff) << 24 | (stream[4 * i + 1] & 0xff) << 16
+                            | (stream[4 * i + 2] & 0xff) << 8 | (stream[4 * i + 3] & 0xff);
+                neighborhood[i] = Math.abs(value) % m; // Massage value to be in [0,m)
+            }
+        }
+
+        if (mask != null) {
+            for (int i = 0; i < mask.length; i++) {
+                long word = 0;
+                for (int j = 7; j >= 0; j--) {
+                    word = word << Byte.SIZE | (stream[8 * i + j] & 0xff);
+                }
+                mask[i] = word;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasDistinctNeighborhoods() {
+        return false;
+    }
+
+    private static byte[] bigEndian(long value, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (value >>> (Byte.SIZE * (length - 1 - i)));
+        }
+        return bytes;
+    }
+
+    private static byte[] stream(byte[] data, long seed, int length) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Missing required hashing algorithm", e);
+        }
+
+        int digestLength = md.getDigestLength();
+        byte[] stream = new byte[(length + digestLength - 1) / digestLength * digestLength];
+        byte[] input = new byte[Long.SIZE / Byte.SIZE + data.length];
+        System.arraycopy(data, 0, input, Long.SIZE / Byte.SIZE, data.length);
+
+        long salt = seed;
+        for (int offset = 0; offset < stream.length; offset += digestLength) {
+            for (int i = 0; i < 8; i++) {
+                input[i] = (byte) (salt >>> (56 - 8 * i));
+            }
+            byte[] digest = md.digest(input);
+            for (int i = 0; i < digestLength; i++) {
+                stream[offset + i] = (byte) (digest[i] - Byte.MIN_VALUE);
+            }
+            salt++;
+        }
+
+        return stream;
+    }
+
+    private static class ByteSink extends ByteArrayOutputStream implements KeySink {
+        @Override
+        public void putByte(byte b) {
+            write(b);
+        }
+
+        @Override
+        public void putBytes(byte[] bytes, int offset, int length) {
+            write(bytes, offset, length);
+        }
+
+        @Override
+        public void putChar(char c) {
+            putLittleEndian(c, Character.SIZE / Byte.SIZE);
+        }
+
+        @Override
+        public void putInt(int i) {
+            putLittleEndian(i, Integer.SIZE / Byte.SIZE);
+        }
+
+        @Override
+        public void putLong(long l) {
+            putLittleEndian(l, Long.SIZE / Byte.SIZE);
+        }
+
+        private void putLittleEndian(long value, int length) {
+            for (int i = 0; i < length; i++) {
+                write((int) (value >>> (Byte.SIZE * i)));
+            }
+        }
+    }
+}
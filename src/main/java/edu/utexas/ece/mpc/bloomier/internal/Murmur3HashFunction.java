@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import edu.utexas.ece.mpc.bloomier.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.KeyFunnels;
+
+/**
+ * Default {@link HashFunction}: a single MurmurHash3 (x64, 128-bit) pass over the key yields a
+ * seed-independent fingerprint, from which the seeded neighborhood and mask are derived with a few
+ * multiply/xor-shift steps. Nothing is allocated per call. Funnelled keys are hashed a block at a
+ * time as their bytes arrive, in a per-thread {@link Murmur3Sink}.
+ * <p>
+ * The table is split into k equally sized segments and the i-th neighborhood index always falls in
+ * the i-th segment, so a key's indices are always distinct and never need to be deduplicated. For
+ * the ribbon layout the same fingerprint yields a band instead (see
+ * {@link #band(int, long, int, int[], long[])}).
+ */
+public final class Murmur3HashFunction implements HashFunction {
+    public static final Murmur3HashFunction INSTANCE = new Murmur3HashFunction();
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final long BUCKET_SALT = 0x3c6ef372fe94f82bL;
+
+    private static final ThreadLocal<Murmur3Sink> SINKS = new ThreadLocal<Murmur3Sink>() {
+        @Override
+        protected Murmur3Sink initialValue() {
+            return new Murmur3Sink();
+        }
+    };
+
+    private Murmur3HashFunction() {
+    }
+
+    @Override
+    public void hash(int keyHash, long seed, int m, int[] neighborhood, long[] mask) {
+        hashWord(keyHash & 0xffffffffL, Integer.SIZE / Byte.SIZE, seed, m, neighborhood, mask,
+                 false);
+    }
+
+    @Override
+    public void hash(long key, long seed, int m, int[] neighborhood, long[] mask) {
+        hashWord(key, Long.SIZE / Byte.SIZE, seed, m, neighborhood, mask, false);
+    }
+
+    @Override
+    public <K> void hash(K key, KeyFunnel<? super K> keyFunnel, long seed, int m,
+                         int[] neighborhood, long[] mask) {
+        Murmur3Sink sink = digest(key, keyFunnel);
+        derive(sink.h1, sink.h2, seed, m, neighborhood, mask);
+    }
+
+    /**
+     * Derives a key's band in a ribbon table of m entries (see {@link Ribbon}) rather than its
+     * neighborhood, along with its mask.
+     *
+     * @param start
+     *            receives the band's first entry, in [0, m - {@link Ribbon#WIDTH}], in start[0]
+     * @return the band's coefficients, bit j set if entry start[0] + j is in the band; bit 0 is
+     *         always set
+     */
+    public long band(int keyHash, long seed, int m, int[] start, long[] mask) {
+        return hashWord(keyHash & 0xffffffffL, Integer.SIZE / Byte.SIZE, seed, m, start, mask,
+                        true);
+    }
+
+    /**
+     * Hashes the bytes keyFunnel feeds for key; otherwise the same as
+     * {@link #band(int, long, int, int[], long[])}.
+     */
+    public <K> long band(K key, KeyFunnel<? super K> keyFunnel, long seed, int m, int[] start,
+                         long[] mask) {
+        Murmur3Sink sink = digest(key, keyFunnel);
+        return deriveBand(sink.h1, sink.h2, seed, m, start, mask);
+    }
+
+    /**
+     * Stores the seed-independent 128-bit fingerprint of a key in fingerprint[0] and
+     * fingerprint[1]; {@link #hash(long, long, long, int, int[], long[])} then derives the same
+     * neighborhood and mask from it as hashing the key itself would.
+     */
+    public static <K> void fingerprint(K key, KeyFunnel<? super K> keyFunnel, long[] fingerprint) {
+        Murmur3Sink sink = digest(key, keyFunnel);
+        fingerprint[0] = sink.h1;
+        fingerprint[1] = sink.h2;
+    }
+
+    /**
+     * Hashes a key given its fingerprint (see {@link #fingerprint(Object, KeyFunnel, long[])}).
+     */
+    public void hash(long fingerprint1, long fingerprint2, long seed, int m, int[] neighborhood,
+                     long[] mask) {
+        derive(fingerprint1, fingerprint2, seed, m, neighborhood, mask);
+    }
+
+    private static <K> Murmur3Sink digest(K key, KeyFunnel<? super K> keyFunnel) {
+        Murmur3Sink sink = SINKS.get();
+        sink.reset();
+        keyFunnel.funnel(key, sink);
+        sink.finish();
+        return sink;
+    }
+
+    /**
+     * MurmurHash3_x64_128 (seed 0) of the first length little-endian bytes of word, which fit in a
+     * single tail-only block, from which a band (returning its coefficients) or else a neighborhood
+     * is derived.
+     */
+    private static long hashWord(long word, int length, long seed, int m, int[] neighborhood,
+                                 long[] mask, boolean band) {
+        long h1 = 0;
+        long h2 = 0;
+
+        long k1 = word;
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+
+        if (band) {
+            return deriveBand(h1, h2, seed, m, neighborhood, mask);
+        }
+        derive(h1, h2, seed, m, neighborhood, mask);
+        return 0;
+    }
+
+    @Override
+    public boolean hasDistinctNeighborhoods() {
+        return true;
+    }
+
+    /**
+     * Maps a key hash onto one of n buckets, independently of any seed and of the neighborhoods
+     * {@link #hash(int, long, int, int[], long[])} derives, so it can split a key set into shards
+     * that are then hashed separately.
+     */
+    public static int bucket(int keyHash, int n) {
+        return reduce(fmix64((keyHash & 0xffffffffL) ^ BUCKET_SALT), n);
+    }
+
+    /**
+     * Maps a key onto one of n buckets like {@link #bucket(int, int)}. Keys funnelled by their hash
+     * codes land in the same bucket as their hash code does.
+     */
+    public static <K> int bucket(K key, KeyFunnel<? super K> keyFunnel, int n) {
+        if (keyFunnel == KeyFunnels.hashCodes()) {
+            return bucket(key.hashCode(), n);
+        }
+        return reduce(fmix64(digest(key, keyFunnel).h1 ^ BUCKET_SALT), n);
+    }
+
+    /**
+     * Derives the seeded neighborhood and mask from a 128-bit key fingerprint.
+     */
+    static void derive(long h1, long h2, long seed, int m, int[] neighborhood, long[] mask) {
+        long a = fmix64(h1 + seed * GOLDEN_GAMMA);
+        long b = fmix64(h2 ^ a) | 1;
+
+        if (neighborhood != null) {
+            int k = neighborhood.length;
+            int segmentLength = m / k;
+            for (int i = 0; i < k; i++) {
+                int length = (i == k - 1) ? m - i * segmentLength : segmentLength;
+                neighborhood[i] = i * segmentLength + reduce(fmix64(a + i * b), length);
+            }
+        }
+
+        if (mask != null) {
+            for (int i = 0; i < mask.length; i++) {
+                mask[i] = fmix64(b + (i + 1) * GOLDEN_GAMMA);
+            }
+        }
+    }
+
+    /**
+     * Derives the seeded band and mask from a 128-bit key fingerprint. The mask is the one
+     * {@link #derive(long, long, long, int, int[], long[])} derives.
+     */
+    static long deriveBand(long h1, long h2, long seed, int m, int[] start, long[] mask) {
+        long a = fmix64(h1 + seed * GOLDEN_GAMMA);
+        long b = fmix64(h2 ^ a) | 1;
+
+        if (start != null) {
+            start[0] = reduce(a, m - Ribbon.WIDTH + 1);
+        }
+        if (mask != null) {
+            for (int i = 0; i < mask.length; i++) {
+                mask[i] = fmix64(b + (i + 1) * GOLDEN_GAMMA);
+            }
+        }
+        return fmix64(a ^ b) | 1;
+    }
+
+    /**
+     * Maps a uniformly distributed hash onto [0,n) without a division (Lemire's multiply-shift).
+     */
+    static int reduce(long hash, int n) {
+        return (int) (((hash >>> 32) * n) >>> 32);
+    }
+
+    static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
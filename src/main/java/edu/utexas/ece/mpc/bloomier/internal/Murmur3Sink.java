@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import edu.utexas.ece.mpc.bloomier.KeySink;
+
+/**
+ * Computes MurmurHash3 (x64, 128-bit, seed 0) of the bytes put into it, one 16-byte block at a
+ * time so nothing is buffered beyond the current block. Reusable through {@link #reset()}.
+ */
+final class Murmur3Sink implements KeySink {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    long h1;
+    long h2;
+
+    // The pending block: its first 8 bytes in k1, the rest in k2, tail bytes of it filled so far
+    private long k1;
+    private long k2;
+    private int tail;
+    private long length;
+
+    void reset() {
+        h1 = 0;
+        h2 = 0;
+        k1 = 0;
+        k2 = 0;
+        tail = 0;
+        length = 0;
+    }
+
+    @Override
+    public void putByte(byte b) {
+        put(b & 0xffL, 1);
+    }
+
+    @Override
+    public void putBytes(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (; offset + 8 <= end; offset += 8) {
+            long word = 0;
+            for (int i = 7; i >= 0; i--) {
+                word = word << Byte.SIZE | (bytes[offset + i] & 0xff);
+            }
+            put(word, 8);
+        }
+        for (; offset < end; offset++) {
+            put(bytes[offset] & 0xffL, 1);
+        }
+    }
+
+    @Override
+    public void putChar(char c) {
+        put(c, Character.SIZE / Byte.SIZE);
+    }
+
+    @Override
+    public void putInt(int i) {
+        put(i & 0xffffffffL, Integer.SIZE / Byte.SIZE);
+    }
+
+    @Override
+    public void putLong(long l) {
+        put(l, Long.SIZE / Byte.SIZE);
+    }
+
+    /**
+     * Appends the low byteCount (1-8) bytes of bits, whose higher bytes must be zero.
+     */
+    private void put(long bits, int byteCount) {
+        int shift = (tail & 7) * Byte.SIZE;
+        // Whatever doesn't fit in the current word; zero when nothing spills over
+        long rest = shift == 0 ? 0 : bits >>> (Long.SIZE - shift);
+        if (tail < 8) {
+            k1 |= bits << shift;
+        } else {
+            k2 |= bits << shift;
+        }
+
+        int end = tail + byteCount;
+        if (end >= 16) {
+            mixBlock();
+            k1 = rest;
+            k2 = 0;
+            end -= 16;
+        } else if (tail < 8 && end >= 8) {
+            k2 = rest;
+        }
+        tail = end;
+        length += byteCount;
+    }
+
+    private void mixBlock() {
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    /**
+     * Processes the last partial block, leaving the 128-bit hash in h1 and h2.
+     */
+    void finish() {
+        if (tail > 8) {
+            h2 ^= mixK2(k2);
+        }
+        if (tail > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+        h1 = Murmur3HashFunction.fmix64(h1);
+        h2 = Murmur3HashFunction.fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+}
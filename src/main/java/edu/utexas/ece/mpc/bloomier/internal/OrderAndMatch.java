@@ -11,29 +11,158 @@
 
 package edu.utexas.ece.mpc.bloomier.internal;
 
+import java.util.AbstractList;
 import java.util.List;
 
+import edu.utexas.ece.mpc.bloomier.BuildStatistics;
+
+/**
+ * The order in which to fill a table and the neighbor each key is stored in, held as primitive
+ * arrays indexed by position in the finder's key list. The neighborhoods computed while finding the
+ * match are kept as well, so filling the table doesn't have to recompute them.
+ */
 public class OrderAndMatch<K> {
 
-    private long hashSeed;
-    private List<K> pi;
-    private List<Integer> tau;
+    private final long hashSeed;
+    private final List<K> keys;
+    private final int k;
+
+    private int[] order;
+    private byte[] tau;
+    private int[] neighborhoods;
+
+    private BuildStatistics statistics;
 
-    public OrderAndMatch(long hashSeed, List<K> pi, List<Integer> tau) {
+    /**
+     * @param keys
+     *            the keys the indices below refer to
+     * @param order
+     *            indices of the keys in table filling order
+     * @param tau
+     *            tau[i] is the position within the neighborhood of key order[i] of its storage slot
+     *            (an unsigned byte)
+     * @param neighborhoods
+     *            the neighborhood of key index i, computed with hashSeed, is at [i*k, (i+1)*k)
+     */
+    public OrderAndMatch(long hashSeed, List<K> keys, int k, int[] order, byte[] tau,
+                         int[] neighborhoods) {
         this.hashSeed = hashSeed;
-        this.pi = pi;
+        this.keys = keys;
+        this.k = k;
+        this.order = order;
         this.tau = tau;
+        this.neighborhoods = neighborhoods;
+    }
+
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * @return index (in {@link #getKeys()}) of the i-th key to fill
+     */
+    public int getKeyIndex(int i) {
+        return order[i];
+    }
+
+    /**
+     * @return the i-th key to fill
+     */
+    public K getKey(int i) {
+        return keys.get(order[i]);
+    }
+
+    /**
+     * @return position within its neighborhood of the storage slot of the i-th key to fill
+     */
+    public int getTau(int i) {
+        return tau[i] & 0xff;
+    }
+
+    /**
+     * @return the j-th neighbor of the i-th key to fill
+     */
+    public int getNeighbor(int i, int j) {
+        return neighborhoods[order[i] * k + j];
     }
 
+    /**
+     * @return all neighborhoods, the one of key index i at [i*k, (i+1)*k)
+     */
+    public int[] getNeighborhoods() {
+        return neighborhoods;
+    }
+
+    /**
+     * Fills a table of m q-bit entries from this order and matching (see
+     * {@link TableBuilder#fill(int, int, int, int[], byte[], int[], boolean, TableBuilder.Entries)}),
+     * entries being asked for keys by their index in {@link #getKeys()}.
+     */
+    public long[] fill(int m, int q, boolean distinct, TableBuilder.Entries entries) {
+        return TableBuilder.fill(m, k, q, order, tau, neighborhoods, distinct, entries);
+    }
+
+    public List<K> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return the keys in filling order (a view)
+     */
     public List<K> getPi() {
-        return pi;
+        return new AbstractList<K>() {
+            @Override
+            public K get(int index) {
+                return getKey(index);
+            }
+
+            @Override
+            public int size() {
+                return order.length;
+            }
+        };
     }
 
+    /**
+     * @return the storage positions in filling order (a view)
+     */
     public List<Integer> getTau() {
-        return tau;
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return getTau(index);
+            }
+
+            @Override
+            public int size() {
+                return tau.length;
+            }
+        };
     }
 
     public long getHashSeed() {
         return hashSeed;
     }
+
+    /**
+     * @return what finding this order and matching took, or null if not known
+     */
+    public BuildStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(BuildStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Drops the order, match and neighborhoods once a table has been filled from them, so they can
+     * be garbage collected even while this object is still referenced. Nothing but the hash seed
+     * may be used afterwards.
+     */
+    public void release() {
+        order = null;
+        tau = null;
+        neighborhoods = null;
+    }
 }
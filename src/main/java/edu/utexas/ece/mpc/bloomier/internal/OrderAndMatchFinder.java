@@ -13,83 +13,191 @@ package edu.utexas.ece.mpc.bloomier.internal;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.RandomAccess;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.utexas.ece.mpc.bloomier.BuildStatistics;
+import edu.utexas.ece.mpc.bloomier.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.KeyFunnels;
 
 public class OrderAndMatchFinder<K> {
     long hashSeed = Long.MIN_VALUE;
     BloomierHasher<K> hasher;
 
-    List<K> pi;
-    List<Integer> tau;
-
     OrderAndMatch<K> oam;
 
     Collection<K> keys;
     int m;
     int k;
     int q;
+    HashFunction hashFunction;
+    KeyFunnel<? super K> keyFunnel;
+
+    // Summed over every seed attempt so far; guarded by this
+    private long seedAttempts;
+    private int peelRounds;
+    private int stuckKeys;
+    private long hashNanos;
+    private long peelNanos;
+    private long bytesAllocated;
 
     public OrderAndMatchFinder(Collection<K> keys, int m, int k, int q) {
+        this(keys, m, k, q, Murmur3HashFunction.INSTANCE);
+    }
+
+    public OrderAndMatchFinder(Collection<K> keys, int m, int k, int q, long hashSeedHint) {
+        this(keys, m, k, q, Murmur3HashFunction.INSTANCE, hashSeedHint);
+    }
+
+    public OrderAndMatchFinder(Collection<K> keys, int m, int k, int q, HashFunction hashFunction) {
+        this(keys, m, k, q, hashFunction, KeyFunnels.hashCodes());
+    }
+
+    /**
+     * @param keys
+     *            distinct keys; a random access list is used as is (and the found
+     *            {@link OrderAndMatch} refers to keys by their index in it), anything else is copied
+     *            into one first
+     * @param keyFunnel
+     *            feeds the bytes of each key to the hash function
+     */
+    public OrderAndMatchFinder(Collection<K> keys, int m, int k, int q, HashFunction hashFunction,
+                               KeyFunnel<? super K> keyFunnel) {
+        if (k > Peeler.MAX_K) {
+            throw new IllegalArgumentException("Neighborhood size k=" + k + " exceeds "
+                                               + Peeler.MAX_K);
+        }
+
         this.keys = keys;
         this.m = m;
         this.k = k;
         this.q = q;
+        this.hashFunction = hashFunction;
+        this.keyFunnel = keyFunnel;
     }
 
-    public OrderAndMatchFinder(Collection<K> keys, int m, int k, int q, long hashSeedHint) {
-        this(keys, m, k, q);
+    public OrderAndMatchFinder(Collection<K> keys, int m, int k, int q, HashFunction hashFunction,
+                               long hashSeedHint) {
+        this(keys, m, k, q, hashFunction);
 
         hashSeed = hashSeedHint;
     }
 
     public OrderAndMatch<K> find(long timeoutMs) throws TimeoutException {
-        final AtomicBoolean hasTimedOut = new AtomicBoolean(false);
-        Timer timer = null;
-        try {
-            if (timeoutMs < Long.MAX_VALUE) {
-                timer = new Timer(true);
-                timer.schedule(new TimerTask() {
+        long now = System.currentTimeMillis();
+        return findUntil(timeoutMs < Long.MAX_VALUE - now ? now + timeoutMs : Long.MAX_VALUE);
+    }
 
-                    @Override
-                    public void run() {
-                        hasTimedOut.set(true);
-                    }
-                }, timeoutMs);
+    /**
+     * Like {@link #find(long)}, but gives up once {@link System#currentTimeMillis()} passes
+     * deadline (checked before each seed). Handy when many finders share one time budget.
+     */
+    public OrderAndMatch<K> findUntil(long deadline) throws TimeoutException {
+        List<K> keyList = keyList();
+        Workspace workspace = new Workspace(keyList.size());
+
+        for (long i = 0; i < Long.MAX_VALUE; i++) {
+            // First check for timeout
+            if (System.currentTimeMillis() > deadline) {
+                throw timeoutException();
             }
 
-            for (long i = 0; i < Long.MAX_VALUE; i++) {
-                // First check for timeout
-                if (hasTimedOut.get()) {
-                    throw new TimeoutException(
-                                               String.format("Could not find order and matching for key set in alloted time with specified parameters (m=%d;k=%d;q=%d)",
-                                                             m, k, q));
-                }
+            hasher = new BloomierHasher<K>(hashSeed, m, k, q, hashFunction, keyFunnel);
+
+            oam = findMatch(keyList, hasher, workspace);
+            if (oam != null) {
+                break;
+            }
 
-                hasher = new BloomierHasher<K>(hashSeed, m, k, q);
+            hashSeed++; // will wrap around if a hashSeedHint was provided
+        }
 
-                pi = new ArrayList<K>(keys.size());
-                tau = new ArrayList<Integer>(keys.size());
+        oam.setStatistics(getStatistics());
+        return oam;
+    }
 
-                if (findMatch(new ArrayList<K>(keys))) { // findMatch modifies key collection, so make copy
-                    oam = new OrderAndMatch<K>(hashSeed, pi, tau);
-                    break;
+    /**
+     * Like {@link #find(long)}, but tries seeds on several threads at once. Worker w tries the seeds
+     * hashSeed + w, hashSeed + w + parallelism, ..., so workers never repeat each other's work.
+     * Once some seed succeeds, workers give up on every later seed but still finish the earlier ones.
+     * The seed reported is therefore always the first one (in the order {@link #find(long)} would
+     * try them) that works, and passing it back as a hashSeedHint reproduces the same result.
+     * <p>
+     * Each worker holds its own copy of the per-seed working arrays (about n&middot;k ints).
+     *
+     * @param executor
+     *            runs the workers; it must be able to run parallelism tasks concurrently to get
+     *            the full speedup
+     * @param parallelism
+     *            number of workers to submit
+     */
+    public OrderAndMatch<K> find(long timeoutMs, Executor executor, int parallelism)
+            throws TimeoutException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive (was " + parallelism
+                                               + ")");
+        }
+
+        final List<K> keyList = keyList();
+        final long firstSeed = hashSeed;
+        final SeedSearch search = new SeedSearch(parallelism);
+
+        for (int w = 0; w < parallelism; w++) {
+            final int worker = w;
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        Workspace workspace = new Workspace(keyList.size());
+                        long attempt = worker;
+                        for (; search.shouldTry(attempt); attempt += search.workers) {
+                            long seed = firstSeed + attempt; // will wrap around like find(long)
+                            OrderAndMatch<K> found = findMatch(keyList,
+                                                               new BloomierHasher<K>(seed, m, k, q,
+                                                                                     hashFunction,
+                                                                                     keyFunnel),
+                                                               workspace);
+                            if (found != null) {
+                                search.found(attempt, found);
+                                workspace = new Workspace(keyList.size()); // found owns the old one
+                            }
+                        }
+                    } catch (RuntimeException | Error e) {
+                        search.failed(e);
+                    } finally {
+                        search.done.countDown();
+                    }
                 }
+            });
+        }
 
-                hashSeed++; // will wrap around if a hashSeedHint was provided
-            }
+        boolean finished;
+        try {
+            finished = search.done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finished = false;
+        }
 
-        } finally {
-            if (timer != null) {
-                timer.cancel();
-            }
+        if (finished == false) {
+            search.cancelled = true;
+            throw timeoutException();
+        }
+
+        if (search.failure != null) {
+            throw new IllegalStateException("Order and matching search failed", search.failure);
         }
 
+        oam = search.best;
+        oam.setStatistics(getStatistics());
+        hashSeed = oam.getHashSeed();
+        hasher = new BloomierHasher<K>(hashSeed, m, k, q, hashFunction, keyFunnel);
+
         return oam;
     }
 
@@ -109,40 +217,124 @@ public class OrderAndMatchFinder<K> {
         return hasher;
     }
 
-    private boolean findMatch(Collection<K> remainingKeys) {
-        if (remainingKeys.isEmpty()) {
-            return true;
+    /**
+     * @return what the seed attempts so far took (the fill phase is left to the filter), also
+     *         given in the message of the TimeoutException thrown when finding gives up
+     */
+    public synchronized BuildStatistics getStatistics() {
+        return new BuildStatistics(keys.size(), m, seedAttempts, peelRounds, stuckKeys, hashNanos,
+                                   peelNanos, 0, bytesAllocated);
+    }
+
+    private synchronized void recordAttempt(long hashNanos, long peelNanos,
+                                            Peeler.Progress progress, int n) {
+        seedAttempts++;
+        peelRounds = progress.rounds;
+        if (progress.peeled < n) {
+            stuckKeys = n - progress.peeled;
         }
+        this.hashNanos += hashNanos;
+        this.peelNanos += peelNanos;
+        bytesAllocated += 3L * m * 4; // the peeler's per slot arrays
+    }
 
-        Queue<K> piQueue = new LinkedList<K>();
-        Queue<Integer> tauQueue = new LinkedList<Integer>();
+    private synchronized void recordAllocation(long bytes) {
+        bytesAllocated += bytes;
+    }
 
-        SingletonFindingTweaker<K> tweaker = new SingletonFindingTweaker<K>(remainingKeys, hasher);
+    private TimeoutException timeoutException() {
+        return TableBuilder.timeoutException("key set", m, k, q, getStatistics());
+    }
 
-        for (K key: remainingKeys) {
-            Integer iota = tweaker.tweak(key);
-            if (iota != null) {
-                piQueue.add(key);
-                tauQueue.add(iota);
-            }
+    private List<K> keyList() {
+        if (keys instanceof List && keys instanceof RandomAccess) {
+            return (List<K>) keys;
         }
+        return new ArrayList<K>(keys);
+    }
 
-        if (piQueue.isEmpty()) {
-            return false;
+    /**
+     * Tries a single seed, reusing workspace's arrays. On success the returned match takes them
+     * over, so the workspace must not be used again.
+     */
+    private OrderAndMatch<K> findMatch(List<K> keyList, BloomierHasher<K> hasher,
+                                       Workspace workspace) {
+        int n = keyList.size();
+        int[] neighborhoods = workspace.neighborhoods;
+        int[] neighborhood = workspace.neighborhood;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            hasher.hash(keyList.get(i), neighborhood, null);
+            System.arraycopy(neighborhood, 0, neighborhoods, i * k, k);
+        }
+
+        long hashed = System.nanoTime();
+        boolean peeled = Peeler.peel(neighborhoods, k, m, hashFunction.hasDistinctNeighborhoods(),
+                                     workspace.order, workspace.tau, workspace.progress);
+        recordAttempt(hashed - start, System.nanoTime() - hashed, workspace.progress, n);
+        if (peeled == false) {
+            return null;
         }
 
-        // Only pass along non-"easy" keys to next iteration
-        remainingKeys.removeAll(piQueue);
+        return new OrderAndMatch<K>(hasher.getHashSeed(), keyList, k, workspace.order,
+                                    workspace.tau, neighborhoods);
+    }
+
+    /**
+     * The arrays a seed attempt works in, reused from one failed attempt to the next.
+     */
+    private class Workspace {
+        final int[] neighborhoods;
+        final int[] neighborhood = new int[k];
+        final int[] order;
+        final byte[] tau;
+        final Peeler.Progress progress = new Peeler.Progress();
 
-        if (remainingKeys.isEmpty() == false) {
-            if (findMatch(remainingKeys) == false) {
-                return false;
+        Workspace(int n) {
+            if ((long) n * k > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many keys (" + n
+                                                   + ") for neighborhood size k=" + k);
             }
+
+            neighborhoods = new int[n * k];
+            order = new int[n];
+            tau = new byte[n];
+            recordAllocation(n * (k * 4L + 4 + 1));
         }
+    }
+
+    /**
+     * Shared state of the workers of a parallel {@link #find(long, Executor, int)}.
+     */
+    private class SeedSearch {
+        final int workers;
+        final CountDownLatch done;
 
-        pi.addAll(piQueue);
-        tau.addAll(tauQueue);
+        volatile boolean cancelled;
+        volatile Throwable failure;
 
-        return true;
+        // Lowest successful attempt so far; guarded by this
+        long bestAttempt = Long.MAX_VALUE;
+        OrderAndMatch<K> best;
+
+        SeedSearch(int workers) {
+            this.workers = workers;
+            this.done = new CountDownLatch(workers);
+        }
+
+        synchronized boolean shouldTry(long attempt) {
+            return cancelled == false && failure == null && attempt < bestAttempt;
+        }
+
+        synchronized void found(long attempt, OrderAndMatch<K> found) {
+            if (attempt < bestAttempt) {
+                bestAttempt = attempt;
+                best = found;
+            }
+        }
+
+        void failed(Throwable t) {
+            failure = t;
+        }
     }
-}
\ No newline at end of file
+}
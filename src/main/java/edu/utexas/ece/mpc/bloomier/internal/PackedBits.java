@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+/**
+ * Access to bit-packed table entries: a table of m entries of q bits each is m * q bits in a flat
+ * array of 64-bit words, entry i occupying bits [i * q, (i + 1) * q) (bit b being bit b % 64 of
+ * word b / 64). An entry is handed around as ceil(q / 64) little-endian words, its bit j in bit
+ * j % 64 of word j / 64.
+ * <p>
+ * When q is a multiple of 64 every entry starts on a word boundary and is a run of whole words, so
+ * it is XORed word for word with no shifting or masking, in plain loops the JIT can vectorize. Wide
+ * values are best stored that way (see {@link #isWordAligned(int)}).
+ */
+public final class PackedBits {
+
+    private PackedBits() {
+    }
+
+    /**
+     * @return number of words holding m entries of q bits
+     */
+    public static long words(int m, int q) {
+        return ((long) m * q + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * @return number of words an entry of q bits is handed around in
+     */
+    public static int entryWords(int q) {
+        return (q + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * @return mask of the bits of the last word of a q-bit entry that belong to it
+     */
+    public static long lastWordMask(int q) {
+        return q % Long.SIZE == 0 ? -1L : (1L << q) - 1; // shifts are mod 64
+    }
+
+    /**
+     * @return whether entries of q bits are whole words, taking the fast path of the methods below
+     */
+    public static boolean isWordAligned(int q) {
+        return q % Long.SIZE == 0;
+    }
+
+    /**
+     * XORs the bits bits at bitOffset of words into result[resultOffset...].
+     */
+    public static void xorInto(long[] words, long bitOffset, int bits, long[] result,
+                               int resultOffset) {
+        int word = (int) (bitOffset >>> 6);
+        int shift = (int) bitOffset & (Long.SIZE - 1);
+        if ((shift | (bits & (Long.SIZE - 1))) == 0) {
+            for (int w = 0, count = bits >>> 6; w < count; w++) {
+                result[resultOffset + w] ^= words[word + w];
+            }
+            return;
+        }
+
+        for (int w = 0, remaining = bits; remaining > 0; w++, remaining -= Long.SIZE) {
+            long value = words[word + w] >>> shift;
+            if (shift != 0 && shift + remaining > Long.SIZE) {
+                value |= words[word + w + 1] << (Long.SIZE - shift);
+            }
+            if (remaining < Long.SIZE) {
+                value &= (1L << remaining) - 1;
+            }
+            result[resultOffset + w] ^= value;
+        }
+    }
+
+    /**
+     * Same as {@link #xorInto(long[], long, int, long[], int)}, reading the words from table.
+     */
+    public static void xorInto(Table table, long bitOffset, int bits, long[] result,
+                               int resultOffset) {
+        int word = (int) (bitOffset >>> 6);
+        int shift = (int) bitOffset & (Long.SIZE - 1);
+        if ((shift | (bits & (Long.SIZE - 1))) == 0) {
+            table.xorInto(word, bits >>> 6, result, resultOffset);
+            return;
+        }
+
+        for (int w = 0, remaining = bits; remaining > 0; w++, remaining -= Long.SIZE) {
+            long value = table.get(word + w) >>> shift;
+            if (shift != 0 && shift + remaining > Long.SIZE) {
+                value |= table.get(word + w + 1) << (Long.SIZE - shift);
+            }
+            if (remaining < Long.SIZE) {
+                value &= (1L << remaining) - 1;
+            }
+            result[resultOffset + w] ^= value;
+        }
+    }
+
+    /**
+     * XORs entry[entryOffset...] (whose bits past bits must be zero) into the bits bits at
+     * bitOffset of words. Writes an entry that is still all zero.
+     */
+    public static void xorFrom(long[] entry, int entryOffset, long[] words, long bitOffset,
+                               int bits) {
+        int word = (int) (bitOffset >>> 6);
+        int shift = (int) bitOffset & (Long.SIZE - 1);
+        if ((shift | (bits & (Long.SIZE - 1))) == 0) {
+            for (int w = 0, count = bits >>> 6; w < count; w++) {
+                words[word + w] ^= entry[entryOffset + w];
+            }
+            return;
+        }
+
+        for (int w = 0, remaining = bits; remaining > 0; w++, remaining -= Long.SIZE) {
+            long value = entry[entryOffset + w];
+            words[word + w] ^= value << shift;
+            if (shift != 0 && shift + remaining > Long.SIZE) {
+                words[word + w + 1] ^= value >>> (Long.SIZE - shift);
+            }
+        }
+    }
+}
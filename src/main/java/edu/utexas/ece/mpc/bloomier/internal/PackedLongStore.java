@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Values of a fixed number of bits (at most 64) bit-packed one per occupied slot, indexed by the
+ * slot's rank among the occupied slots. Values are passed around as the bits themselves, so
+ * nothing is boxed.
+ * <p>
+ * So that every value can be replaced with a single compare-and-set, values never straddle words:
+ * each word holds floor(64 / bit width) of them, and any bits left over go unused.
+ */
+public final class PackedLongStore {
+    private final RankIndex occupied;
+    private final int bitWidth;
+    private final long valueMask;
+    private final int valuesPerWord;
+    private final AtomicLongArray words;
+
+    public PackedLongStore(RankIndex occupied, int bitWidth) {
+        if (bitWidth < 1 || bitWidth > Long.SIZE) {
+            throw new IllegalArgumentException("Values of " + bitWidth
+                                               + " bits can't be packed (must be 1 to 64)");
+        }
+
+        this.occupied = occupied;
+        this.bitWidth = bitWidth;
+        valueMask = PackedBits.lastWordMask(bitWidth);
+        valuesPerWord = Long.SIZE / bitWidth;
+        words = new AtomicLongArray((occupied.count() + valuesPerWord - 1) / valuesPerWord);
+    }
+
+    public int getBitWidth() {
+        return bitWidth;
+    }
+
+    /**
+     * @return the bits of the value of the key stored at slot
+     */
+    public long get(int slot) {
+        int index = occupied.rank(slot);
+        return words.get(index / valuesPerWord) >>> (index % valuesPerWord * bitWidth) & valueMask;
+    }
+
+    /**
+     * @param bits
+     *            the value, whose bits past the bit width must be zero
+     */
+    public void set(int slot, long bits) {
+        int index = occupied.rank(slot);
+        int word = index / valuesPerWord;
+        int shift = index % valuesPerWord * bitWidth;
+        for (;;) {
+            long current = words.get(word);
+            long updated = current & ~(valueMask << shift) | bits << shift;
+            if (words.compareAndSet(word, current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Atomically sets the value at slot to updateBits if it is currently expectBits.
+     *
+     * @return whether the value was set
+     */
+    public boolean compareAndSet(int slot, long expectBits, long updateBits) {
+        int index = occupied.rank(slot);
+        int word = index / valuesPerWord;
+        int shift = index % valuesPerWord * bitWidth;
+        for (;;) {
+            long current = words.get(word);
+            if ((current >>> shift & valueMask) != expectBits) {
+                return false;
+            }
+            // A failed CAS may only mean a neighbor changed, so check again
+            long updated = current & ~(valueMask << shift) | updateBits << shift;
+            if (words.compareAndSet(word, current, updated)) {
+                return true;
+            }
+        }
+    }
+}
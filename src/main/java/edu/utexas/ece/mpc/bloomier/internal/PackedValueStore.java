@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import edu.utexas.ece.mpc.bloomier.ValueCodec;
+
+/**
+ * Values encoded by a fixed-width codec of at most 64 bits and bit-packed one per occupied slot by
+ * a {@link PackedLongStore}. No objects are kept, so e.g. ints take 32 bits apiece, but null can't
+ * be stored.
+ */
+public class PackedValueStore<V> extends ValueStore<V> {
+    private final ValueCodec<V> valueCodec;
+    private final PackedLongStore bits;
+
+    // Each thread gets its own so reads neither allocate nor lock
+    private final ThreadLocal<long[]> entries = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    public PackedValueStore(RankIndex occupied, ValueCodec<V> valueCodec) {
+        int bitWidth = valueCodec.getBitWidth();
+        if (bitWidth > Long.SIZE) {
+            throw new IllegalArgumentException("Values of " + bitWidth
+                                               + " bits are too wide to pack (at most 64)");
+        }
+
+        this.valueCodec = valueCodec;
+        bits = new PackedLongStore(occupied, bitWidth);
+    }
+
+    @Override
+    public V get(int slot) {
+        long[] entry = entries.get();
+        entry[0] = bits.get(slot);
+        return valueCodec.decode(entry);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if value is null or the codec can't encode it
+     */
+    @Override
+    public void set(int slot, V value) {
+        bits.set(slot, encode(value));
+    }
+
+    /**
+     * Compares values by their encodings, which for a codec encoding equal values alike is the
+     * same as comparing them with equals.
+     */
+    @Override
+    public boolean compareAndSet(int slot, V expect, V update) {
+        return bits.compareAndSet(slot, encode(expect), encode(update));
+    }
+
+    private long encode(V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Packed values can't be null");
+        }
+
+        long[] entry = entries.get();
+        entry[0] = 0;
+        valueCodec.encode(value, entry);
+        return entry[0];
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+/**
+ * Finds an order and matching by peeling the key/slot hypergraph.
+ * <p>
+ * Every slot tracks how many keys touch it and the XOR of those keys' indices, so once a slot is
+ * touched by a single key that key is known without any search. Such a key is matched to the slot
+ * and removed from all of its other slots, which may in turn leave more slots with a single key.
+ * Each key and each slot is visited a constant number of times, giving O(n&middot;k) work on
+ * primitive arrays with no recursion.
+ */
+public final class Peeler {
+    /** Largest neighborhood size, so that tau fits in a byte. */
+    public static final int MAX_K = 255;
+
+    private Peeler() {
+    }
+
+    /**
+     * Peels a hypergraph.
+     *
+     * @param neighborhoods
+     *            neighborhood of key i at [i*k, (i+1)*k)
+     * @param k
+     *            neighborhood size
+     * @param m
+     *            number of slots
+     * @param distinct
+     *            whether neighborhoods are known to hold distinct slots; if not, repeated slots are
+     *            skipped
+     * @param order
+     *            receives key indices in table filling order (its length is the number of keys)
+     * @param tau
+     *            receives, for each entry of order, the position within that key's neighborhood of
+     *            the slot matched to it, as an unsigned byte
+     * @return whether every key could be matched
+     */
+    public static boolean peel(int[] neighborhoods, int k, int m, boolean distinct, int[] order,
+                               byte[] tau) {
+        return peel(neighborhoods, k, m, distinct, order, tau, null);
+    }
+
+    /**
+     * Like {@link #peel(int[], int, int, boolean, int[], byte[])}, but also reports how far peeling
+     * got.
+     *
+     * @param progress
+     *            receives the number of keys peeled and of peeling rounds, unless null
+     */
+    public static boolean peel(int[] neighborhoods, int k, int m, boolean distinct, int[] order,
+                               byte[] tau, Progress progress) {
+        if (k > MAX_K) {
+            throw new IllegalArgumentException("Neighborhood size k=" + k + " exceeds " + MAX_K);
+        }
+        int n = order.length;
+
+        int[] counts = new int[m];
+        int[] xoredKeys = new int[m];
+        for (int key = 0; key < n; key++) {
+            for (int i = 0; i < k; i++) {
+                if (distinct || isRepeat(neighborhoods, key * k, i) == false) {
+                    int slot = neighborhoods[key * k + i];
+                    counts[slot]++;
+                    xoredKeys[slot] ^= key;
+                }
+            }
+        }
+
+        // A slot's count only ever decreases, so each slot enters the queue at most once
+        int[] queue = new int[m];
+        int tail = 0;
+        for (int slot = 0; slot < m; slot++) {
+            if (counts[slot] == 1) {
+                queue[tail++] = slot;
+            }
+        }
+
+        // Keys are peeled front to back but must be filled back to front: a key's slot is only
+        // guaranteed to be free of the keys peeled after it
+        int peeled = 0;
+        int rounds = 0;
+        int roundEnd = 0;
+        for (int head = 0; head < tail; head++) {
+            if (head == roundEnd) {
+                // Slots queued by the previous round are all dealt with
+                rounds++;
+                roundEnd = tail;
+            }
+
+            int slot = queue[head];
+            if (counts[slot] != 1) {
+                continue; // lost its last key after being queued
+            }
+
+            int key = xoredKeys[slot];
+            int iota = -1;
+            for (int i = 0; i < k; i++) {
+                int neighbor = neighborhoods[key * k + i];
+                if (distinct == false && isRepeat(neighborhoods, key * k, i)) {
+                    continue;
+                }
+                if (neighbor == slot && iota < 0) {
+                    iota = i;
+                }
+
+                counts[neighbor]--;
+                xoredKeys[neighbor] ^= key;
+                if (counts[neighbor] == 1) {
+                    queue[tail++] = neighbor;
+                }
+            }
+
+            peeled++;
+            order[n - peeled] = key;
+            tau[n - peeled] = (byte) iota;
+        }
+
+        if (progress != null) {
+            progress.peeled = peeled;
+            progress.rounds = rounds;
+        }
+        return peeled == n;
+    }
+
+    /**
+     * How far a peel got. A round takes every slot left with a single key by the previous one (the
+     * first, every slot with a single key to begin with), so the rounds are the depth of peeling.
+     */
+    public static final class Progress {
+        /** Keys matched; the rest were stuck in a part of the hypergraph with no free slot. */
+        public int peeled;
+        public int rounds;
+    }
+
+    static boolean isRepeat(int[] neighborhoods, int offset, int i) {
+        for (int j = 0; j < i; j++) {
+            if (neighborhoods[offset + j] == neighborhoods[offset + i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
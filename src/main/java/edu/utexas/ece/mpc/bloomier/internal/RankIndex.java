@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+/**
+ * A fixed set of positions in [0, size) with constant-time rank: {@link #rank(int)} numbers the
+ * set positions 0, 1, 2... in order, so n positions scattered over a much larger range can index
+ * a dense array of n elements. Takes a bit per position plus 32 bits per 512 positions.
+ */
+public final class RankIndex {
+    private static final int WORDS_PER_BLOCK = 8;
+
+    private final long[] bits;
+    // Number of set positions before each block of WORDS_PER_BLOCK words
+    private final int[] blockRanks;
+    private final int count;
+
+    /**
+     * @param positions
+     *            the positions to set, in any order; repeats count once
+     */
+    public RankIndex(int size, int[] positions) {
+        bits = new long[(size + Long.SIZE - 1) / Long.SIZE];
+        for (int position: positions) {
+            if (position < 0 || position >= size) {
+                throw new IllegalArgumentException("Position " + position + " not in [0," + size
+                                                   + ")");
+            }
+            bits[position >>> 6] |= 1L << position;
+        }
+
+        blockRanks = new int[(bits.length + WORDS_PER_BLOCK - 1) / WORDS_PER_BLOCK];
+        int rank = 0;
+        for (int word = 0; word < bits.length; word++) {
+            if (word % WORDS_PER_BLOCK == 0) {
+                blockRanks[word / WORDS_PER_BLOCK] = rank;
+            }
+            rank += Long.bitCount(bits[word]);
+        }
+        count = rank;
+    }
+
+    public boolean contains(int position) {
+        return (bits[position >>> 6] & 1L << position) != 0;
+    }
+
+    /**
+     * @return number of set positions before position
+     */
+    public int rank(int position) {
+        int word = position >>> 6;
+        int rank = blockRanks[word / WORDS_PER_BLOCK];
+        for (int w = word - word % WORDS_PER_BLOCK; w < word; w++) {
+            rank += Long.bitCount(bits[w]);
+        }
+        return rank + Long.bitCount(bits[word] & (1L << position) - 1);
+    }
+
+    /**
+     * @return number of set positions
+     */
+    public int count() {
+        return count;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.Arrays;
+
+/**
+ * Solves for the table of the ribbon layout (see
+ * {@link edu.utexas.ece.mpc.bloomier.HashAlgorithm#MURMUR3_128_RIBBON}). Rather than k scattered
+ * neighbors, each key has a band: {@link #WIDTH} consecutive entries starting anywhere in the
+ * table, of which those at the set bits of the key's coefficients XOR to its value. Every key is
+ * one equation over GF(2) whose coefficients are confined to a diagonal band, so Gaussian
+ * elimination of each equation as it is added (Dillinger and Walzer's ribbon) only ever touches the
+ * rows of that band: O(n &middot; WIDTH) word operations, with no order to find. A lookup then
+ * reads a single contiguous run of the table, a cache line or a few adjacent ones.
+ */
+public final class Ribbon {
+    public static final int WIDTH = Long.SIZE;
+
+    private Ribbon() {
+    }
+
+    /**
+     * @return a thread local handing each thread its own scratch for
+     *         {@link #xorBand(Table, int, int, long, long[], long[])}: enough words for any band of
+     *         q-bit entries
+     */
+    public static ThreadLocal<long[]> perThreadBand(final int q) {
+        return new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[q + 1];
+            }
+        };
+    }
+
+    /**
+     * XORs the entries of a band of table into result. Heap tables are read in place; other tables
+     * have the band's words fetched in one go, into band, so they're read once and sequentially
+     * however many entries the band has.
+     *
+     * @param band
+     *            scratch from {@link #perThreadBand(int)}
+     */
+    public static void xorBand(Table table, int q, int start, long coefficients, long[] band,
+                               long[] result) {
+        long firstBit = (long) start * q;
+        if (table instanceof HeapTable) {
+            xorBand(((HeapTable) table).getWords(), firstBit, q, coefficients, result);
+            return;
+        }
+
+        int firstWord = (int) (firstBit >>> 6);
+        int count = (int) ((firstBit + (long) WIDTH * q - 1 >>> 6) - firstWord + 1);
+        Arrays.fill(band, 0, count, 0);
+        table.xorInto(firstWord, count, band, 0);
+        xorBand(band, firstBit & 63, q, coefficients, result);
+    }
+
+    // XORs the entries of the band whose first entry starts at firstBit of words into result
+    private static void xorBand(long[] words, long firstBit, int q, long coefficients,
+                                long[] result) {
+        if (q > Long.SIZE) {
+            for (long c = coefficients; c != 0; c &= c - 1) {
+                PackedBits.xorInto(words, firstBit + (long) Long.numberOfTrailingZeros(c) * q, q,
+                                   result, 0);
+            }
+            return;
+        }
+
+        // Each entry is the bits of one word from shift on, plus the next word's if it straddles.
+        // The next word is shifted in branch free (by 64 - shift, split in two as a shift by 64 is
+        // no shift); whatever it contributes past q is masked off, so for the last word of the
+        // table the last word itself stands in for it.
+        int lastWord = words.length - 1;
+        long entries = 0;
+        for (long c = coefficients; c != 0; c &= c - 1) {
+            long bit = firstBit + (long) Long.numberOfTrailingZeros(c) * q;
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            long next = words[Math.min(word + 1, lastWord)];
+            entries ^= words[word] >>> shift | next << 1 << 63 - shift;
+        }
+        result[0] ^= entries & PackedBits.lastWordMask(q);
+    }
+
+    /**
+     * Solves for a table.
+     *
+     * @param starts
+     *            starts[i] is the first entry of key i's band, in [0, m - WIDTH]
+     * @param coefficients
+     *            coefficients[i] has bit j set if entry starts[i] + j is in key i's band; bit 0 is
+     *            always set
+     * @param rhs
+     *            what key i's band must XOR to, as entryWords(q) words at i * entryWords(q), bits
+     *            past q zero
+     * @param words
+     *            receives the table, m entries of q bits packed as in {@link PackedBits}; must be
+     *            all zero
+     * @return whether every key could be satisfied (words is left in an unspecified state if not)
+     */
+    public static boolean solve(int m, int q, int[] starts, long[] coefficients, long[] rhs,
+                                long[] words) {
+        int entryWords = PackedBits.entryWords(q);
+        if ((long) m * entryWords > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Table too large (m=" + m + "; q=" + q + ")");
+        }
+
+        // Row i, once taken, is an equation whose lowest coefficient is entry i
+        long[] rows = new long[m];
+        long[] rowRhs = new long[m * entryWords];
+        long[] pending = new long[entryWords];
+
+        for (int key = 0; key < starts.length; key++) {
+            int row = starts[key];
+            long coefficient = coefficients[key];
+            System.arraycopy(rhs, key * entryWords, pending, 0, entryWords);
+
+            for (;;) {
+                if (rows[row] == 0) {
+                    rows[row] = coefficient;
+                    System.arraycopy(pending, 0, rowRhs, row * entryWords, entryWords);
+                    break;
+                }
+
+                coefficient ^= rows[row];
+                long remaining = 0;
+                for (int w = 0; w < entryWords; w++) {
+                    pending[w] ^= rowRhs[row * entryWords + w];
+                    remaining |= pending[w];
+                }
+                if (coefficient == 0) {
+                    // The equation is a combination of earlier ones, so it holds if they agree
+                    if (remaining != 0) {
+                        return false;
+                    }
+                    break;
+                }
+
+                // Both had their lowest coefficient at row, so what's left starts further on
+                int shift = Long.numberOfTrailingZeros(coefficient);
+                row += shift;
+                coefficient >>>= shift;
+            }
+        }
+
+        // Back substitution, last row first: each row's leading entry is fixed by the entries after
+        // it. Entries of rows never taken are free and stay zero.
+        long[] entry = new long[entryWords];
+        for (int row = m - 1; row >= 0; row--) {
+            long coefficient = rows[row];
+            if (coefficient == 0) {
+                continue;
+            }
+
+            System.arraycopy(rowRhs, row * entryWords, entry, 0, entryWords);
+            for (long rest = coefficient & ~1L; rest != 0; rest &= rest - 1) {
+                PackedBits.xorInto(words, (long) (row + Long.numberOfTrailingZeros(rest)) * q, q,
+                                   entry, 0);
+            }
+            PackedBits.xorFrom(entry, 0, words, (long) row * q, q);
+        }
+        return true;
+    }
+}
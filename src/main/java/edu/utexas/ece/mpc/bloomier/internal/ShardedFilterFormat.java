@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The binary file format of a sharded filter: a directory of shard offsets followed by one
+ * {@link FilterFormat} record per shard. All values are little-endian.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic ("BLMS")
+ *      4     2  format version
+ *      6     2  reserved (zero)
+ *      8     4  shard count
+ *     12     4  CRC32 of the rest of the directory (bytes 0-11 and 16 onwards)
+ *     16   8*n  byte offset of each shard's record from the start of the file
+ *      -     -  shard records, each starting 8-byte aligned
+ * </pre>
+ */
+public final class ShardedFilterFormat {
+    public static final int MAGIC = 'B' | 'L' << 8 | 'M' << 16 | 'S' << 24;
+    public static final int VERSION = 1;
+
+    private static final int FIXED_HEADER_SIZE = 16;
+    private static final int CHECKSUM_OFFSET = 12;
+
+    private ShardedFilterFormat() {
+    }
+
+    /**
+     * @return size in bytes of the directory of a file with shardCount shards
+     */
+    public static long headerSize(int shardCount) {
+        return FIXED_HEADER_SIZE + 8L * shardCount;
+    }
+
+    /**
+     * @return the offsets at which records of the given sizes start when laid out one after another
+     */
+    public static long[] layout(long[] recordSizes) {
+        long[] offsets = new long[recordSizes.length];
+        long offset = headerSize(recordSizes.length);
+        for (int i = 0; i < recordSizes.length; i++) {
+            offsets[i] = offset;
+            offset = align(offset + recordSizes[i]);
+        }
+        return offsets;
+    }
+
+    /**
+     * Writes the directory. The records must follow in order, each padded with
+     * {@link #pad(long, WritableByteChannel)}.
+     */
+    public static void writeHeader(long[] offsets, WritableByteChannel channel) throws IOException {
+        long size = headerSize(offsets.length);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many shards (" + offsets.length + ")");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) 0);
+        buffer.putInt(offsets.length);
+        buffer.putInt(0); // checksum, filled in below
+        buffer.asLongBuffer().put(offsets);
+        buffer.putInt(CHECKSUM_OFFSET, checksum(buffer.array()));
+        buffer.position(buffer.capacity());
+        Table.drain(buffer, channel);
+    }
+
+    /**
+     * Writes the zero bytes that take a record of recordSize bytes to the next 8-byte boundary.
+     */
+    public static void pad(long recordSize, WritableByteChannel channel) throws IOException {
+        ByteBuffer padding = ByteBuffer.allocate((int) (align(recordSize) - recordSize));
+        padding.position(padding.capacity());
+        Table.drain(padding, channel);
+    }
+
+    /**
+     * Reads and validates the directory at the start of channel.
+     *
+     * @return the offsets of the shard records
+     */
+    public static long[] readHeader(ReadableByteChannel channel) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, fixed);
+        ByteBuffer buffer = ByteBuffer.allocate((int) headerSize(shardCount(fixed)))
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(fixed.array());
+        readFully(channel, buffer);
+        return parseHeader(buffer);
+    }
+
+    /**
+     * Reads and validates the directory of a sharded filter file stored at position of channel.
+     *
+     * @return the offsets of the shard records, relative to position
+     */
+    public static long[] readHeader(FileChannel channel, long position) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, position, fixed);
+        ByteBuffer buffer = ByteBuffer.allocate((int) headerSize(shardCount(fixed)))
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, position, buffer);
+        return parseHeader(buffer);
+    }
+
+    private static int shardCount(ByteBuffer fixed) throws IOException {
+        if (fixed.getInt(0) != MAGIC) {
+            throw new IOException("Not a sharded bloomier filter file (bad magic number)");
+        }
+        int version = fixed.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported sharded filter file version " + version
+                                  + " (expected " + VERSION + ")");
+        }
+        int shardCount = fixed.getInt(8);
+        if (shardCount < 1 || headerSize(shardCount) > Integer.MAX_VALUE) {
+            throw new IOException("Invalid shard count " + shardCount);
+        }
+        return shardCount;
+    }
+
+    private static long[] parseHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(CHECKSUM_OFFSET) != checksum(buffer.array())) {
+            throw new IOException("Sharded filter header checksum mismatch");
+        }
+
+        long[] offsets = new long[buffer.getInt(8)];
+        buffer.position(FIXED_HEADER_SIZE);
+        buffer.asLongBuffer().get(offsets);
+        for (int i = 0; i < offsets.length; i++) {
+            long previous = i == 0 ? headerSize(offsets.length) : offsets[i - 1];
+            if (offsets[i] < previous || offsets[i] % 8 != 0) {
+                throw new IOException("Invalid offset for shard " + i);
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Discards bytes from channel until it is positioned at target, given that it is at position.
+     */
+    public static void skip(ReadableByteChannel channel, long position, long target)
+            throws IOException {
+        if (target < position) {
+            throw new IOException("Shard records overlap");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Table.TRANSFER_BUFFER_SIZE);
+        for (long remaining = target - position; remaining > 0; remaining -= buffer.limit()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            readFully(channel, buffer);
+        }
+    }
+
+    /**
+     * @return offset rounded up to the next 8-byte boundary
+     */
+    public static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static int checksum(byte[] header) {
+        CRC32 crc = new CRC32();
+        crc.update(header, 0, CHECKSUM_OFFSET);
+        crc.update(header, FIXED_HEADER_SIZE, header.length - FIXED_HEADER_SIZE);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated sharded filter file");
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, long position, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated sharded filter file");
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Values in an array with room for every table slot, occupied or not. Fastest, but with the usual
+ * m of several times n most of the array is empty.
+ */
+public class SlotValueStore<V> extends ValueStore<V> {
+    private final AtomicReferenceArray<V> values;
+
+    public SlotValueStore(int m) {
+        values = new AtomicReferenceArray<V>(m);
+    }
+
+    @Override
+    public V get(int slot) {
+        return values.get(slot);
+    }
+
+    @Override
+    public void set(int slot, V value) {
+        values.lazySet(slot, value);
+    }
+
+    @Override
+    public boolean compareAndSet(int slot, V expect, V update) {
+        for (;;) {
+            V current = values.get(slot);
+            if (Objects.equals(current, expect) == false) {
+                return false;
+            }
+            // The array compares by identity, so a failure may only mean an equal value was set
+            if (values.compareAndSet(slot, current, update)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Read access to the 64-bit words backing a filter table, wherever they live. Serialized, a table
+ * is simply its words in order, each little-endian.
+ */
+public abstract class Table {
+    static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    public abstract long get(int index);
+
+    /**
+     * XORs count words starting at index into result[resultOffset...].
+     */
+    public void xorInto(int index, int count, long[] result, int resultOffset) {
+        for (int w = 0; w < count; w++) {
+            result[resultOffset + w] ^= get(index + w);
+        }
+    }
+
+    /**
+     * @return number of words in the table
+     */
+    public abstract int size();
+
+    /**
+     * Frees whatever the table holds outside the Java heap. Nothing may read the table afterwards.
+     * Heap tables have nothing to free and are left to the garbage collector.
+     */
+    public void release() {
+    }
+
+    /**
+     * Writes the serialized table to channel using bulk buffer transfers.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            if (buffer.remaining() < Long.SIZE / Byte.SIZE) {
+                drain(buffer, channel);
+            }
+            buffer.putLong(get(i));
+        }
+        drain(buffer, channel);
+    }
+
+    static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.concurrent.TimeoutException;
+
+import edu.utexas.ece.mpc.bloomier.BuildStatistics;
+
+/**
+ * Builds a table for keys known only by their index in [0, n): tries hash seeds until the keys'
+ * neighborhoods peel, then fills the table. Subclasses say how a key is hashed and what it stores.
+ * <p>
+ * {@link #fill(int, int, int, int[], byte[], int[], boolean, Entries)} is the one fill loop of
+ * every peeled table, also used by filters that find their order and matching some other way.
+ */
+public abstract class TableBuilder {
+    private final int n;
+    private final int m;
+    private final int k;
+    private final int q;
+
+    private long hashSeed;
+    private BuildStatistics statistics;
+
+    /**
+     * What a fill needs of each key.
+     */
+    public interface Entries {
+
+        /**
+         * Stores key's q-bit mask XORed with its encoded value in entry, all bits past q zero.
+         *
+         * @param key
+         *            index of the key
+         * @param tau
+         *            position within key's neighborhood of its storage slot, for tables that store
+         *            it as the value
+         */
+        void entry(int key, int tau, long[] entry);
+    }
+
+    protected TableBuilder(int n, int m, int k, int q) {
+        if ((long) n * k > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many keys (" + n + ") for neighborhood size k="
+                                               + k);
+        }
+        if (PackedBits.words(m, q) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Table too large (m=" + m + "; q=" + q + ")");
+        }
+
+        this.n = n;
+        this.m = m;
+        this.k = k;
+        this.q = q;
+    }
+
+    /**
+     * Stores the neighborhood of key (an index) under hashSeed in neighborhood. Neighborhoods must
+     * be free of repeats.
+     */
+    protected abstract void neighborhood(int key, long hashSeed, int[] neighborhood);
+
+    /**
+     * See {@link Entries#entry(int, int, long[])}, with key's mask hashed under hashSeed.
+     */
+    protected abstract void entry(int key, long hashSeed, int tau, long[] entry);
+
+    /**
+     * Tries hash seeds from firstSeed on (wrapping around) until the neighborhoods peel, then
+     * fills the table.
+     *
+     * @param deadline
+     *            {@link System#currentTimeMillis()} past which to give up, checked before each seed
+     * @param keySet
+     *            names the keys in the message of the TimeoutException, e.g. "shard 3"
+     * @return the words of the filled table
+     */
+    public long[] build(long firstSeed, long deadline, String keySet) throws TimeoutException {
+        int[] neighborhood = new int[k];
+        int[] neighborhoods = new int[n * k];
+        int[] order = new int[n];
+        byte[] tau = new byte[n];
+        Peeler.Progress progress = new Peeler.Progress();
+        long seedAttempts = 0;
+        int stuckKeys = 0;
+        long hashNanos = 0;
+        long peelNanos = 0;
+        long bytesAllocated = n * (k * 4L + 4 + 1);
+
+        for (hashSeed = firstSeed;; hashSeed++) { // will wrap around if firstSeed isn't the minimum
+            if (System.currentTimeMillis() > deadline) {
+                throw timeoutException(keySet, m, k, q,
+                                       new BuildStatistics(n, m, seedAttempts, progress.rounds,
+                                                           stuckKeys, hashNanos, peelNanos, 0,
+                                                           bytesAllocated));
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                neighborhood(i, hashSeed, neighborhood);
+                System.arraycopy(neighborhood, 0, neighborhoods, i * k, k);
+            }
+
+            long hashed = System.nanoTime();
+            boolean peeled = Peeler.peel(neighborhoods, k, m, true, order, tau, progress);
+            seedAttempts++;
+            hashNanos += hashed - start;
+            peelNanos += System.nanoTime() - hashed;
+            bytesAllocated += 3L * m * 4; // the peeler's per slot arrays
+            if (peeled) {
+                break;
+            }
+            stuckKeys = n - progress.peeled;
+        }
+
+        long start = System.nanoTime();
+        final long seed = hashSeed;
+        long[] words = fill(m, k, q, order, tau, neighborhoods, true, new Entries() {
+
+            @Override
+            public void entry(int key, int tau, long[] entry) {
+                TableBuilder.this.entry(key, seed, tau, entry);
+            }
+        });
+        statistics = new BuildStatistics(n, m, seedAttempts, progress.rounds, stuckKeys,
+                                         hashNanos, peelNanos, System.nanoTime() - start,
+                                         bytesAllocated + words.length * 8L);
+        return words;
+    }
+
+    /**
+     * @return the seed the last {@link #build(long, long, String)} settled on
+     */
+    public long getHashSeed() {
+        return hashSeed;
+    }
+
+    /**
+     * @return what the last {@link #build(long, long, String)} took
+     */
+    public BuildStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Fills a table of m q-bit entries so that the XOR of each key's mask and the entries of its
+     * neighborhood is its encoded value. Keys are filled in reverse peeling order: each is stored
+     * in its matched neighbor, which no later key touches.
+     *
+     * @param order
+     *            key indices in filling order
+     * @param tau
+     *            tau[i] is the position within the neighborhood of key order[i] of its storage slot
+     *            (an unsigned byte)
+     * @param neighborhoods
+     *            the neighborhood of key index i at [i*k, (i+1)*k)
+     * @param distinct
+     *            whether neighborhoods are free of repeats; if not, repeats are skipped, as XORing
+     *            an entry twice would cancel it out
+     * @return the table's words
+     */
+    public static long[] fill(int m, int k, int q, int[] order, byte[] tau, int[] neighborhoods,
+                              boolean distinct, Entries entries) {
+        long[] words = new long[(int) PackedBits.words(m, q)];
+        long[] valueToStore = new long[PackedBits.entryWords(q)];
+        for (int i = 0; i < order.length; i++) {
+            int key = order[i];
+            entries.entry(key, tau[i] & 0xff, valueToStore);
+
+            // The storage entry itself is still empty, so XORing it in as well is harmless
+            int offset = key * k;
+            for (int j = 0; j < k; j++) {
+                if (distinct || Peeler.isRepeat(neighborhoods, offset, j) == false) {
+                    PackedBits.xorInto(words, (long) neighborhoods[offset + j] * q, q,
+                                       valueToStore, 0);
+                }
+            }
+
+            // The storage entry is all zero, so XORing the value in stores it
+            PackedBits.xorFrom(valueToStore, 0, words,
+                               (long) neighborhoods[offset + (tau[i] & 0xff)] * q, q);
+        }
+        return words;
+    }
+
+    /**
+     * @return the exception a build of keySet gives up with, statistics in its message
+     */
+    public static TimeoutException timeoutException(String keySet, int m, int k, int q,
+                                                    BuildStatistics statistics) {
+        return new TimeoutException(
+                                    String.format("Could not find order and matching for %s in alloted time with specified parameters (m=%d;k=%d;q=%d): %s",
+                                                  keySet, m, k, q, statistics));
+    }
+}
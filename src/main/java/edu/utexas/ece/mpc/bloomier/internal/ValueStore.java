@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+/**
+ * Where a mutable filter keeps its values: one per occupied table slot, found by the slot number.
+ * <p>
+ * Implementations are safe for concurrent use without locking: {@link #set(int, Object)} is a
+ * release and {@link #get(int)} an acquire, so a reader that sees a value also sees everything its
+ * writer did before setting it.
+ */
+public abstract class ValueStore<V> {
+
+    /**
+     * @return the value of the key stored at slot
+     */
+    public abstract V get(int slot);
+
+    public abstract void set(int slot, V value);
+
+    /**
+     * Atomically sets the value at slot to update if it is currently equal to expect (by
+     * {@link Object#equals(Object)}, null matching null), whatever the store.
+     *
+     * @return whether the value was set
+     */
+    public abstract boolean compareAndSet(int slot, V expect, V update);
+}
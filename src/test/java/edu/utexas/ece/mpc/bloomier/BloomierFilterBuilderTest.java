@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+public class BloomierFilterBuilderTest {
+    @Rule
+    public final ErrorCollector errorCollector = new ErrorCollector();
+
+    private final Map<Integer, Integer> originalMap = new HashMap<Integer, Integer>();
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 10000; i++) {
+            originalMap.put(i, i * 7);
+        }
+    }
+
+    @Test
+    public void parameters() {
+        BloomierFilterBuilder<Integer, Integer> builder =
+                new BloomierFilterBuilder<Integer, Integer>(10000, ValueCodecs.ints(), 1e-6);
+
+        assertEquals(3, builder.getK());
+        assertEquals(12332, builder.getM());
+        // 32 value bits and 20 spare bits
+        assertEquals(52, builder.getQ());
+        assertEquals(Math.pow(2, -20), builder.getFalsePositiveRate(), 0);
+        assertEquals(12332 * 52 / 10000.0, builder.getBitsPerKey(), 1e-9);
+        assertTrue(builder.getExpectedAttempts() >= 1 && builder.getExpectedAttempts() < 1.5);
+    }
+
+    @Test
+    public void qIsExact() {
+        BloomierFilterBuilder<Integer, Long> builder =
+                new BloomierFilterBuilder<Integer, Long>(100, ValueCodecs.longs(), 0.01);
+        // 64 value bits and 7 spare bits
+        assertEquals(71, builder.getQ());
+    }
+
+    @Test
+    public void wideValuesAreWordAligned() throws Exception {
+        // 48 bytes and a length byte, 392 bits; 7 spare bits make 399, rounded up to 448
+        BloomierFilterBuilder<Integer, byte[]> builder =
+                new BloomierFilterBuilder<Integer, byte[]>(1000, ValueCodecs.byteArrays(48), 0.01);
+        assertEquals(448, builder.getQ());
+        assertEquals(Math.pow(2, -56), builder.getFalsePositiveRate(), 0);
+
+        Map<Integer, byte[]> payloads = new HashMap<Integer, byte[]>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] payload = new byte[48];
+            Arrays.fill(payload, (byte) i);
+            payloads.put(i, payload);
+        }
+        ImmutableBloomierFilter<Integer, byte[]> filter = builder.build(payloads, 10000);
+        for (Map.Entry<Integer, byte[]> entry: payloads.entrySet()) {
+            assertArrayEquals(entry.getValue(), filter.get(entry.getKey()));
+        }
+        assertNull(filter.get(1000));
+    }
+
+    @Test
+    public void build() throws Exception {
+        ImmutableBloomierFilter<Integer, Integer> filter =
+                new BloomierFilterBuilder<Integer, Integer>(originalMap.size(), ValueCodecs.ints(),
+                                                            1e-6).build(originalMap, 10000);
+
+        for (Map.Entry<Integer, Integer> entry: originalMap.entrySet()) {
+            errorCollector.checkThat(filter.get(entry.getKey()), is(equalTo(entry.getValue())));
+        }
+    }
+
+    @Test
+    public void buildSharded() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ShardedBloomierFilter<Integer, Integer> filter =
+                    new BloomierFilterBuilder<Integer, Integer>(originalMap.size(),
+                                                                ValueCodecs.ints(), 1e-6)
+                            .buildSharded(originalMap, 16, 10000, pool);
+
+            for (Map.Entry<Integer, Integer> entry: originalMap.entrySet()) {
+                errorCollector.checkThat(filter.get(entry.getKey()),
+                                         is(equalTo(entry.getValue())));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyKeys() throws Exception {
+        new BloomierFilterBuilder<Integer, Integer>(100, ValueCodecs.ints(), 1e-6)
+                .build(originalMap, 10000);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BloomierFilterHandleTest {
+    private ImmutableBloomierFilter<Integer, Integer> first;
+    private ImmutableBloomierFilter<Integer, Integer> second;
+    private BloomierFilterHandle<Integer, Integer> uut;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        first = mapped(build(1));
+        second = build(2);
+        uut = new BloomierFilterHandle<Integer, Integer>(first);
+    }
+
+    private ImmutableBloomierFilter<Integer, Integer> build(int multiplier) throws Exception {
+        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i * multiplier);
+        }
+        return new ImmutableBloomierFilter<Integer, Integer>(map, 2000, 3, 48, ValueCodecs.ints(),
+                                                             10000);
+    }
+
+    private ImmutableBloomierFilter<Integer, Integer> mapped(
+            ImmutableBloomierFilter<Integer, Integer> filter) throws Exception {
+        File file = temporaryFolder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            filter.writeTo(out);
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            return ImmutableBloomierFilter.map(in.getChannel(), 0, ValueCodecs.ints(), true);
+        }
+    }
+
+    @Test
+    public void publishSwapsVersions() {
+        assertEquals(Integer.valueOf(7), uut.get(7));
+        uut.publish(second);
+        assertEquals(Integer.valueOf(14), uut.get(7));
+    }
+
+    @Test
+    public void pinnedVersionOutlivesPublish() {
+        try (BloomierFilterHandle.Snapshot<Integer, Integer> snapshot = uut.acquire()) {
+            uut.publish(second);
+
+            // Still mapped, since this reader pins it
+            assertSame(first, snapshot.getFilter());
+            assertEquals(Integer.valueOf(7), snapshot.getFilter().get(7));
+            assertEquals(Integer.valueOf(14), uut.get(7));
+        }
+    }
+
+    @Test
+    public void publishingViewOfCurrentRejected() {
+        try {
+            uut.publish(first.withLookupListener(new LookupCounters()));
+            fail("Publishing a view of the current version's table not rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            uut.publish(first);
+            fail("Publishing the current version again not rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // The mapped table is still there
+        assertEquals(Integer.valueOf(7), uut.get(7));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closingTwiceDetected() {
+        BloomierFilterHandle.Snapshot<Integer, Integer> snapshot = uut.acquire();
+        uut.publish(second);
+        snapshot.close();
+        snapshot.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedHandleRejectsReaders() {
+        uut.close();
+        uut.acquire();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+public class DynamicBloomierFilterTest {
+    private final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+
+    // Runs rebuilds only when told to
+    private final List<Runnable> pendingRebuilds = new ArrayList<Runnable>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            pendingRebuilds.add(command);
+        }
+    };
+
+    // Like executor, but throws instead while rejectRebuilds is set
+    private boolean rejectRebuilds;
+    private final Executor rejectingExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            if (rejectRebuilds) {
+                throw new RejectedExecutionException("Rejected for the test");
+            }
+            executor.execute(command);
+        }
+    };
+
+    private DynamicBloomierFilter<Integer, Integer> uut;
+
+    @Rule
+    public final ErrorCollector errorCollector = new ErrorCollector();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            expected.put(i, i);
+        }
+
+        uut = new DynamicBloomierFilter<Integer, Integer>(expected, 3, 32, 2,
+                                                          KeyFunnels.hashCodes(), 100, executor,
+                                                          10000);
+    }
+
+    @Test
+    public void newKeysAreStashedUntilRebuilt() {
+        for (int i = 1000; i < 1099; i++) {
+            put(i, -i);
+        }
+        put(5, 55); // existing keys are updated in place
+        Assert.assertEquals(99, uut.getStashSize());
+        Assert.assertTrue(pendingRebuilds.isEmpty());
+        checkAll();
+
+        put(1099, -1099);
+        Assert.assertEquals(1, pendingRebuilds.size());
+
+        pendingRebuilds.remove(0).run();
+        Assert.assertEquals(0, uut.getStashSize());
+        checkAll();
+    }
+
+    @Test
+    public void updatesDuringRebuildSurviveIt() {
+        for (int i = 1000; i < 1100; i++) {
+            put(i, -i);
+        }
+
+        // The rebuild has started but not yet run
+        put(5, 55);
+        put(1005, 1005);
+        put(2000, 2000);
+        checkAll();
+
+        pendingRebuilds.remove(0).run();
+        Assert.assertEquals(3, uut.getStashSize());
+        checkAll();
+    }
+
+    @Test
+    public void newKeysNeverOverwriteMembers() throws Exception {
+        // With q=8 and k=3 the filter mistakes about 1 in 64 non-members for members
+        uut = new DynamicBloomierFilter<Integer, Integer>(expected, 3, 8, 2,
+                                                          KeyFunnels.hashCodes(), 100000, executor,
+                                                          10000);
+        for (int i = 1000; i < 11000; i++) {
+            put(i, -i);
+        }
+        Assert.assertEquals(10000, uut.getStashSize());
+        checkAll();
+    }
+
+    @Test
+    public void rejectedRebuildKeepsStash() throws Exception {
+        rejectRebuilds = true;
+        uut = new DynamicBloomierFilter<Integer, Integer>(expected, 3, 32, 2,
+                                                          KeyFunnels.hashCodes(), 100,
+                                                          rejectingExecutor, 10000);
+        for (int i = 1000; i < 1099; i++) {
+            put(i, -i);
+        }
+        try {
+            put(1099, -1099);
+            Assert.fail("Rejection not reported");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        Assert.assertEquals(100, uut.getStashSize());
+        checkAll();
+
+        // Updates still work, and the next one past the limit tries again
+        put(5, 55);
+        Assert.assertEquals(100, uut.getStashSize());
+        rejectRebuilds = false;
+        put(1100, -1100);
+        Assert.assertEquals(1, pendingRebuilds.size());
+        pendingRebuilds.remove(0).run();
+        Assert.assertEquals(0, uut.getStashSize());
+        checkAll();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullValuesRejected() {
+        uut.put(5, null);
+    }
+
+    private void put(int key, int value) {
+        uut.put(key, value);
+        expected.put(key, value);
+    }
+
+    private void checkAll() {
+        for (Entry<Integer, Integer> entry: expected.entrySet()) {
+            errorCollector.checkThat(uut.get(entry.getKey()), is(equalTo(entry.getValue())));
+        }
+    }
+}
@@ -15,17 +15,36 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
 
 import edu.utexas.ece.mpc.bloomier.ImmutableBloomierFilter;
+import edu.utexas.ece.mpc.bloomier.internal.FilterFormat;
 
 public class ImmutableBloomierFilterTest {
     ImmutableBloomierFilter<Integer, Integer> uut;
@@ -33,6 +52,9 @@ public class ImmutableBloomierFilterTest {
     @Rule
     public final ErrorCollector errorCollector = new ErrorCollector();
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 	private final HashMap<Integer, Integer> originalMap = new HashMap<Integer, Integer>();
 
     @Before
@@ -57,6 +79,443 @@ public class ImmutableBloomierFilterTest {
         Assert.assertNull(result);
     }
     
+    @Test
+    public void tableRoundTrip() {
+        ImmutableBloomierFilter<Integer, Integer> copy =
+                new ImmutableBloomierFilter<Integer, Integer>(uut.getM(), uut.getK(), uut.getQ(),
+                                                              Integer.class, uut.getHashSeed(),
+                                                              uut.getTable(),
+                                                              uut.getHashAlgorithm());
+        for (Integer key: originalMap.keySet()) {
+            errorCollector.checkThat(copy.get(key), is(equalTo(originalMap.get(key))));
+        }
+    }
+
+    @Test
+    public void baselineTableReload() throws Exception {
+        // Built by the original release from keys 0...49 mapped to 7 times themselves, dumped as
+        // m, k, q and the hash seed followed by each entry's q / 8 bytes
+        ImmutableBloomierFilter<Integer, Integer> reloaded;
+        try (DataInputStream in = new DataInputStream(
+                getClass().getResourceAsStream("baseline-md5-table.bin"))) {
+            int m = in.readInt();
+            int k = in.readInt();
+            int q = in.readInt();
+            long hashSeed = in.readLong();
+            byte[][] table = new byte[m][q / 8];
+            for (byte[] entry: table) {
+                in.readFully(entry);
+            }
+            reloaded = new ImmutableBloomierFilter<Integer, Integer>(m, k, q, Integer.class,
+                                                                     hashSeed, table);
+        }
+
+        assertEquals(HashAlgorithm.MD5, reloaded.getHashAlgorithm());
+        for (int i = 0; i < 50; i++) {
+            errorCollector.checkThat(reloaded.get(i), is(equalTo(i * 7)));
+        }
+    }
+
+    @Test
+    public void mappedTable() throws Exception {
+        File file = temporaryFolder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[3]); // make sure a non-zero position works
+            uut.writeTable(out.getChannel());
+        }
+
+        ImmutableBloomierFilter<Integer, Integer> mapped;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            mapped = new ImmutableBloomierFilter<Integer, Integer>(uut.getM(), uut.getK(),
+                                                                   uut.getQ(), Integer.class,
+                                                                   uut.getHashSeed(),
+                                                                   uut.getHashAlgorithm(),
+                                                                   in.getChannel(), 3);
+        }
+
+        for (Integer key: originalMap.keySet()) {
+            errorCollector.checkThat(mapped.get(key), is(equalTo(originalMap.get(key))));
+        }
+        Assert.assertNull(mapped.get(2000));
+    }
+
+    @Test
+    public void streamRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        uut.writeTo(out);
+
+        ImmutableBloomierFilter<Integer, Integer> read =
+                ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(out.toByteArray()),
+                                                 Integer.class);
+        for (Integer key: originalMap.keySet()) {
+            errorCollector.checkThat(read.get(key), is(equalTo(originalMap.get(key))));
+        }
+    }
+
+    @Test
+    public void mappedFileRoundTrip() throws Exception {
+        File file = temporaryFolder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            uut.writeTo(out.getChannel());
+        }
+
+        ImmutableBloomierFilter<Integer, Integer> mapped;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            mapped = ImmutableBloomierFilter.map(in.getChannel(), 0, Integer.class, true);
+        }
+        for (Integer key: originalMap.keySet()) {
+            errorCollector.checkThat(mapped.get(key), is(equalTo(originalMap.get(key))));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptTableDetected() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        uut.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        bytes[100] ^= 1; // inside the table
+
+        ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(bytes), Integer.class);
+    }
+
+    @Test
+    public void fixedWidthCodec() throws Exception {
+        HashMap<Integer, String> names = new HashMap<Integer, String>();
+        for (int i = 0; i < 1000; i++) {
+            names.put(i, "name" + i);
+        }
+
+        // 8 spare bits past the 8-byte strings and their length byte
+        ImmutableBloomierFilter<Integer, String> strings =
+                new ImmutableBloomierFilter<Integer, String>(names, names.size() * 2, 3, 80,
+                                                             ValueCodecs.utf8Strings(8), 10000);
+        for (Integer key: names.keySet()) {
+            errorCollector.checkThat(strings.get(key), is(equalTo(names.get(key))));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        strings.writeTo(out);
+        ImmutableBloomierFilter<Integer, String> read =
+                ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(out.toByteArray()),
+                                                 ValueCodecs.utf8Strings(8));
+        for (Integer key: names.keySet()) {
+            errorCollector.checkThat(read.get(key), is(equalTo(names.get(key))));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void codecWiderThanEntries() throws Exception {
+        new ImmutableBloomierFilter<Integer, Long>(new HashMap<Integer, Long>(), 10, 3, 32,
+                                                   ValueCodecs.longs(), 10000);
+    }
+
+    @Test
+    public void contains() throws Exception {
+        // 16 fingerprint bits
+        ImmutableBloomierFilter<Integer, Integer> ints =
+                new ImmutableBloomierFilter<Integer, Integer>(originalMap, 2000, 3, 48,
+                                                              ValueCodecs.ints(), 10000);
+        Assert.assertEquals(16, ints.getFingerprintBits());
+        Assert.assertEquals(1.0 / 65536, ints.getFalsePositiveRate(), 0);
+
+        for (Integer key: originalMap.keySet()) {
+            errorCollector.checkThat(ints.contains(key), is(true));
+        }
+        int falsePositives = 0;
+        for (int i = 1000; i < 101000; i++) {
+            if (ints.contains(i)) {
+                falsePositives++;
+            }
+        }
+        // About 1.5 expected
+        Assert.assertTrue("" + falsePositives, falsePositives < 10);
+    }
+
+    @Test
+    public void ribbon() throws Exception {
+        // 1.15 entries per key plus the band width
+        ImmutableBloomierFilter<Integer, Integer> ribbon =
+                ImmutableBloomierFilter.ribbon(originalMap, 1214, 48, KeyFunnels.hashCodes(),
+                                               ValueCodecs.ints(), 10000);
+        Assert.assertEquals(HashAlgorithm.MURMUR3_128_RIBBON, ribbon.getHashAlgorithm());
+        Assert.assertEquals(64, ribbon.getK());
+        Assert.assertTrue(ribbon.getBuildStatistics().getSeedAttempts() >= 1);
+
+        for (Integer key: originalMap.keySet()) {
+            errorCollector.checkThat(ribbon.get(key), is(equalTo(originalMap.get(key))));
+        }
+        Integer[] values = new Integer[3];
+        ribbon.getAll(new Integer[] { 1, 2, 3 }, values);
+        Assert.assertArrayEquals(new Integer[] { 1, 2, 3 }, values);
+        int falsePositives = 0;
+        for (int i = 1000; i < 101000; i++) {
+            if (ribbon.contains(i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("" + falsePositives, falsePositives < 10);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ribbon.writeTo(out);
+        ImmutableBloomierFilter<Integer, Integer> read =
+                ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(out.toByteArray()),
+                                                 ValueCodecs.ints());
+        File file = temporaryFolder.newFile();
+        try (FileOutputStream fileOut = new FileOutputStream(file)) {
+            ribbon.writeTo(fileOut.getChannel());
+        }
+        ImmutableBloomierFilter<Integer, Integer> mapped;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            mapped = ImmutableBloomierFilter.map(in.getChannel(), 0, ValueCodecs.ints(), true);
+        }
+        for (Integer key: originalMap.keySet()) {
+            errorCollector.checkThat(read.get(key), is(equalTo(originalMap.get(key))));
+            errorCollector.checkThat(mapped.get(key), is(equalTo(originalMap.get(key))));
+        }
+        Assert.assertNull(read.get(2000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ribbonNeedsBandWidthK() {
+        new ImmutableBloomierFilter<Integer, Integer>(1000, 3, 32, ValueCodecs.ints(), 0,
+                                                      new byte[1000][4],
+                                                      HashAlgorithm.MURMUR3_128_RIBBON);
+    }
+
+    @Test
+    public void containsWithoutFingerprintBits() {
+        // Kryo takes all of q = 32, so only the codec can reject non-members
+        Assert.assertEquals(0, uut.getFingerprintBits());
+        for (Integer key: originalMap.keySet()) {
+            errorCollector.checkThat(uut.contains(key), is(true));
+        }
+        for (int i = 1000; i < 11000; i++) {
+            errorCollector.checkThat("key " + i, uut.contains(i), is(uut.get(i) != null));
+        }
+        int members = 0;
+        for (int i = 1000; i < 11000; i++) {
+            if (uut.contains(i)) {
+                members++;
+            }
+        }
+        Assert.assertTrue("" + members, members < 2000);
+    }
+
+    @Test
+    public void buildStatistics() throws Exception {
+        BuildStatistics statistics = uut.getBuildStatistics();
+        Assert.assertTrue(statistics.getSeedAttempts() >= 1);
+        Assert.assertTrue(statistics.getPeelRounds() >= 1);
+        Assert.assertEquals(0.1, statistics.getFillRatio(), 1e-9);
+        Assert.assertTrue(statistics.getHashNanos() > 0 && statistics.getFillNanos() > 0);
+        // At least the neighborhoods and the table
+        Assert.assertTrue(statistics.getBytesAllocated() > 1000 * 10 * 4 + 10000 * 4);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        uut.writeTo(out);
+        ImmutableBloomierFilter<Integer, Integer> read =
+                ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(out.toByteArray()),
+                                                 Integer.class);
+        Assert.assertNull(read.getBuildStatistics());
+    }
+
+    @Test
+    public void lookupCounters() throws Exception {
+        // 16 spare bits, so nearly every non-member is detected
+        ImmutableBloomierFilter<Integer, Integer> ints =
+                new ImmutableBloomierFilter<Integer, Integer>(originalMap, 2000, 3, 48,
+                                                              ValueCodecs.ints(), 10000);
+        LookupCounters counters = new LookupCounters();
+        ImmutableBloomierFilter<Integer, Integer> observed = ints.withLookupListener(counters);
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(Integer.valueOf(i), observed.get(i));
+        }
+        for (int i = 2000; i < 3000; i++) {
+            observed.get(i);
+        }
+        observed.getAll(new Integer[] { 1, 2, 3 }, new Integer[3]);
+        ints.get(1); // unobserved
+
+        Assert.assertEquals(1103, counters.getGets());
+        Assert.assertTrue(counters.getFound() >= 103);
+        Assert.assertTrue(counters.getNonMembers() > 900);
+        Assert.assertEquals(counters.getGets(), counters.getFound() + counters.getNonMembers()
+                                                + counters.getDecodeFailures());
+    }
+
+    @Test
+    public void entriesTakeExactlyQBits() throws Exception {
+        HashMap<Integer, Byte> bytes = new HashMap<Integer, Byte>();
+        HashMap<Integer, Short> shorts = new HashMap<Integer, Short>();
+        for (Integer key: originalMap.keySet()) {
+            bytes.put(key, (byte) (key * 7));
+            shorts.put(key, (short) (key * 31));
+        }
+
+        checkExactWidth(bytes, 12, ValueCodecs.bytes());
+        checkExactWidth(shorts, 20, ValueCodecs.shorts());
+        checkExactWidth(originalMap, 40, ValueCodecs.ints());
+    }
+
+    private <V> void checkExactWidth(Map<Integer, V> map, int q, ValueCodec<V> codec)
+            throws Exception {
+        int m = 2 * map.size() + 1;
+        ImmutableBloomierFilter<Integer, V> filter =
+                new ImmutableBloomierFilter<Integer, V>(map, m, 3, q, codec, 10000);
+        for (Integer key: map.keySet()) {
+            errorCollector.checkThat(filter.get(key), is(equalTo(map.get(key))));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filter.writeTo(out);
+        long tableWords = ((long) m * q + 63) / 64;
+        assertEquals(FilterFormat.HEADER_SIZE + tableWords * 8 + 4, out.size());
+
+        ImmutableBloomierFilter<Integer, V> read =
+                ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(out.toByteArray()),
+                                                 codec);
+        ImmutableBloomierFilter<Integer, V> copy =
+                new ImmutableBloomierFilter<Integer, V>(m, 3, q, codec, filter.getHashSeed(),
+                                                        filter.getTable(),
+                                                        filter.getHashAlgorithm());
+        assertEquals((q + 7) / 8, filter.getTable()[0].length);
+        for (Integer key: map.keySet()) {
+            errorCollector.checkThat(read.get(key), is(equalTo(map.get(key))));
+            errorCollector.checkThat(copy.get(key), is(equalTo(map.get(key))));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedVersionRejected() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        uut.writeTo(out);
+        ByteBuffer file = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        file.putShort(4, (short) (FilterFormat.VERSION + 1));
+        file.putInt(40, crc(file.array(), 0, 40));
+
+        ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(file.array()), Integer.class);
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    @Test(expected = IOException.class)
+    public void codecMismatchDetected() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        uut.writeTo(out);
+
+        ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(out.toByteArray()),
+                                         ValueCodecs.ints());
+    }
+
+    @Test(expected = IOException.class)
+    public void codecParameterMismatchDetected() throws Exception {
+        Map<Integer, byte[]> map = new HashMap<Integer, byte[]>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, new byte[] { (byte) i });
+        }
+        ImmutableBloomierFilter<Integer, byte[]> filter =
+                new ImmutableBloomierFilter<Integer, byte[]>(map, 300, 3, 160,
+                                                             ValueCodecs.byteArrays(16), 10000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filter.writeTo(out);
+
+        ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(out.toByteArray()),
+                                         ValueCodecs.byteArrays(8));
+    }
+
+    @Test
+    public void batchLookup() {
+        // Spans several batches, with non-members mixed in
+        Integer[] keys = new Integer[300];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i % 3 == 0 ? 5000 + i : i;
+        }
+        Integer[] values = new Integer[keys.length];
+        uut.getAll(keys, values);
+
+        for (int i = 0; i < keys.length; i++) {
+            errorCollector.checkThat(values[i], is(equalTo(uut.get(keys[i]))));
+        }
+    }
+
+    @Test
+    public void concurrentReaders() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int wrong = 0;
+                        for (int pass = 0; pass < 20; pass++) {
+                            for (Integer key: originalMap.keySet()) {
+                                if (originalMap.get(key).equals(uut.get(key)) == false) {
+                                    wrong++;
+                                }
+                            }
+                        }
+                        return wrong;
+                    }
+                }));
+            }
+
+            for (Future<Integer> result: results) {
+                assertEquals(Integer.valueOf(0), result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void keysSharingHashCodes() throws Exception {
+        // "Aa" and "BB" have the same hash code, so all 256 of these strings do
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+        for (int i = 0; i < 256; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int bit = 0; bit < 8; bit++) {
+                key.append((i >> bit & 1) == 0 ? "Aa" : "BB");
+            }
+            map.put(key.toString(), i);
+        }
+
+        ImmutableBloomierFilter<String, Integer> filter =
+                new ImmutableBloomierFilter<String, Integer>(map, 400, 3, 48, KeyFunnels.strings(),
+                                                             ValueCodecs.ints(), 10000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filter.writeTo(out);
+        ImmutableBloomierFilter<String, Integer> copy =
+                ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(out.toByteArray()),
+                                                 KeyFunnels.strings(), ValueCodecs.ints());
+
+        for (Entry<String, Integer> entry: map.entrySet()) {
+            errorCollector.checkThat(filter.get(entry.getKey()), is(equalTo(entry.getValue())));
+            errorCollector.checkThat(copy.get(entry.getKey()), is(equalTo(entry.getValue())));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void funnelMismatchDetected() throws Exception {
+        HashMap<Long, Integer> map = new HashMap<Long, Integer>();
+        for (long i = 0; i < 100; i++) {
+            map.put(i << 32, (int) i); // hash codes alone would collide
+        }
+        ImmutableBloomierFilter<Long, Integer> filter =
+                new ImmutableBloomierFilter<Long, Integer>(map, 200, 3, 48, KeyFunnels.longs(),
+                                                           ValueCodecs.ints(), 10000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filter.writeTo(out);
+
+        ImmutableBloomierFilter.readFrom(new ByteArrayInputStream(out.toByteArray()),
+                                         ValueCodecs.ints());
+    }
+
     @Test
 	public void testAllMembers() throws Exception {
     	final Set<Entry<Integer, Integer>> entrySet = this.originalMap.entrySet();
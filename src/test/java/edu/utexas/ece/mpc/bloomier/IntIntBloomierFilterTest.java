@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+public class IntIntBloomierFilterTest {
+    private static final int MISSING = Integer.MIN_VALUE;
+
+    private IntIntBloomierFilter uut;
+    private final int[] keys = new int[1000];
+    private final int[] values = new int[1000];
+
+    @Rule
+    public final ErrorCollector errorCollector = new ErrorCollector();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+            values[i] = -i;
+        }
+
+        uut = new IntIntBloomierFilter(keys, values, keys.length * 10, 10, 64, 10000);
+    }
+
+    @Test
+    public void member() {
+        Assert.assertEquals(-1, uut.get(1, MISSING));
+    }
+
+    @Test
+    public void notMember() {
+        Assert.assertEquals(MISSING, uut.get(2000, MISSING));
+    }
+
+    @Test
+    public void contains() {
+        Assert.assertTrue(uut.contains(1));
+        Assert.assertFalse(uut.contains(2000));
+    }
+
+    @Test
+    public void testAllMembers() {
+        for (int i = 0; i < keys.length; i++) {
+            errorCollector.checkThat(uut.get(keys[i], MISSING), is(equalTo(values[i])));
+        }
+    }
+
+    @Test
+    public void batchLookup() {
+        // Members followed by as many non-members, spanning more than one widening chunk
+        int[] batch = new int[2 * keys.length + 100];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = i;
+        }
+
+        int[] results = new int[batch.length];
+        uut.getAll(batch, results, MISSING);
+        for (int i = 0; i < batch.length; i++) {
+            errorCollector.checkThat(results[i], is(equalTo(uut.get(batch[i], MISSING))));
+        }
+    }
+}
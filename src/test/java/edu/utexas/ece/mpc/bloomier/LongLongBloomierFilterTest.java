@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+public class LongLongBloomierFilterTest {
+    private static final long MISSING = Long.MIN_VALUE;
+
+    private LongLongBloomierFilter uut;
+    private final long[] keys = new long[1000];
+    private final long[] values = new long[1000];
+
+    @Rule
+    public final ErrorCollector errorCollector = new ErrorCollector();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < keys.length; i++) {
+            // Keys differing only in their upper 32 bits must still be told apart
+            keys[i] = (long) i << 32 | 7;
+            values[i] = -i * 0x0123456789abcdefL;
+        }
+
+        uut = new LongLongBloomierFilter(keys, values, keys.length * 10, 10, 96, 10000);
+    }
+
+    @Test
+    public void member() {
+        Assert.assertEquals(values[1], uut.get(keys[1], MISSING));
+    }
+
+    @Test
+    public void notMember() {
+        Assert.assertEquals(MISSING, uut.get(2000L << 32 | 7, MISSING));
+    }
+
+    @Test
+    public void testAllMembers() {
+        for (int i = 0; i < keys.length; i++) {
+            errorCollector.checkThat(uut.get(keys[i], MISSING), is(equalTo(values[i])));
+        }
+    }
+
+    @Test
+    public void batchLookup() {
+        long[] batch = new long[keys.length + 1];
+        System.arraycopy(keys, 0, batch, 0, keys.length);
+        batch[keys.length] = 2000L << 32 | 7;
+
+        long[] results = new long[batch.length];
+        uut.getAll(batch, results, MISSING);
+        for (int i = 0; i < keys.length; i++) {
+            errorCollector.checkThat(results[i], is(equalTo(values[i])));
+        }
+        Assert.assertEquals(MISSING, results[keys.length]);
+    }
+
+    @Test
+    public void buildStatistics() {
+        BuildStatistics statistics = uut.getBuildStatistics();
+        Assert.assertEquals(keys.length, statistics.getKeyCount());
+        Assert.assertTrue(statistics.getSeedAttempts() >= 1);
+        Assert.assertTrue(statistics.getHashNanos() > 0 && statistics.getFillNanos() > 0);
+        // At least the neighborhoods and the table
+        Assert.assertTrue(statistics.getBytesAllocated() > 1000 * 10 * 4 + 10000 * 12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void valuesMustFit() throws Exception {
+        new LongLongBloomierFilter(keys, values, keys.length * 10, 10, 32, 10000);
+    }
+}
@@ -13,11 +13,18 @@ package edu.utexas.ece.mpc.bloomier;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -54,6 +61,20 @@ public class MutableBloomierFilterTest {
         Assert.assertNull(result);
     }
 
+    @Test
+    public void manyNonMembers() {
+        // A non-member's tau entry is arbitrary bits, which must never pick a neighbor past k
+        for (int i = 1000; i < 101000; i++) {
+            errorCollector.checkThat("key " + i, uut.get(i), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void contains() {
+        Assert.assertTrue(uut.contains(1));
+        Assert.assertFalse(uut.contains(2000));
+    }
+
     @Test
     public void testHighBoundary() {
         Integer result = uut.get(1000);
@@ -74,6 +95,32 @@ public class MutableBloomierFilterTest {
         Assert.assertNull(result);
     }
     
+    @Test
+    public void batchLookup() {
+        uut.set(5, 500);
+
+        Integer[] keys = { 5, 2000, 7, -1 };
+        Integer[] values = new Integer[keys.length];
+        uut.getAll(keys, values);
+
+        Assert.assertArrayEquals(new Integer[] { 500, null, 7, null }, values);
+    }
+
+    @Test
+    public void batchLookupOfManyKeys() {
+        // Members followed by as many non-members, spanning several batches
+        Integer[] keys = new Integer[2100];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+        }
+
+        Integer[] values = new Integer[keys.length];
+        uut.getAll(keys, values);
+        for (int i = 0; i < keys.length; i++) {
+            errorCollector.checkThat("key " + i, values[i], is(uut.get(i)));
+        }
+    }
+
     @Test(expected=IllegalArgumentException.class)
     public void testNegativeNumbers() {
 		uut.set(-1, 10);
@@ -96,6 +143,120 @@ public class MutableBloomierFilterTest {
     }
     
 
+    @Test
+    public void compact() throws Exception {
+        MutableBloomierFilter<Integer, Integer> compact =
+                MutableBloomierFilter.compact(originalMap, 2 * originalMap.size(), 3, 16,
+                                              KeyFunnels.hashCodes(), 10000);
+        checkCompact(compact);
+
+        compact.set(5, null);
+        Assert.assertNull(compact.get(5));
+    }
+
+    @Test
+    public void compactPacked() throws Exception {
+        MutableBloomierFilter<Integer, Integer> packed =
+                MutableBloomierFilter.compact(originalMap, 2 * originalMap.size(), 3, 16,
+                                              KeyFunnels.hashCodes(), ValueCodecs.ints(), 10000);
+        checkCompact(packed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compactPackedRejectsNull() throws Exception {
+        MutableBloomierFilter<Integer, Integer> packed =
+                MutableBloomierFilter.compact(originalMap, 2 * originalMap.size(), 3, 16,
+                                              KeyFunnels.hashCodes(), ValueCodecs.ints(), 10000);
+        packed.set(5, null);
+    }
+
+    @Test
+    public void compareAndSet() throws Exception {
+        checkCompareAndSet(uut);
+        checkCompareAndSet(MutableBloomierFilter.compact(originalMap, 2 * originalMap.size(), 3,
+                                                         16, KeyFunnels.hashCodes(), 10000));
+        checkCompareAndSet(MutableBloomierFilter.compact(originalMap, 2 * originalMap.size(), 3,
+                                                         16, KeyFunnels.hashCodes(),
+                                                         ValueCodecs.ints(), 10000));
+    }
+
+    // Every store compares values with equals
+    private void checkCompareAndSet(MutableBloomierFilter<Integer, Integer> filter) {
+        filter.set(5, 1000000);
+        Assert.assertFalse(filter.compareAndSet(5, 12345, 6));
+        // Equal to the current value but, being outside the Integer cache, another instance
+        Assert.assertTrue(filter.compareAndSet(5, Integer.valueOf(999999 + 1), 6));
+        Assert.assertEquals(Integer.valueOf(6), filter.get(5));
+    }
+
+    @Test
+    public void concurrentCompute() throws Exception {
+        checkConcurrentCompute(uut);
+        checkConcurrentCompute(MutableBloomierFilter.compact(originalMap, 2 * originalMap.size(),
+                                                             3, 16, KeyFunnels.hashCodes(),
+                                                             ValueCodecs.ints(), 10000));
+    }
+
+    // Threads increment a few neighboring keys at once; no increment may be lost
+    private void checkConcurrentCompute(final MutableBloomierFilter<Integer, Integer> filter)
+            throws Exception {
+        final int threads = 4;
+        final int increments = 10000;
+        final ValueUpdater<Integer> increment = new ValueUpdater<Integer>() {
+            @Override
+            public Integer update(Integer value) {
+                return value + 1;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Void>> writers = new ArrayList<Callable<Void>>();
+            for (int t = 0; t < threads; t++) {
+                writers.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < increments; i++) {
+                            filter.compute(100 + i % 4, increment);
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> result: executor.invokeAll(writers)) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int key = 100; key < 104; key++) {
+            Assert.assertEquals(Integer.valueOf(key + threads * increments / 4), filter.get(key));
+        }
+    }
+
+    private void checkCompact(MutableBloomierFilter<Integer, Integer> compact) {
+        for (Entry<Integer, Integer> entry: originalMap.entrySet()) {
+            errorCollector.checkThat(compact.get(entry.getKey()), is(equalTo(entry.getValue())));
+        }
+
+        compact.set(500, -10);
+        compact.set(501, Integer.MAX_VALUE);
+        Assert.assertEquals(Integer.valueOf(-10), compact.get(500));
+        Assert.assertEquals(Integer.valueOf(Integer.MAX_VALUE), compact.get(501));
+        Assert.assertEquals(Integer.valueOf(499), compact.get(499));
+        Assert.assertEquals(Integer.valueOf(502), compact.get(502));
+
+        // 16 fingerprint bits, plus the tau value no key has, let few non-members through
+        int falsePositives = 0;
+        for (int key = 1000; key < 11000; key++) {
+            if (compact.get(key) != null) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue(falsePositives < 10);
+    }
+
     @Test
 	public void testAllMembers() throws Exception {
     	final Set<Entry<Integer, Integer>> entrySet = this.originalMap.entrySet();
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+public class MutableIntIntBloomierFilterTest {
+    private static final int MISSING = Integer.MIN_VALUE;
+
+    private MutableIntIntBloomierFilter uut;
+    private final int[] keys = new int[1000];
+    private final int[] values = new int[1000];
+
+    @Rule
+    public final ErrorCollector errorCollector = new ErrorCollector();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+            values[i] = -i;
+        }
+
+        uut = new MutableIntIntBloomierFilter(keys, values, keys.length * 10, 10, 32, 10000);
+    }
+
+    @Test
+    public void member() {
+        Assert.assertEquals(-1, uut.get(1, MISSING));
+    }
+
+    @Test
+    public void notMember() {
+        Assert.assertEquals(MISSING, uut.get(2000, MISSING));
+        Assert.assertFalse(uut.contains(2000));
+    }
+
+    @Test
+    public void testAllMembers() {
+        for (int i = 0; i < keys.length; i++) {
+            errorCollector.checkThat(uut.get(keys[i], MISSING), is(equalTo(values[i])));
+        }
+    }
+
+    @Test
+    public void batchLookup() {
+        uut.set(1, Integer.MAX_VALUE);
+
+        int[] batch = new int[keys.length + 1];
+        System.arraycopy(keys, 0, batch, 0, keys.length);
+        batch[keys.length] = 2000;
+
+        int[] results = new int[batch.length];
+        uut.getAll(batch, results, MISSING);
+        for (int i = 0; i < keys.length; i++) {
+            int expected = i == 1 ? Integer.MAX_VALUE : values[i];
+            errorCollector.checkThat(results[i], is(equalTo(expected)));
+        }
+        Assert.assertEquals(MISSING, results[keys.length]);
+    }
+
+    @Test
+    public void set() {
+        // Neighbors share a word, so setting one must leave the other alone
+        uut.set(1, Integer.MAX_VALUE);
+        uut.set(2, Integer.MIN_VALUE + 1);
+        Assert.assertEquals(Integer.MAX_VALUE, uut.get(1, MISSING));
+        Assert.assertEquals(Integer.MIN_VALUE + 1, uut.get(2, MISSING));
+        for (int i = 3; i < keys.length; i++) {
+            errorCollector.checkThat(uut.get(keys[i], MISSING), is(equalTo(values[i])));
+        }
+    }
+
+    @Test
+    public void compareAndSet() {
+        Assert.assertFalse(uut.compareAndSet(1, 0, 5));
+        Assert.assertTrue(uut.compareAndSet(1, -1, 5));
+        Assert.assertEquals(5, uut.get(1, MISSING));
+    }
+}
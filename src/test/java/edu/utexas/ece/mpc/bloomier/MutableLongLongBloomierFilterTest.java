@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+public class MutableLongLongBloomierFilterTest {
+    private static final long MISSING = Long.MIN_VALUE;
+
+    private MutableLongLongBloomierFilter uut;
+    private final long[] keys = new long[1000];
+    private final long[] values = new long[1000];
+
+    @Rule
+    public final ErrorCollector errorCollector = new ErrorCollector();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < keys.length; i++) {
+            // Keys differing only in their upper 32 bits must still be told apart
+            keys[i] = (long) i << 32 | 7;
+            values[i] = -i * 0x0123456789abcdefL;
+        }
+
+        uut = new MutableLongLongBloomierFilter(keys, values, keys.length * 10, 10, 32, 10000);
+    }
+
+    @Test
+    public void member() {
+        Assert.assertEquals(values[1], uut.get(keys[1], MISSING));
+    }
+
+    @Test
+    public void notMember() {
+        Assert.assertEquals(MISSING, uut.get(2000L << 32 | 7, MISSING));
+        Assert.assertFalse(uut.contains(2000L << 32 | 7));
+    }
+
+    @Test
+    public void testAllMembers() {
+        for (int i = 0; i < keys.length; i++) {
+            errorCollector.checkThat(uut.get(keys[i], MISSING), is(equalTo(values[i])));
+        }
+    }
+
+    @Test
+    public void batchLookup() {
+        uut.set(keys[1], Long.MAX_VALUE);
+
+        long[] batch = new long[keys.length + 1];
+        System.arraycopy(keys, 0, batch, 0, keys.length);
+        batch[keys.length] = 2000L << 32 | 7;
+
+        long[] results = new long[batch.length];
+        uut.getAll(batch, results, MISSING);
+        for (int i = 0; i < keys.length; i++) {
+            errorCollector.checkThat(results[i], is(equalTo(i == 1 ? Long.MAX_VALUE : values[i])));
+        }
+        Assert.assertEquals(MISSING, results[keys.length]);
+    }
+
+    @Test
+    public void set() {
+        uut.set(keys[1], Long.MAX_VALUE);
+        Assert.assertEquals(Long.MAX_VALUE, uut.get(keys[1], MISSING));
+        Assert.assertEquals(values[2], uut.get(keys[2], MISSING));
+    }
+
+    @Test
+    public void compareAndSet() {
+        Assert.assertFalse(uut.compareAndSet(keys[1], values[1] + 1, 5));
+        Assert.assertTrue(uut.compareAndSet(keys[1], values[1], 5));
+        Assert.assertEquals(5, uut.get(keys[1], MISSING));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setNonMember() {
+        uut.set(2000L << 32 | 7, 1);
+    }
+}
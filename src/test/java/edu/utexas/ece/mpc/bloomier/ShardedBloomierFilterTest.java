@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+public class ShardedBloomierFilterTest {
+    private ShardedBloomierFilter<Integer, Integer> uut;
+    private final Map<Integer, Integer> originalMap = new HashMap<Integer, Integer>();
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @Rule
+    public final ErrorCollector errorCollector = new ErrorCollector();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            originalMap.put(i, -i);
+        }
+
+        uut = new ShardedBloomierFilter<Integer, Integer>(originalMap, 13000, 3, 48,
+                                                          ValueCodecs.ints(), 16, 10000, pool);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testAllMembers() {
+        for (Map.Entry<Integer, Integer> entry: originalMap.entrySet()) {
+            errorCollector.checkThat(uut.get(entry.getKey()), is(equalTo(entry.getValue())));
+        }
+    }
+
+    @Test
+    public void notMember() {
+        Assert.assertNull(uut.get(20000));
+    }
+
+    @Test
+    public void streamRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        uut.writeTo(out);
+
+        ShardedBloomierFilter<Integer, Integer> read =
+                ShardedBloomierFilter.readFrom(new ByteArrayInputStream(out.toByteArray()),
+                                               ValueCodecs.ints());
+        for (Map.Entry<Integer, Integer> entry: originalMap.entrySet()) {
+            errorCollector.checkThat(read.get(entry.getKey()), is(equalTo(entry.getValue())));
+        }
+    }
+
+    @Test
+    public void shardsAreBalanced() {
+        Assert.assertEquals(16, uut.getShardCount());
+        for (int i = 0; i < uut.getShardCount(); i++) {
+            int m = uut.getShard(i).getM();
+            errorCollector.checkThat(m > 13000 / 16 * 3 / 4 && m < 13000 / 16 * 5 / 4, is(true));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.junit.rules.TemporaryFolder;
+
+public class StreamingBloomierFilterBuilderTest {
+    private final Map<Integer, Long> originalMap = new HashMap<Integer, Long>();
+    private File file;
+
+    @Rule
+    public final ErrorCollector errorCollector = new ErrorCollector();
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            originalMap.put(i, i * 31L);
+        }
+
+        File spillDirectory = temporaryFolder.newFolder();
+        file = temporaryFolder.newFile();
+        try (StreamingBloomierFilterBuilder<Integer, Long> builder =
+                new StreamingBloomierFilterBuilder<Integer, Long>(3, 80, 1.25,
+                                                                  ValueCodecs.longs(), 8,
+                                                                  spillDirectory);
+             FileOutputStream out = new FileOutputStream(file)) {
+            builder.addAll(originalMap.entrySet().iterator());
+            builder.build(out.getChannel(), 10000);
+        }
+
+        Assert.assertEquals(0, spillDirectory.list().length);
+    }
+
+    @Test
+    public void mappedMembers() throws Exception {
+        ShardedBloomierFilter<Integer, Long> filter;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            filter = ShardedBloomierFilter.map(in.getChannel(), 0, ValueCodecs.longs(), true);
+        }
+
+        Assert.assertEquals(8, filter.getShardCount());
+        for (Map.Entry<Integer, Long> entry: originalMap.entrySet()) {
+            errorCollector.checkThat(filter.get(entry.getKey()), is(equalTo(entry.getValue())));
+        }
+        Assert.assertNull(filter.get(20000));
+    }
+
+    @Test
+    public void readMembers() throws Exception {
+        ShardedBloomierFilter<Integer, Long> filter;
+        try (FileInputStream in = new FileInputStream(file)) {
+            filter = ShardedBloomierFilter.readFrom(in, ValueCodecs.longs());
+            Assert.assertEquals(-1, in.read()); // consumed exactly
+        }
+
+        for (Map.Entry<Integer, Long> entry: originalMap.entrySet()) {
+            errorCollector.checkThat(filter.get(entry.getKey()), is(equalTo(entry.getValue())));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateKeysRejected() throws Exception {
+        try (StreamingBloomierFilterBuilder<Integer, Long> builder =
+                new StreamingBloomierFilterBuilder<Integer, Long>(3, 80, 1.25,
+                                                                  ValueCodecs.longs(), 2,
+                                                                  temporaryFolder.getRoot());
+             FileOutputStream out = new FileOutputStream(temporaryFolder.newFile())) {
+            builder.add(1, 1L);
+            builder.add(1, 2L);
+            builder.build(out.getChannel(), 10000);
+        }
+    }
+}
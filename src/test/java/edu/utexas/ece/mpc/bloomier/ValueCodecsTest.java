@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ValueCodecsTest {
+
+    private static <V> V roundTrip(ValueCodec<V> codec, V value) {
+        long[] entry = new long[(codec.getBitWidth() + Long.SIZE - 1) / Long.SIZE];
+        codec.encode(value, entry);
+        return codec.decode(entry);
+    }
+
+    @Test
+    public void primitives() {
+        assertEquals(Long.valueOf(Long.MIN_VALUE), roundTrip(ValueCodecs.longs(), Long.MIN_VALUE));
+        assertEquals(Integer.valueOf(-7), roundTrip(ValueCodecs.ints(), -7));
+        assertEquals(Short.valueOf((short) -7), roundTrip(ValueCodecs.shorts(), (short) -7));
+        assertEquals(Byte.valueOf((byte) -7), roundTrip(ValueCodecs.bytes(), (byte) -7));
+        assertEquals(Boolean.TRUE, roundTrip(ValueCodecs.booleans(), true));
+        assertEquals(Double.valueOf(-0.5), roundTrip(ValueCodecs.doubles(), -0.5));
+        assertEquals(Float.valueOf(-0.5f), roundTrip(ValueCodecs.floats(), -0.5f));
+    }
+
+    @Test
+    public void enums() {
+        ValueCodec<TimeUnit> codec = ValueCodecs.enums(TimeUnit.class);
+        assertEquals(3, codec.getBitWidth()); // 7 constants
+        for (TimeUnit unit: TimeUnit.values()) {
+            assertEquals(unit, roundTrip(codec, unit));
+        }
+
+        assertNull(codec.decode(new long[] { 7 }));
+    }
+
+    @Test
+    public void boundedInts() {
+        ValueCodec<Integer> codec = ValueCodecs.boundedInts(3);
+        assertEquals(2, codec.getBitWidth());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Integer.valueOf(i), roundTrip(codec, i));
+        }
+
+        assertNull(codec.decode(new long[] { 3 }));
+        assertEquals(1, ValueCodecs.boundedInts(1).getBitWidth());
+    }
+
+    @Test
+    public void strings() {
+        ValueCodec<String> codec = ValueCodecs.utf8Strings(13);
+        assertEquals("", roundTrip(codec, ""));
+        assertEquals("héllo wörld", roundTrip(codec, "héllo wörld"));
+
+        // Non-zero padding past the length
+        long[] entry = new long[2];
+        codec.encode("a", entry);
+        entry[1] = 1;
+        assertNull(codec.decode(entry));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void byteArrayTooLong() {
+        ValueCodecs.byteArrays(2).encode(new byte[3], new long[1]);
+    }
+
+    @Test
+    public void kryo() {
+        ValueCodec<Integer> codec = ValueCodecs.kryo(Integer.class, 4);
+        assertEquals(Integer.valueOf(1000), roundTrip(codec, 1000));
+    }
+}
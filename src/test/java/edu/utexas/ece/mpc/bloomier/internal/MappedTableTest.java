@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedTableTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void xorInto() throws Exception {
+        long[] words = { 1, 2, 4, 8, 16 };
+        File file = temporaryFolder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            new HeapTable(words).writeTo(out.getChannel());
+        }
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long[] result = { 0, 32, 64, 0 };
+            new MappedTable(in.getChannel(), 0, words.length).xorInto(1, 3, result, 1);
+            assertArrayEquals(new long[] { 0, 34, 68, 8 }, result);
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void releasedTableCantBeRead() throws Exception {
+        File file = temporaryFolder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            new HeapTable(new long[] { 1, 2, 3 }).writeTo(out.getChannel());
+        }
+
+        MappedTable table;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            table = new MappedTable(in.getChannel(), 0, 3);
+        }
+        assertEquals(2, table.get(1));
+
+        table.release();
+        table.get(1);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import edu.utexas.ece.mpc.bloomier.KeyFunnel;
+import edu.utexas.ece.mpc.bloomier.KeyFunnels;
+import edu.utexas.ece.mpc.bloomier.KeySink;
+
+public class Murmur3HashFunctionTest {
+    private static final int M = 1000;
+    private static final int K = 3;
+    private static final long SEED = 42;
+
+    private static final byte[] FOX = "The quick brown fox jumps over the lazy dog"
+            .getBytes(Charset.forName("US-ASCII"));
+
+    @Test
+    public void fingerprintIsMurmur3() {
+        long[] fingerprint = new long[2];
+        Murmur3HashFunction.fingerprint(FOX, KeyFunnels.byteArrays(), fingerprint);
+
+        // MurmurHash3_x64_128 of FOX is 6c1b07bc7bbc4be347939ac4a93c437a
+        assertArrayEquals(new long[] { 0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L }, fingerprint);
+    }
+
+    @Test
+    public void fingerprintIgnoresHowBytesArePut() {
+        KeyFunnel<byte[]> piecemeal = new KeyFunnel<byte[]>() {
+            @Override
+            public int getId() {
+                return 128;
+            }
+
+            @Override
+            public void funnel(byte[] key, KeySink sink) {
+                // Unaligned pieces of every size, so words and blocks straddle puts
+                sink.putByte(key[0]);
+                sink.putChar((char) (key[1] & 0xff | (key[2] & 0xff) << 8));
+                sink.putLong(littleEndian(key, 3, 8));
+                sink.putInt((int) littleEndian(key, 11, 4));
+                sink.putBytes(key, 15, 20);
+                sink.putLong(littleEndian(key, 35, 8));
+            }
+        };
+
+        long[] whole = new long[2];
+        long[] pieces = new long[2];
+        Murmur3HashFunction.fingerprint(FOX, KeyFunnels.byteArrays(), whole);
+        Murmur3HashFunction.fingerprint(FOX, piecemeal, pieces);
+        assertArrayEquals(whole, pieces);
+    }
+
+    @Test
+    public void hashCodeFunnelMatchesHashCodes() {
+        for (int key = -5; key < 5; key++) {
+            assertSameHash(key, KeyFunnels.hashCodes(), new Hashing() {
+                @Override
+                public void hash(int key, int[] neighborhood, long[] mask) {
+                    Murmur3HashFunction.INSTANCE.hash(key, SEED, M, neighborhood, mask);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void longFunnelMatchesLongs() {
+        for (long key = Long.MAX_VALUE - 5; key != Long.MIN_VALUE + 5; key++) {
+            final long longKey = key;
+            assertSameHash(longKey, KeyFunnels.longs(), new Hashing() {
+                @Override
+                public void hash(int unused, int[] neighborhood, long[] mask) {
+                    Murmur3HashFunction.INSTANCE.hash(longKey, SEED, M, neighborhood, mask);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void fingerprintMatchesHash() {
+        long[] fingerprint = new long[2];
+        Murmur3HashFunction.fingerprint(FOX, KeyFunnels.byteArrays(), fingerprint);
+
+        int[] expectedNeighborhood = new int[K];
+        long[] expectedMask = new long[2];
+        Murmur3HashFunction.INSTANCE.hash(FOX, KeyFunnels.byteArrays(), SEED, M,
+                                          expectedNeighborhood, expectedMask);
+        int[] neighborhood = new int[K];
+        long[] mask = new long[2];
+        Murmur3HashFunction.INSTANCE.hash(fingerprint[0], fingerprint[1], SEED, M, neighborhood,
+                                          mask);
+
+        assertArrayEquals(expectedNeighborhood, neighborhood);
+        assertArrayEquals(expectedMask, mask);
+    }
+
+    @Test
+    public void hashCodeFunnelBucketsLikeHashCodes() {
+        for (int key = 0; key < 100; key++) {
+            assertEquals(Murmur3HashFunction.bucket(key, 7),
+                         Murmur3HashFunction.bucket(Integer.valueOf(key), KeyFunnels.hashCodes(),
+                                                    7));
+        }
+    }
+
+    private interface Hashing {
+        void hash(int key, int[] neighborhood, long[] mask);
+    }
+
+    private static <K> void assertSameHash(K key, KeyFunnel<? super K> funnel, Hashing expected) {
+        int[] expectedNeighborhood = new int[K];
+        long[] expectedMask = new long[3];
+        expected.hash(key.hashCode(), expectedNeighborhood, expectedMask);
+
+        int[] neighborhood = new int[K];
+        long[] mask = new long[3];
+        Murmur3HashFunction.INSTANCE.hash(key, funnel, SEED, M, neighborhood, mask);
+
+        assertArrayEquals(expectedNeighborhood, neighborhood);
+        assertArrayEquals(expectedMask, mask);
+    }
+
+    private static long littleEndian(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = value << 8 | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrderAndMatchFinderTest {
+    private static final int K = 3;
+    private static final int Q = 32;
+
+    private final List<Integer> keys = new ArrayList<Integer>();
+    private int m;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 10000; i++) {
+            keys.add(i);
+        }
+        m = (int) Math.ceil(1.23 * keys.size()) + 32;
+    }
+
+    @Test
+    public void matchesEveryKey() throws Exception {
+        OrderAndMatch<Integer> oam = new OrderAndMatchFinder<Integer>(keys, m, K, Q).find(10000);
+
+        Assert.assertEquals(new HashSet<Integer>(keys), new HashSet<Integer>(oam.getPi()));
+        Assert.assertEquals(keys.size(), oam.getTau().size());
+    }
+
+    @Test
+    public void statistics() throws Exception {
+        OrderAndMatch<Integer> oam = new OrderAndMatchFinder<Integer>(keys, m, K, Q).find(10000);
+
+        Assert.assertEquals(keys.size(), oam.getStatistics().getKeyCount());
+        Assert.assertTrue(oam.getStatistics().getSeedAttempts() >= 1);
+        Assert.assertTrue(oam.getStatistics().getPeelRounds() >= 1);
+    }
+
+    @Test
+    public void timeoutReportsStatistics() throws Exception {
+        // Far too small a table for any seed to peel
+        OrderAndMatchFinder<Integer> finder = new OrderAndMatchFinder<Integer>(keys,
+                                                                               keys.size() / 2, K,
+                                                                               Q);
+        try {
+            finder.find(50);
+            Assert.fail("Expected a TimeoutException");
+        } catch (TimeoutException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("seeds tried"));
+        }
+
+        Assert.assertTrue(finder.getStatistics().getSeedAttempts() >= 1);
+        Assert.assertTrue(finder.getStatistics().getStuckKeys() > 0);
+    }
+
+    @Test
+    public void parallelFindsSequentialSeed() throws Exception {
+        // A table right at the peeling threshold makes failing seeds common, so workers really race
+        int tightM = (int) (1.222 * keys.size());
+
+        OrderAndMatch<Integer> sequential = new OrderAndMatchFinder<Integer>(keys, tightM, K, Q, 42L)
+                .find(10000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            OrderAndMatch<Integer> parallel = new OrderAndMatchFinder<Integer>(keys, tightM, K, Q,
+                                                                               42L)
+                    .find(10000, executor, 4);
+            Assert.assertEquals(sequential.getHashSeed(), parallel.getHashSeed());
+            Assert.assertEquals(sequential.getPi(), parallel.getPi());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void laterSlotsAvoidEarlierNeighborhoods() throws Exception {
+        OrderAndMatch<Integer> oam = new OrderAndMatchFinder<Integer>(keys, m, K, Q).find(10000);
+        BloomierHasher<Integer> hasher = new BloomierHasher<Integer>(oam.getHashSeed(), m, K, Q);
+
+        List<Integer> pi = oam.getPi();
+        List<Integer> tau = oam.getTau();
+
+        // Walk backwards, so filledLater holds the slots of every key filled after pi[i]
+        Set<Integer> filledLater = new HashSet<Integer>();
+        for (int i = pi.size() - 1; i >= 0; i--) {
+            int[] neighborhood = hasher.getNeighborhood(pi.get(i));
+            for (int slot: neighborhood) {
+                Assert.assertFalse(filledLater.contains(slot));
+            }
+            Assert.assertTrue(filledLater.add(neighborhood[tau.get(i)]));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PackedBitsTest {
+    private static final int M = 100;
+
+    @Test
+    public void entriesRoundTrip() {
+        Random random = new Random(42);
+        for (int q: new int[] { 1, 12, 20, 40, 63, 64, 65, 100, 128, 200, 256, 1024 }) {
+            long[][] entries = new long[M][PackedBits.entryWords(q)];
+            long[] words = new long[(int) PackedBits.words(M, q)];
+            for (int i = 0; i < M; i++) {
+                for (int w = 0; w < entries[i].length; w++) {
+                    entries[i][w] = random.nextLong();
+                }
+                entries[i][entries[i].length - 1] &= PackedBits.lastWordMask(q);
+                PackedBits.xorFrom(entries[i], 0, words, (long) i * q, q);
+            }
+
+            for (int i = 0; i < M; i++) {
+                long[] entry = new long[PackedBits.entryWords(q)];
+                PackedBits.xorInto(words, (long) i * q, q, entry, 0);
+                assertArrayEquals("q=" + q + ", entry " + i, entries[i], entry);
+
+                entry = new long[PackedBits.entryWords(q)];
+                PackedBits.xorInto(new HeapTable(words), (long) i * q, q, entry, 0);
+                assertArrayEquals("q=" + q + ", entry " + i, entries[i], entry);
+            }
+        }
+    }
+
+    @Test
+    public void tableIsExactlyMTimesQBits() {
+        assertEquals(19, PackedBits.words(100, 12));
+        assertEquals(100, PackedBits.words(100, 64));
+        assertEquals(1, PackedBits.entryWords(40));
+        assertEquals(2, PackedBits.entryWords(65));
+        assertEquals(0xfffL, PackedBits.lastWordMask(12));
+        assertEquals(-1L, PackedBits.lastWordMask(128));
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RankIndexTest {
+
+    @Test
+    public void rankCountsSetPositionsBefore() {
+        int size = 5000;
+        Random random = new Random(42);
+        boolean[] set = new boolean[size];
+        int[] positions = new int[1200];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = random.nextInt(size);
+            set[positions[i]] = true;
+        }
+
+        RankIndex index = new RankIndex(size, positions);
+        int rank = 0;
+        for (int position = 0; position < size; position++) {
+            assertEquals(set[position], index.contains(position));
+            assertEquals(rank, index.rank(position));
+            if (set[position]) {
+                rank++;
+            }
+        }
+        assertEquals(rank, index.count());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2011, The University of Texas at Austin
+ * Produced in the Mobile and Pervasive Computing Lab
+ * Originally written by Evan Grim
+ *
+ * All rights reserved.
+ *
+ * See included LICENSE.txt for licensing details
+ *
+ */
+
+package edu.utexas.ece.mpc.bloomier.internal;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RibbonTest {
+    private static final int Q = 20;
+
+    @Test
+    public void everyBandXorsToItsValue() {
+        int n = 10000;
+        int m = (int) Math.ceil(1.15 * n) + Ribbon.WIDTH;
+        Random random = new Random(42);
+        int[] starts = new int[n];
+        long[] coefficients = new long[n];
+        long[] rhs = new long[n];
+        for (int i = 0; i < n; i++) {
+            starts[i] = random.nextInt(m - Ribbon.WIDTH + 1);
+            coefficients[i] = random.nextLong() | 1;
+            rhs[i] = random.nextLong() & PackedBits.lastWordMask(Q);
+        }
+
+        long[] words = new long[(int) PackedBits.words(m, Q)];
+        Assert.assertTrue(Ribbon.solve(m, Q, starts, coefficients, rhs, words));
+        for (int i = 0; i < n; i++) {
+            long[] result = new long[1];
+            for (long c = coefficients[i]; c != 0; c &= c - 1) {
+                PackedBits.xorInto(words, (long) (starts[i] + Long.numberOfTrailingZeros(c)) * Q,
+                                   Q, result, 0);
+            }
+            Assert.assertEquals("key " + i, rhs[i], result[0]);
+        }
+    }
+
+    @Test
+    public void xorBandMatchesEntryByEntry() {
+        int m = 300;
+        Random random = new Random(42);
+        for (int q: new int[] { 1, 20, 63, 64, 100 }) {
+            final long[] words = new long[(int) PackedBits.words(m, q)];
+            for (int w = 0; w < words.length; w++) {
+                words[w] = random.nextLong();
+            }
+            // Not a HeapTable, so bands get copied out rather than read in place
+            Table copied = new Table() {
+                @Override
+                public long get(int index) {
+                    return words[index];
+                }
+
+                @Override
+                public int size() {
+                    return words.length;
+                }
+            };
+            long[] band = Ribbon.perThreadBand(q).get();
+
+            for (int start: new int[] { 0, 1, 117, m - Ribbon.WIDTH }) {
+                long coefficients = random.nextLong() | 1;
+                long[] expected = new long[PackedBits.entryWords(q)];
+                for (long c = coefficients; c != 0; c &= c - 1) {
+                    PackedBits.xorInto(words, (long) (start + Long.numberOfTrailingZeros(c)) * q, q,
+                                       expected, 0);
+                }
+
+                long[] result = new long[expected.length];
+                Ribbon.xorBand(new HeapTable(words), q, start, coefficients, band, result);
+                Assert.assertArrayEquals("q=" + q + ", start " + start, expected, result);
+                result = new long[expected.length];
+                Ribbon.xorBand(copied, q, start, coefficients, band, result);
+                Assert.assertArrayEquals("q=" + q + ", start " + start, expected, result);
+            }
+        }
+    }
+
+    @Test
+    public void inconsistentBandsFail() {
+        int m = 2 * Ribbon.WIDTH;
+        int[] starts = { 5, 5 };
+        long[] coefficients = { 0x123L, 0x123L };
+        long[] words = new long[(int) PackedBits.words(m, Q)];
+        Assert.assertFalse(Ribbon.solve(m, Q, starts, coefficients, new long[] { 1, 2 }, words));
+
+        // The same band twice is fine as long as it's asked for the same value
+        words = new long[(int) PackedBits.words(m, Q)];
+        Assert.assertTrue(Ribbon.solve(m, Q, starts, coefficients, new long[] { 7, 7 }, words));
+    }
+}